@@ -0,0 +1,187 @@
+package net.feichti.microjavaeditor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModelListener;
+
+/**
+ * An index of the annotations of an annotation model sorted by position, for finding the annotations at an
+ * offset without iterating the whole model.
+ * <p>
+ * The index listens to the model and is rebuilt lazily on the first lookup after annotations were added,
+ * removed or changed. Positions of annotations are updated by the document without notifying the model, but
+ * they keep their relative order, so the index refers to the positions themselves instead of copying their
+ * offsets. For overlapping annotations it keeps the annotation with the largest end among all annotations
+ * before each one, so lookups can stop as soon as no earlier annotation reaches the offset.
+ * <p>
+ * The index can be used from any thread.
+ * 
+ * @author Peter
+ */
+public class MJAnnotationIndex implements IAnnotationModelListener
+{
+	/**
+	 * Decides which annotations are included in the index.
+	 */
+	public interface Filter
+	{
+		/**
+		 * Determine whether an annotation is included in the index.
+		 */
+		public boolean isIncluded(Annotation annotation);
+	}
+	
+	/**
+	 * An annotation with its position, used while sorting. The offsets are copied because the document can be
+	 * changed concurrently.
+	 */
+	private static class Entry
+	{
+		final Annotation annotation;
+		final Position position;
+		final int offset;
+		final int length;
+		
+		Entry(Annotation annotation, Position position) {
+			this.annotation = annotation;
+			this.position = position;
+			this.offset = position.getOffset();
+			this.length = position.getLength();
+		}
+	}
+	
+	private static final Comparator<Entry> POSITION_ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			if(a.offset != b.offset) {
+				return (a.offset < b.offset ? -1 : 1);
+			}
+			return Integer.compare(a.length, b.length);
+		}
+	};
+	
+	private final IAnnotationModel mModel;
+	private final Filter mFilter;
+	
+	private Annotation[] mAnnotations = new Annotation[0];
+	private Position[] mPositions = new Position[0];
+	/** The index of the annotation with the largest end among the annotations up to every index. */
+	private int[] mMaxEnd = new int[0];
+	private boolean mDirty = true;
+	
+	/**
+	 * Create a new index for the specified annotation model and start listening to it.
+	 * 
+	 * @param model The annotation model
+	 * @param filter Decides which annotations are included
+	 */
+	public MJAnnotationIndex(IAnnotationModel model, Filter filter) {
+		mModel = model;
+		mFilter = filter;
+		model.addAnnotationModelListener(this);
+	}
+	
+	/**
+	 * Stop listening to the annotation model.
+	 */
+	public void dispose() {
+		mModel.removeAnnotationModelListener(this);
+	}
+	
+	/**
+	 * Get the annotation model of this index.
+	 */
+	public IAnnotationModel getModel() {
+		return mModel;
+	}
+	
+	@Override
+	public synchronized void modelChanged(IAnnotationModel model) {
+		mDirty = true;
+	}
+	
+	/**
+	 * Find the annotations that overlap the specified region, see {@link Position#overlapsWith(int, int)}.
+	 * 
+	 * @param offset The start of the region
+	 * @param length The length of the region
+	 * @return The annotations sorted by position
+	 */
+	public synchronized List<Annotation> find(int offset, int length) {
+		if(mDirty) {
+			rebuild();
+		}
+		
+		// The last annotation starting inside the region, a position with length 0 can start at its end
+		int low = 0;
+		int high = mPositions.length - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			if(mPositions[mid].getOffset() <= offset + length) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		
+		final List<Annotation> ret = new ArrayList<>();
+		for(int j = high; j >= 0; j--) {
+			final Position max = mPositions[mMaxEnd[j]];
+			if(max.getOffset() + max.getLength() < offset) {
+				// No annotation up to this one reaches the region
+				break;
+			}
+			final Position p = mPositions[j];
+			if(!p.isDeleted() && p.overlapsWith(offset, length)) {
+				ret.add(mAnnotations[j]);
+			}
+		}
+		Collections.reverse(ret);
+		return ret;
+	}
+	
+	/**
+	 * Collect and sort the included annotations of the model.
+	 */
+	private void rebuild() {
+		mDirty = false;
+		final List<Entry> entries = new ArrayList<>();
+		final Iterator<?> e = mModel.getAnnotationIterator();
+		while(e.hasNext()) {
+			final Annotation a = (Annotation)e.next();
+			if(!mFilter.isIncluded(a)) {
+				continue;
+			}
+			final Position p = mModel.getPosition(a);
+			if(p != null && !p.isDeleted()) {
+				entries.add(new Entry(a, p));
+			}
+		}
+		Collections.sort(entries, POSITION_ORDER);
+		
+		final int size = entries.size();
+		mAnnotations = new Annotation[size];
+		mPositions = new Position[size];
+		mMaxEnd = new int[size];
+		int maxEnd = -1;
+		for(int j = 0; j < size; j++) {
+			final Entry entry = entries.get(j);
+			mAnnotations[j] = entry.annotation;
+			mPositions[j] = entry.position;
+			final int end = entry.offset + entry.length;
+			if(j == 0 || end > maxEnd) {
+				maxEnd = end;
+				mMaxEnd[j] = j;
+			} else {
+				mMaxEnd[j] = mMaxEnd[j - 1];
+			}
+		}
+	}
+}
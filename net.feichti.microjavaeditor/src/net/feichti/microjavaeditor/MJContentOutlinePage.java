@@ -1,12 +1,26 @@
 package net.feichti.microjavaeditor;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.feichti.microjavaeditor.ast.MJNode;
+import net.feichti.microjavaeditor.ast.MJProgram;
+import net.feichti.microjavaeditor.ast.MJScopeDecl;
 import net.feichti.microjavaeditor.microjava.MJFileModel;
 import net.feichti.microjavaeditor.util.MJLabelProvider;
+import net.feichti.microjavaeditor.util.MJOutlineElement;
 
 import org.eclipse.jface.text.Region;
+import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.ITreeSelection;
 import org.eclipse.jface.viewers.SelectionChangedEvent;
 import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.ui.texteditor.IDocumentProvider;
@@ -15,11 +29,64 @@ import org.eclipse.ui.views.contentoutline.ContentOutlinePage;
 
 public class MJContentOutlinePage extends ContentOutlinePage
 {
+	/**
+	 * Provides the {@link MJOutlineElement outline elements} of the page to the tree viewer.
+	 */
+	private class ContentProvider implements ITreeContentProvider
+	{
+		@Override
+		public void dispose() {
+			
+		}
+		
+		@Override
+		public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+			// The elements are managed by the outline page, see update()
+		}
+		
+		@Override
+		public Object[] getElements(Object input) {
+			if(mElements == null) {
+				return new Object[] { "Parser error." };
+			}
+			return mElements.toArray();
+		}
+		
+		@Override
+		public Object[] getChildren(Object parent) {
+			if(parent instanceof MJOutlineElement) {
+				return ((MJOutlineElement)parent).getChildren().toArray();
+			}
+			return new Object[0];
+		}
+		
+		@Override
+		public Object getParent(Object element) {
+			if(element instanceof MJOutlineElement) {
+				return ((MJOutlineElement)element).getParent();
+			}
+			return null;
+		}
+		
+		@Override
+		public boolean hasChildren(Object element) {
+			if(element instanceof MJOutlineElement) {
+				return !((MJOutlineElement)element).getChildren().isEmpty();
+			}
+			return false;
+		}
+	}
+	
 	protected Object mInput;
 	protected IDocumentProvider mDocumentProvider;
 	protected MJEditor mEditor;
 	protected MJFileModel mFileModel;
 	
+	/**
+	 * The top-level elements, {@code null} if the program could not be parsed.
+	 */
+	private List<MJOutlineElement> mElements;
+	
 	/**
 	 * Creates a content outline page using the given provider and the given editor.
 	 *
@@ -29,7 +96,7 @@ public class MJContentOutlinePage extends ContentOutlinePage
 	public MJContentOutlinePage(IDocumentProvider provider, MJEditor editor) {
 		mDocumentProvider = provider;
 		mEditor = editor;
-		mFileModel = new MJFileModel(mDocumentProvider);
+		mFileModel = editor.getFileModel();
 	}
 	
 	@Override
@@ -37,12 +104,12 @@ public class MJContentOutlinePage extends ContentOutlinePage
 		super.createControl(parent);
 		
 		TreeViewer viewer = getTreeViewer();
-		viewer.setContentProvider(mFileModel);
+		viewer.setContentProvider(new ContentProvider());
 		viewer.setLabelProvider(MJLabelProvider.create());
 		viewer.addSelectionChangedListener(this);
 		
 		if(mInput != null) {
-			viewer.setInput(mInput);
+			update();
 		}
 	}
 	
@@ -53,9 +120,11 @@ public class MJContentOutlinePage extends ContentOutlinePage
 		ITreeSelection selection = (ITreeSelection)event.getSelection();
 		if(!selection.isEmpty()) {
 			Object sel = selection.getFirstElement();
-			Region ident = MJFileModel.getIdentRange(sel);
-			if(ident != null) {
-				mEditor.selectAndReveal(ident.getOffset(), ident.getLength());
+			if(sel instanceof MJOutlineElement) {
+				Region ident = MJFileModel.getIdentRange(((MJOutlineElement)sel).getNode());
+				if(ident != null) {
+					mEditor.selectAndReveal(ident.getOffset(), ident.getLength());
+				}
 			}
 			mEditor.updateHighlight(true);
 		}
@@ -73,6 +142,11 @@ public class MJContentOutlinePage extends ContentOutlinePage
 	
 	/**
 	 * Updates the outline page.
+	 * <p>
+	 * The current program is compared to the elements shown in the outline, only elements that were added,
+	 * removed or whose label changed are updated in the tree viewer. Elements that were merely moved in the
+	 * document keep their tree item. The whole tree is only refreshed when the input changes or when the program
+	 * could not be parsed before or now.
 	 */
 	public void update() {
 		TreeViewer viewer = getTreeViewer();
@@ -80,14 +154,148 @@ public class MJContentOutlinePage extends ContentOutlinePage
 		if(viewer != null) {
 			Control control = viewer.getControl();
 			if(control != null && !control.isDisposed()) {
-				control.setRedraw(false);
-				viewer.setInput(mInput);
-				viewer.expandToLevel(1);
-				control.setRedraw(true);
+				final List<MJNode> nodes = getTopLevelNodes(mFileModel.getRoot());
+				if(nodes == null || mElements == null || viewer.getInput() != mInput) {
+					mElements = (nodes != null ? createElements(null, nodes) : null);
+					control.setRedraw(false);
+					if(viewer.getInput() != mInput) {
+						viewer.setInput(mInput);
+					} else {
+						viewer.refresh();
+					}
+					viewer.expandToLevel(1);
+					control.setRedraw(true);
+				} else {
+					reconcile(viewer, null, mElements, nodes);
+				}
 			}
 		}
 	}
 	
+	/**
+	 * Get the nodes shown at the top level of the outline, in the order they are shown.
+	 * 
+	 * @param root The program, may be {@code null}
+	 * @return The nodes, or {@code null} if {@code root} is {@code null}
+	 */
+	private static List<MJNode> getTopLevelNodes(MJProgram root) {
+		if(root == null) {
+			return null;
+		}
+		List<MJNode> nodes = new ArrayList<>(root.getDeclarationCount() + 1);
+		nodes.add(root);
+		nodes.addAll(root.getClasses());
+		nodes.addAll(root.getConstants());
+		nodes.addAll(root.getVariables());
+		nodes.addAll(root.getMethods());
+		return nodes;
+	}
+	
+	private static List<MJOutlineElement> createElements(MJOutlineElement parent, List<? extends MJNode> nodes) {
+		List<MJOutlineElement> ret = new ArrayList<>(nodes.size());
+		for(MJNode node : nodes) {
+			ret.add(new MJOutlineElement(parent, node));
+		}
+		return ret;
+	}
+	
+	/**
+	 * Bring a list of outline elements up to date with the nodes it should show, and update the tree viewer
+	 * accordingly.
+	 * 
+	 * @param viewer The tree viewer
+	 * @param parent The parent element, or {@code null} for top-level elements
+	 * @param elements The elements currently shown, updated in place
+	 * @param nodes The nodes that should be shown
+	 */
+	private void reconcile(TreeViewer viewer, MJOutlineElement parent, List<MJOutlineElement> elements,
+			List<? extends MJNode> nodes) {
+		final int count = nodes.size();
+		
+		// Fast path, no element was added, removed or moved
+		boolean same = (elements.size() == count);
+		for(int j = 0; same && j < count; j++) {
+			same = MJOutlineElement.isSameElement(elements.get(j).getNode(), nodes.get(j));
+		}
+		if(same) {
+			for(int j = 0; j < count; j++) {
+				update(viewer, elements.get(j), nodes.get(j));
+			}
+			return;
+		}
+		
+		// Match the new nodes with the old elements, elements with the same key are matched in order
+		Map<String, LinkedList<MJOutlineElement>> oldElements = new HashMap<>();
+		for(MJOutlineElement el : elements) {
+			final String key = MJOutlineElement.getKey(el.getNode());
+			LinkedList<MJOutlineElement> list = oldElements.get(key);
+			if(list == null) {
+				list = new LinkedList<>();
+				oldElements.put(key, list);
+			}
+			list.add(el);
+		}
+		List<MJOutlineElement> newElements = new ArrayList<>(count);
+		Set<MJOutlineElement> added = new HashSet<>();
+		for(MJNode node : nodes) {
+			final LinkedList<MJOutlineElement> list = oldElements.get(MJOutlineElement.getKey(node));
+			MJOutlineElement el = (list != null ? list.poll() : null);
+			if(el != null) {
+				update(viewer, el, node);
+			} else {
+				el = new MJOutlineElement(parent, node);
+				added.add(el);
+			}
+			newElements.add(el);
+		}
+		
+		// Remove elements that have no match
+		List<MJOutlineElement> current = new ArrayList<>(elements);
+		List<MJOutlineElement> removed = new ArrayList<>();
+		for(LinkedList<MJOutlineElement> list : oldElements.values()) {
+			removed.addAll(list);
+		}
+		if(!removed.isEmpty()) {
+			current.removeAll(removed);
+			viewer.remove(removed.toArray());
+		}
+		
+		// Insert new elements and move the ones that changed their position
+		final Object viewerParent = (parent != null ? parent : viewer.getInput());
+		for(int j = 0; j < count; j++) {
+			final MJOutlineElement el = newElements.get(j);
+			if(j < current.size() && current.get(j) == el) {
+				continue;
+			}
+			if(!added.contains(el)) {
+				current.remove(el);
+				viewer.remove(el);
+			}
+			current.add(j, el);
+			viewer.insert(viewerParent, el, j);
+		}
+		
+		elements.clear();
+		elements.addAll(newElements);
+	}
+	
+	/**
+	 * Replace the node of an outline element, the tree viewer is only updated if the label changed.
+	 */
+	private void update(TreeViewer viewer, MJOutlineElement el, MJNode node) {
+		final MJNode old = el.getNode();
+		if(old == node) {
+			return;
+		}
+		el.setNode(node);
+		if(MJOutlineElement.isLabelChanged(old, node)) {
+			viewer.update(el, null);
+		}
+		if(node instanceof MJScopeDecl) {
+			reconcile(viewer, el, el.getChildren(), ((MJScopeDecl)node).getVariables());
+		}
+	}
+	
 	/**
 	 * Get the document provider for this outline page.
 	 */
@@ -4,15 +4,12 @@ import org.eclipse.core.filebuffers.IDocumentSetupParticipant;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentExtension3;
 import org.eclipse.jface.text.IDocumentPartitioner;
-import org.eclipse.jface.text.rules.FastPartitioner;
 
 public class MJDocumentSetupParticipant implements IDocumentSetupParticipant
 {
 	@Override
 	public void setup(IDocument document) {
-		MJPartitionScanner partitionScanner = MicroJavaEditorPlugin.getPartitionScanner();
-		IDocumentPartitioner partitioner =
-				new FastPartitioner(partitionScanner, MJPartitionScanner.MICROJAVA_PARTITION_TYPES);
+		IDocumentPartitioner partitioner = new MJPartitioner();
 		
 		if(document instanceof IDocumentExtension3) {
 			IDocumentExtension3 e3 = (IDocumentExtension3)document;
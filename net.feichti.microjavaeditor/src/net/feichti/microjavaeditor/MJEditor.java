@@ -2,22 +2,23 @@ package net.feichti.microjavaeditor;
 
 import java.util.List;
 
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.VarDeclContext;
+import net.feichti.microjavaeditor.ast.MJNode;
+import net.feichti.microjavaeditor.ast.MJVarDecl;
+import net.feichti.microjavaeditor.ast.VariableKind;
+import net.feichti.microjavaeditor.microjava.MJCharacterPairMatcher;
+import net.feichti.microjavaeditor.microjava.MJContainerIndex;
 import net.feichti.microjavaeditor.microjava.MJFileModel;
-import net.feichti.microjavaeditor.microjava.MJFileModel.VariableKind;
+import net.feichti.microjavaeditor.microjava.MJSemanticHighlighter;
 import net.feichti.microjavaeditor.util.SourceRegion;
 
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.TerminalNode;
 import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.preference.IPreferenceStore;
-import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITextSelection;
 import org.eclipse.jface.text.ITextViewerExtension5;
 import org.eclipse.jface.text.Region;
-import org.eclipse.jface.text.source.DefaultCharacterPairMatcher;
+import org.eclipse.jface.text.source.IAnnotationModel;
 import org.eclipse.jface.text.source.ICharacterPairMatcher;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.jface.viewers.IPostSelectionProvider;
@@ -25,9 +26,12 @@ import org.eclipse.jface.viewers.ISelectionChangedListener;
 import org.eclipse.jface.viewers.ISelectionProvider;
 import org.eclipse.jface.viewers.SelectionChangedEvent;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.editors.text.TextEditor;
+import org.eclipse.ui.texteditor.IDocumentProvider;
 import org.eclipse.ui.texteditor.SourceViewerDecorationSupport;
+import org.eclipse.ui.texteditor.TextOperationAction;
 import org.eclipse.ui.views.contentoutline.IContentOutlinePage;
 
 public class MJEditor extends TextEditor implements ISelectionChangedListener
@@ -36,6 +40,14 @@ public class MJEditor extends TextEditor implements ISelectionChangedListener
 	 * The ID of this editor.
 	 */
 	public static final String ID = "net.feichti.microjavaeditor.MJEditor";
+	/**
+	 * The ID of the context that is active in this editor.
+	 */
+	public static final String CONTEXT_ID = "net.feichti.microjavaeditor.scope";
+	/**
+	 * The ID of the format command.
+	 */
+	public static final String FORMAT_COMMAND_ID = "net.feichti.microjavaeditor.format";
 	
 	// Preference keys
 	public final static String PREFKEY_MATCHING_BRACKETS = "matchingBrackets";
@@ -44,18 +56,42 @@ public class MJEditor extends TextEditor implements ISelectionChangedListener
 	public final static String PREFKEY_MATCHING_BRACKETS_COLOR = "matchingBracketsColor";
 	
 	private MJContentOutlinePage mOutlinePage;
+	private MJFileModel mFileModel;
 	private ICharacterPairMatcher mBracketMatcher;
-	
-	// TODO semantic highlighting (StyleRange)
+	private MJSemanticHighlighter mSemanticHighlighter;
+	private MJOccurrencesMarker mOccurrencesMarker;
+	/** Whether the editor was saved while the file model was out of date, only accessed on the UI thread. */
+	private boolean mMarkersPending;
 	
 	public MJEditor() {
-		mBracketMatcher = new DefaultCharacterPairMatcher(new char[] { '(', ')', '{', '}', '[', ']' });
+		mBracketMatcher = new MJCharacterPairMatcher(this);
+	}
+	
+	@Override
+	protected void initializeKeyBindingScopes() {
+		setKeyBindingScopes(new String[] { CONTEXT_ID });
+	}
+	
+	@Override
+	protected void createActions() {
+		super.createActions();
+		
+		IAction action = new TextOperationAction(MJEditorMessages.getResourceBundle(), "Format.", this,
+				ISourceViewer.FORMAT);
+		action.setActionDefinitionId(FORMAT_COMMAND_ID);
+		setAction("Format", action);
+		markAsStateDependentAction("Format", true);
+		markAsSelectionDependentAction("Format", true);
 	}
 	
 	@Override
 	public void createPartControl(Composite parent) {
 		super.createPartControl(parent);
 		
+		mSemanticHighlighter = new MJSemanticHighlighter(MicroJavaEditorPlugin.getColorManager());
+		mSemanticHighlighter.install(getSourceViewer());
+		mOccurrencesMarker = new MJOccurrencesMarker(this);
+		
 		ISelectionProvider selectionProvider = getSelectionProvider();
 		if(selectionProvider instanceof IPostSelectionProvider) {
 			((IPostSelectionProvider)selectionProvider).addPostSelectionChangedListener(this);
@@ -69,6 +105,15 @@ public class MJEditor extends TextEditor implements ISelectionChangedListener
 		if(mOutlinePage != null) {
 			mOutlinePage.dispose();
 		}
+		if(mFileModel != null) {
+			mFileModel.setInput(null);
+		}
+		if(mSemanticHighlighter != null) {
+			mSemanticHighlighter.uninstall();
+		}
+		if(mOccurrencesMarker != null) {
+			mOccurrencesMarker.dispose();
+		}
 		ISelectionProvider selectionProvider = getSelectionProvider();
 		if(selectionProvider instanceof IPostSelectionProvider) {
 			((IPostSelectionProvider)selectionProvider).removePostSelectionChangedListener(this);
@@ -78,36 +123,10 @@ public class MJEditor extends TextEditor implements ISelectionChangedListener
 		super.dispose();
 	}
 	
-	@Override
-	public void doRevertToSaved() {
-		super.doRevertToSaved();
-		if(mOutlinePage != null) {
-			mOutlinePage.update();
-			updateHighlight();
-		}
-	}
-	
-	@Override
-	public void doSave(IProgressMonitor progressMonitor) {
-		super.doSave(progressMonitor);
-		if(mOutlinePage != null) {
-			mOutlinePage.update();
-			updateHighlight();
-		}
-	}
-	
-	@Override
-	public void doSaveAs() {
-		super.doSaveAs();
-		if(mOutlinePage != null) {
-			mOutlinePage.update();
-			updateHighlight();
-		}
-	}
-	
 	@Override
 	protected void doSetInput(IEditorInput input) throws CoreException {
 		super.doSetInput(input);
+		getFileModel().setInput(input);
 		if(mOutlinePage != null) {
 			mOutlinePage.setInput(input);
 		}
@@ -119,6 +138,7 @@ public class MJEditor extends TextEditor implements ISelectionChangedListener
 		
 		addAction(menu, "ContentAssistProposal");
 		addAction(menu, "ContentAssistTip");
+		addAction(menu, "Format");
 	}
 	
 	@Override
@@ -132,15 +152,88 @@ public class MJEditor extends TextEditor implements ISelectionChangedListener
 			}
 			return mOutlinePage;
 		} else if(MJFileModel.class.equals(adapter)) {
-			if(mOutlinePage == null) {
-				getAdapter(IContentOutlinePage.class);
-			}
-			return mOutlinePage.getFileModel();
+			return getFileModel();
 		}
 		
 		return super.getAdapter(adapter);
 	}
 	
+	/**
+	 * Get the file model for this editor, the model is created if necessary.
+	 */
+	public MJFileModel getFileModel() {
+		if(mFileModel == null) {
+			mFileModel = new MJFileModel(getDocumentProvider());
+		}
+		return mFileModel;
+	}
+	
+	/**
+	 * Notify the editor that the file model has been reconciled.
+	 * <p>
+	 * This method can be called from any thread, the outline page, error annotations and highlight range are
+	 * updated asynchronously on the UI thread. Problem markers are only updated when the editor is saved, or
+	 * after the first reconcile of the saved text if the model was out of date when saving. The semantic
+	 * highlighting is computed on the calling thread, which is usually the reconciler thread, the occurrences of
+	 * the symbol under the caret are marked by a background job.
+	 */
+	public void modelChanged() {
+		final MJSemanticHighlighter.Highlights highlights = MJSemanticHighlighter.compute(getFileModel());
+		Display display = getSite().getShell().getDisplay();
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				if(getSourceViewer() == null) {
+					// Editor was disposed in the meantime
+					return;
+				}
+				getFileModel().updateAnnotations(getAnnotationModel());
+				if(mMarkersPending && getFileModel().isCurrent() && !isDirty()) {
+					// The errors are those of the saved text now
+					updateMarkers();
+				}
+				if(mOutlinePage != null) {
+					mOutlinePage.update();
+				}
+				if(highlights != null && mSemanticHighlighter != null && getFileModel().isCurrent()) {
+					// Otherwise the document was changed and the highlighting is updated by the next reconcile
+					mSemanticHighlighter.update(highlights);
+				}
+				updateHighlight();
+				updateOccurrences();
+			}
+		});
+	}
+	
+	@Override
+	protected void editorSaved() {
+		super.editorSaved();
+		if(getFileModel().isCurrent()) {
+			updateMarkers();
+		} else {
+			// The errors of the last reconcile are those of an older text, the markers are updated after the next
+			mMarkersPending = true;
+		}
+	}
+	
+	/**
+	 * Replace the problem markers with the errors of the last reconcile and remove the error annotations, which
+	 * are then shown by the markers.
+	 */
+	private void updateMarkers() {
+		mMarkersPending = false;
+		getFileModel().updateMarkers();
+		getFileModel().clearAnnotations(getAnnotationModel());
+	}
+	
+	/**
+	 * Get the annotation model of the current input, or {@code null} if there is none.
+	 */
+	IAnnotationModel getAnnotationModel() {
+		final IDocumentProvider provider = getDocumentProvider();
+		return (provider != null ? provider.getAnnotationModel(getEditorInput()) : null);
+	}
+	
 	@Override
 	protected void initializeEditor() {
 		super.initializeEditor();
@@ -189,65 +282,78 @@ public class MJEditor extends TextEditor implements ISelectionChangedListener
 	@Override
 	public void selectionChanged(SelectionChangedEvent event) {
 		updateHighlight();
+		updateOccurrences();
 	}
 	
 	/**
-	 * Update the highlighting range according to the current selection. Requires that the outline page be
-	 * set.
+	 * Mark the occurrences of the symbol at the caret, the annotations are updated in the background.
+	 */
+	private void updateOccurrences() {
+		if(mOccurrencesMarker != null) {
+			final ITextSelection sel = (ITextSelection)getSelectionProvider().getSelection();
+			mOccurrencesMarker.update(sel.getOffset());
+		}
+	}
+	
+	/**
+	 * Update the highlighting range according to the current selection.
 	 */
 	public void updateHighlight() {
 		updateHighlight(false);
 	}
 	
 	/**
-	 * Update the highlighting range according to the current selection. Requires that the outline page be
-	 * set.
+	 * Update the highlighting range according to the current selection.
 	 * 
 	 * @param reveal Whether to reveal the new highlight range as well
 	 */
 	public void updateHighlight(boolean reveal) {
 		final ITextSelection sel = (ITextSelection)getSelectionProvider().getSelection();
-		List<TerminalNode> tokens = mOutlinePage.getFileModel().getTokensForOffset(sel.getOffset());
+		final MJContainerIndex containers = getFileModel().getContainerIndex();
+		List<SourceRegion> tokens = getFileModel().getTokensForOffset(sel.getOffset());
 		// TODO consider selection end to decide on highlight range
 		
-		ParseTree parent;
-		if(tokens.isEmpty()) {
+		int parent;
+		if(tokens.isEmpty() || containers == null || containers.size() == 0) {
 			return;
 		} else if(tokens.size() == 1) {
 			// Inside a token, highlight the container
-			parent = MJFileModel.getContainer(tokens.get(0));
+			parent = findContainer(containers, tokens.get(0));
 		} else {
 			// Between two tokens, decide which container to highlight
-			ParseTree p1 = MJFileModel.getContainer(tokens.get(0));
-			ParseTree p2 = MJFileModel.getContainer(tokens.get(1));
-			if(p1 == p2) {
+			int p1 = findContainer(containers, tokens.get(0));
+			int p2 = findContainer(containers, tokens.get(1));
+			if(p1 == p2 || containers.contains(p1, p2)) {
 				parent = p1;
+			} else if(containers.contains(p2, p1)) {
+				parent = p2;
 			} else {
-				SourceRegion r1 = MJFileModel.getSourceRange(p1);
-				SourceRegion r2 = MJFileModel.getSourceRange(p2);
-				if(r1.contains(r2)) {
-					parent = p1;
-				} else if(r2.contains(r1)) {
-					parent = p2;
-				} else {
-					// Disjoint regions, highlight parent of both
-					parent = p1.getParent();
-				}
+				// Disjoint regions, highlight parent of both
+				parent = Math.max(containers.getParent(p1), 0);
 			}
 		}
 		
-		assert parent != null;
-		if(parent instanceof VarDeclContext) {
-			if(VariableKind.forDeclaration((VarDeclContext)parent) == VariableKind.LOCAL) {
+		final MJNode node = containers.getNode(parent);
+		if(node instanceof MJVarDecl) {
+			if(((MJVarDecl)node).getKind() == VariableKind.LOCAL) {
 				// Highlight method for local variables
-				parent = parent.getParent();
+				parent = containers.getParent(parent);
 			}
 		}
-		IRegion range = MJFileModel.getSourceRange(parent);
-		assert range != null;
-		setHighlightRange(range.getOffset(), range.getLength(), false);
+		final int offset = containers.getStart(parent);
+		final int length = containers.getLength(parent);
+		setHighlightRange(offset, length, false);
 		if(reveal) {
-			getSourceViewer().revealRange(range.getOffset(), range.getLength());
+			getSourceViewer().revealRange(offset, length);
 		}
 	}
+	
+	/**
+	 * Find the innermost container of the specified token, falls back to the program if there is none.
+	 */
+	private static int findContainer(MJContainerIndex containers, SourceRegion token) {
+		// The last character is used so the EOF token (which starts after the document) ends up in the program
+		final int idx = containers.find(token.getOffset() + token.getLength() - 1);
+		return Math.max(idx, 0);
+	}
 }
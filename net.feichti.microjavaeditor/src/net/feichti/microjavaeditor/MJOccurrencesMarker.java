@@ -0,0 +1,242 @@
+package net.feichti.microjavaeditor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.feichti.microjavaeditor.microjava.MJContainerIndex;
+import net.feichti.microjavaeditor.microjava.MJFileModel;
+import net.feichti.microjavaeditor.microjava.MJReferenceIndex;
+import net.feichti.microjavaeditor.symtab.Symbol;
+import net.feichti.microjavaeditor.symtab.SymbolTable;
+import net.feichti.microjavaeditor.util.SourceRegion;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.ISynchronizable;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModelExtension;
+
+/**
+ * Marks the occurrences of the symbol under the caret with annotations.
+ * <p>
+ * The marker is a background job that is rescheduled for every caret movement. Rescheduling cancels a
+ * running search and replaces a pending one, so only the latest caret offset is ever searched. The symbol is
+ * looked up for the identifier token at the caret and its occurrences are taken from the reference index of
+ * the last parse. The occurrences of a symbol are computed once per parse, moving the caret between them does
+ * not change the annotations.
+ * <p>
+ * Occurrences are only marked while the file model is current, otherwise the offsets of the last parse do not
+ * match the document. The editor updates the marker again after the next reconcile.
+ * 
+ * @author Peter
+ */
+public class MJOccurrencesMarker extends Job
+{
+	/**
+	 * The type of occurrence annotations.
+	 */
+	public static final String OCCURRENCE_ANNOTATION_TYPE = "net.feichti.microjavaeditor.occurrence";
+	
+	private final MJEditor mEditor;
+	
+	/** The caret offset to mark the occurrences for, guarded by {@code this}. */
+	private int mOffset = -1;
+	/** Whether the editor was disposed, guarded by {@code this}. */
+	private boolean mDisposed;
+	
+	/** The annotation model the current annotations were added to, guarded by {@code this}. */
+	private IAnnotationModel mAnnotationModel;
+	/** The current occurrence annotations, guarded by {@code this}. */
+	private Annotation[] mAnnotations = new Annotation[0];
+	/** The references the current annotations were computed from, only accessed by the job. */
+	private MJReferenceIndex mReferences;
+	/** The symbol whose occurrences are currently marked, only accessed by the job. */
+	private Symbol mSymbol;
+	
+	/**
+	 * Create a new occurrences marker for the specified editor.
+	 */
+	public MJOccurrencesMarker(MJEditor editor) {
+		super("Marking MicroJava occurrences");
+		mEditor = editor;
+		setSystem(true);
+		setPriority(Job.INTERACTIVE);
+	}
+	
+	/**
+	 * Mark the occurrences of the symbol at the specified caret offset, replacing a pending or running update.
+	 * <p>
+	 * This method can be called from any thread.
+	 */
+	public void update(int offset) {
+		synchronized(this) {
+			if(mDisposed) {
+				return;
+			}
+			mOffset = offset;
+		}
+		cancel();
+		schedule();
+	}
+	
+	/**
+	 * Cancel pending updates and remove the occurrence annotations.
+	 */
+	public void dispose() {
+		synchronized(this) {
+			mDisposed = true;
+		}
+		cancel();
+		replaceAnnotations(null, new HashMap<Annotation, Position>());
+	}
+	
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		final int offset;
+		synchronized(this) {
+			if(mDisposed) {
+				return Status.CANCEL_STATUS;
+			}
+			offset = mOffset;
+		}
+		final MJFileModel model = mEditor.getFileModel();
+		final IAnnotationModel annotationModel = mEditor.getAnnotationModel();
+		final SymbolTable tab = model.getSymbolTable();
+		final MJReferenceIndex references = model.getReferenceIndex();
+		final MJContainerIndex nodes = model.getContainerIndex();
+		if(annotationModel == null || tab == null || references == null || nodes == null || !model.isCurrent()) {
+			// Marked again when the model is reconciled
+			return Status.OK_STATUS;
+		}
+		
+		final Symbol sym = findSymbol(model, tab, references, nodes, offset);
+		if(monitor.isCanceled()) {
+			return Status.CANCEL_STATUS;
+		}
+		synchronized(this) {
+			if(sym == mSymbol && references == mReferences && annotationModel == mAnnotationModel) {
+				// The caret moved between occurrences of the same symbol
+				return Status.OK_STATUS;
+			}
+		}
+		
+		final Map<Annotation, Position> added = new HashMap<>();
+		if(sym != null) {
+			final String text = MJEditorMessages.format("OccurrencesMarker.description.pattern", sym.getName());
+			for(SourceRegion region : getOccurrences(sym, references, nodes)) {
+				added.put(new Annotation(OCCURRENCE_ANNOTATION_TYPE, false, text),
+						new Position(region.getOffset(), region.getLength()));
+			}
+		}
+		if(monitor.isCanceled() || !model.isCurrent()) {
+			return Status.CANCEL_STATUS;
+		}
+		if(replaceAnnotations(annotationModel, added)) {
+			mReferences = references;
+			mSymbol = sym;
+		}
+		return Status.OK_STATUS;
+	}
+	
+	/**
+	 * Find the symbol that is referenced or declared by the identifier token at the specified offset, an offset
+	 * right after an identifier also belongs to it.
+	 * 
+	 * @return The symbol, or {@code null} if there is none
+	 */
+	private static Symbol findSymbol(MJFileModel model, SymbolTable tab, MJReferenceIndex references,
+			MJContainerIndex nodes, int offset) {
+		for(SourceRegion token : model.getTokensForOffset(offset)) {
+			final int start = token.getOffset();
+			if(offset < start || offset > start + token.getLength()) {
+				// Before the first or after the last token
+				continue;
+			}
+			final int ref = references.find(start);
+			if(ref >= 0 && references.getRegion(ref).getOffset() == start) {
+				final Symbol sym = references.getSymbol(ref);
+				if(sym != null) {
+					return sym;
+				}
+				continue;
+			}
+			final int id = nodes.find(start);
+			final SourceRegion name = (id >= 0 ? nodes.getNode(id).getNameRegion() : null);
+			if(name != null && name.getOffset() == start && id < tab.getSymbols().length) {
+				return tab.getSymbol(id);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the regions of the declaration and all references of the specified symbol.
+	 */
+	private static List<SourceRegion> getOccurrences(Symbol sym, MJReferenceIndex references,
+			MJContainerIndex nodes) {
+		final int[] usages = references.getUsages(sym);
+		final List<SourceRegion> ret = new ArrayList<>(usages.length + 1);
+		final int decl = sym.getDeclaration();
+		if(decl >= 0 && decl < nodes.size()) {
+			final SourceRegion name = nodes.getNode(decl).getNameRegion();
+			if(name != null) {
+				ret.add(name);
+			}
+		}
+		for(int usage : usages) {
+			ret.add(references.getRegion(usage));
+		}
+		return ret;
+	}
+	
+	/**
+	 * Replace the current occurrence annotations.
+	 * 
+	 * @param annotationModel The annotation model to add the new annotations to, {@code null} to only remove
+	 * @param added The new annotations
+	 * @return {@code true} if the annotations were replaced, {@code false} if the editor was disposed
+	 */
+	private synchronized boolean replaceAnnotations(IAnnotationModel annotationModel,
+			Map<Annotation, Position> added) {
+		if(mDisposed && annotationModel != null) {
+			return false;
+		}
+		if(mAnnotationModel != null && mAnnotationModel != annotationModel) {
+			// The input was changed, the old annotations are removed from their own model
+			replaceAnnotations(mAnnotationModel, mAnnotations, new HashMap<Annotation, Position>());
+			mAnnotations = new Annotation[0];
+		}
+		if(annotationModel != null) {
+			replaceAnnotations(annotationModel, mAnnotations, added);
+		}
+		mAnnotationModel = annotationModel;
+		mAnnotations = added.keySet().toArray(new Annotation[added.size()]);
+		return true;
+	}
+	
+	private static void replaceAnnotations(IAnnotationModel model, Annotation[] removed,
+			Map<Annotation, Position> added) {
+		Object lock = (model instanceof ISynchronizable ? ((ISynchronizable)model).getLockObject() : null);
+		if(lock == null) {
+			lock = model;
+		}
+		synchronized(lock) {
+			if(model instanceof IAnnotationModelExtension) {
+				((IAnnotationModelExtension)model).replaceAnnotations(removed, added);
+			} else {
+				for(Annotation a : removed) {
+					model.removeAnnotation(a);
+				}
+				for(Map.Entry<Annotation, Position> e : added.entrySet()) {
+					model.addAnnotation(e.getKey(), e.getValue());
+				}
+			}
+		}
+	}
+}
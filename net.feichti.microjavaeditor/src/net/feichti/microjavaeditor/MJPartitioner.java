@@ -0,0 +1,619 @@
+package net.feichti.microjavaeditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentPartitioner;
+import org.eclipse.jface.text.IDocumentPartitionerExtension;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.TypedRegion;
+
+/**
+ * Partitions a MicroJava document into code and multi-line comments, which can be nested.
+ * <p>
+ * The partitioner remembers the comment nesting depth at the start of every line as a checkpoint, which is 0
+ * for lines that start in code. When the document is changed, scanning resumes at the last checkpoint before
+ * the change with the depth remembered for it, and stops at the first line start after the change where the
+ * depth is the same as at the corresponding old checkpoint, because the rest of the document is partitioned
+ * the same way as before. Checkpoints and comment partitions are kept in parallel arrays sorted by offset, the
+ * ones after the scanned range are only shifted.
+ * <p>
+ * Like the lexer, a comment that is not closed extends to the end of the document. Character constants are
+ * skipped in code, so {@code '/'} followed by {@code *} does not start a comment.
+ * <p>
+ * The same scan counts the braces in code, so every checkpoint also has the brace depth at the start of its
+ * line and the smallest depth reached on the line. The auto indent strategy uses them to find the line of an
+ * open brace without reading the lines in between. When a change alters the brace depth at the end of the
+ * scanned range, the depths of the lines after it are only shifted.
+ * 
+ * @author Peter
+ */
+public class MJPartitioner implements IDocumentPartitioner, IDocumentPartitionerExtension
+{
+	public final static String MICROJAVA_COMMENT = "__microjava_multiline_comment";
+	public final static String[] MICROJAVA_PARTITION_TYPES = new String[] { MICROJAVA_COMMENT };
+	
+	private static final String[] LEGAL_CONTENT_TYPES = { IDocument.DEFAULT_CONTENT_TYPE, MICROJAVA_COMMENT };
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int CHUNK_SIZE = 4096;
+	/** Marks the start or end of a comment that continues outside of the scanned range. */
+	private static final int OPEN = -1;
+	
+	private IDocument mDocument;
+	
+	/** The offsets of the line starts, including 0. */
+	private int[] mLineStart = new int[INITIAL_CAPACITY];
+	/** The comment nesting depth at the start of every line. */
+	private int[] mLineDepth = new int[INITIAL_CAPACITY];
+	/** The brace depth at the start of every line. */
+	private int[] mLineBraces = new int[INITIAL_CAPACITY];
+	/** The smallest brace depth on every line, including its start and end. */
+	private int[] mLineMinBraces = new int[INITIAL_CAPACITY];
+	private int mLineCount;
+	/** The start offsets of the comment partitions. */
+	private int[] mCommentStart = new int[INITIAL_CAPACITY];
+	/** The end offsets of the comment partitions, exclusive. */
+	private int[] mCommentEnd = new int[INITIAL_CAPACITY];
+	private int mCommentCount;
+	
+	/** The line starts found by the last scan, excluding the ones it started and stopped at. */
+	private int[] mScanLineStart = new int[INITIAL_CAPACITY];
+	private int[] mScanDepth = new int[INITIAL_CAPACITY];
+	private int[] mScanBraces = new int[INITIAL_CAPACITY];
+	private int[] mScanMinBraces = new int[INITIAL_CAPACITY];
+	private int mScanLines;
+	/** The smallest brace depth on the line the last scan started at. */
+	private int mScanStartMinBraces;
+	/** The index of the old line the last scan stopped at, or the number of lines. */
+	private int mScanNextLine;
+	/** The change in brace depth at the old line the last scan stopped at. */
+	private int mScanBraceDelta;
+	/** The brace depth at the end of the line prefix that was scanned last. */
+	private int mPrefixBraces;
+	/** The smallest brace depth on the line prefix that was scanned last. */
+	private int mPrefixMinBraces;
+	/** The comments found by the last scan, the first start and last end may be {@link #OPEN}. */
+	private int[] mScanStart = new int[INITIAL_CAPACITY];
+	private int[] mScanEnd = new int[INITIAL_CAPACITY];
+	private int mScanComments;
+	
+	@Override
+	public void connect(IDocument document) {
+		mDocument = document;
+		mLineStart[0] = 0;
+		mLineDepth[0] = 0;
+		mLineBraces[0] = 0;
+		mLineCount = 1;
+		mCommentCount = 0;
+		try {
+			// Same as inserting the whole text into an empty document
+			update(0, 0, document.getLength());
+		} catch(BadLocationException ex) {
+			ex.printStackTrace();
+		}
+	}
+	
+	@Override
+	public void disconnect() {
+		mDocument = null;
+	}
+	
+	@Override
+	public void documentAboutToBeChanged(DocumentEvent event) {
+		
+	}
+	
+	@Override
+	public boolean documentChanged(DocumentEvent event) {
+		return (documentChanged2(event) != null);
+	}
+	
+	@Override
+	public IRegion documentChanged2(DocumentEvent event) {
+		final int textLength = (event.getText() != null ? event.getText().length() : 0);
+		try {
+			return update(event.getOffset(), event.getLength(), textLength);
+		} catch(BadLocationException ex) {
+			// Should not happen, partition the whole document again
+			ex.printStackTrace();
+			connect(mDocument);
+			return new Region(0, mDocument.getLength());
+		}
+	}
+	
+	@Override
+	public String[] getLegalContentTypes() {
+		return LEGAL_CONTENT_TYPES.clone();
+	}
+	
+	@Override
+	public String getContentType(int offset) {
+		return getPartition(offset).getType();
+	}
+	
+	@Override
+	public ITypedRegion[] computePartitioning(int offset, int length) {
+		if(length == 0) {
+			return new ITypedRegion[] { getPartition(offset) };
+		}
+		final List<ITypedRegion> ret = new ArrayList<>();
+		final int end = offset + length;
+		int pos = offset;
+		int j = findCommentEndingAfter(offset);
+		while(pos < end) {
+			if(j < mCommentCount && mCommentStart[j] <= pos) {
+				final int stop = Math.min(mCommentEnd[j], end);
+				ret.add(new TypedRegion(pos, stop - pos, MICROJAVA_COMMENT));
+				pos = stop;
+				j++;
+			} else {
+				final int stop = (j < mCommentCount ? Math.min(mCommentStart[j], end) : end);
+				ret.add(new TypedRegion(pos, stop - pos, IDocument.DEFAULT_CONTENT_TYPE));
+				pos = stop;
+			}
+		}
+		return ret.toArray(new ITypedRegion[ret.size()]);
+	}
+	
+	@Override
+	public ITypedRegion getPartition(int offset) {
+		final int j = findCommentEndingAfter(offset);
+		if(j < mCommentCount && mCommentStart[j] <= offset) {
+			return new TypedRegion(mCommentStart[j], mCommentEnd[j] - mCommentStart[j], MICROJAVA_COMMENT);
+		}
+		final int start = (j > 0 ? mCommentEnd[j - 1] : 0);
+		final int end = (j < mCommentCount ? mCommentStart[j] : mDocument.getLength());
+		return new TypedRegion(start, end - start, IDocument.DEFAULT_CONTENT_TYPE);
+	}
+	
+	/**
+	 * Get the brace depth at the specified offset, only braces in code are counted.
+	 * 
+	 * @param offset The offset in the document
+	 * @return The number of braces that are open at the offset, negative if more braces were closed
+	 * @throws BadLocationException If the offset is invalid in the document
+	 */
+	public int getBraceDepth(int offset) throws BadLocationException {
+		scanLinePrefix(offset);
+		return mPrefixBraces;
+	}
+	
+	/**
+	 * Determine whether a brace that was opened on the line of the specified offset, before the offset, is still
+	 * open at the offset.
+	 * 
+	 * @param offset The offset in the document
+	 * @return {@code true} if a brace is still open, {@code false} otherwise
+	 * @throws BadLocationException If the offset is invalid in the document
+	 */
+	public boolean isBraceOpenOnLine(int offset) throws BadLocationException {
+		scanLinePrefix(offset);
+		return (mPrefixBraces > mPrefixMinBraces);
+	}
+	
+	/**
+	 * Find the line of the innermost brace that is still open at the specified offset, that is the brace a
+	 * closing brace at the offset belongs to.
+	 * <p>
+	 * Only the line of the offset is read, earlier lines are skipped using the smallest brace depth on them.
+	 * 
+	 * @param offset The offset in the document
+	 * @return The start offset of the line, or {@code -1} if no brace is open at the offset
+	 * @throws BadLocationException If the offset is invalid in the document
+	 */
+	public int findOpenBraceLine(int offset) throws BadLocationException {
+		final int line = scanLinePrefix(offset);
+		// The brace follows the last position before the offset with a smaller depth
+		final int target = mPrefixBraces - 1;
+		if(mPrefixMinBraces <= target) {
+			return mLineStart[line];
+		}
+		for(int j = line - 1; j >= 0; j--) {
+			if(mLineMinBraces[j] <= target) {
+				return mLineStart[j];
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Count the braces on the line of the specified offset up to the offset, starting with the comment and brace
+	 * depth of the line start. The results are stored in {@link #mPrefixBraces} and {@link #mPrefixMinBraces}.
+	 * 
+	 * @return The index of the line
+	 */
+	private int scanLinePrefix(int offset) throws BadLocationException {
+		if(offset < 0 || offset > mDocument.getLength()) {
+			throw new BadLocationException();
+		}
+		final int line = findLineAfter(offset) - 1;
+		final int start = mLineStart[line];
+		final String text = mDocument.get(start, offset - start);
+		int depth = mLineDepth[line];
+		int braces = mLineBraces[line];
+		int minBraces = braces;
+		int i = 0;
+		while(i < text.length()) {
+			final char c = text.charAt(i);
+			final int next = (i + 1 < text.length() ? text.charAt(i + 1) : -1);
+			if(depth > 0) {
+				if(c == '*' && next == '/') {
+					i += 2;
+					depth--;
+				} else if(c == '/' && next == '*') {
+					i += 2;
+					depth++;
+				} else {
+					i++;
+				}
+			} else if(c == '/' && next == '*') {
+				i += 2;
+				depth = 1;
+			} else if(c == '\'') {
+				i = skipCharConst(start + i) - start;
+			} else {
+				if(c == '{') {
+					braces++;
+				} else if(c == '}') {
+					minBraces = Math.min(minBraces, --braces);
+				}
+				i++;
+			}
+		}
+		mPrefixBraces = braces;
+		mPrefixMinBraces = minBraces;
+		return line;
+	}
+	
+	/**
+	 * Scan the changed part of the document and update the checkpoints and comment partitions.
+	 * 
+	 * @param offset The offset of the change
+	 * @param length The length of the replaced text
+	 * @param textLength The length of the inserted text
+	 * @return The region of the document whose partitioning changed, or {@code null} if it didn't change
+	 */
+	private IRegion update(int offset, int length, int textLength) throws BadLocationException {
+		final int delta = textLength - length;
+		// The depth at the last line start before the change is still valid. A line ending with CR before the
+		// change is scanned again, an inserted LF joins the line break and removes the line start after it.
+		final int startLine = findLineAfter(offset > 0 ? offset - 1 : offset) - 1;
+		final int scanStart = mLineStart[startLine];
+		final int scanStop = scan(startLine, offset + textLength, findLineAfter(offset + length - 1), delta);
+		final int nextLine = mScanNextLine;
+		final int braceDelta = mScanBraceDelta;
+		
+		// The old comments that overlap the scanned range, including a comment that was not closed and ends at
+		// the start of the range because it was at the end of the document
+		final int first = findCommentEndingAfter(scanStart - 1);
+		int last = first;
+		while(last < mCommentCount && mCommentStart[last] < scanStop - delta) {
+			last++;
+		}
+		if(mScanComments > 0 && mScanStart[0] == OPEN) {
+			mScanStart[0] = mCommentStart[first];
+		}
+		if(mScanComments > 0 && mScanEnd[mScanComments - 1] == OPEN) {
+			mScanEnd[mScanComments - 1] = mCommentEnd[last - 1] + delta;
+		}
+		final IRegion changed = getChangedRegion(first, last, offset, length, textLength);
+		
+		// Replace the old line starts, the ones after the scanned range are shifted
+		final int lineCount = mLineCount - (nextLine - startLine - 1) + mScanLines;
+		int[] starts = mLineStart;
+		int[] depths = mLineDepth;
+		int[] braces = mLineBraces;
+		int[] minBraces = mLineMinBraces;
+		if(lineCount > starts.length) {
+			starts = Arrays.copyOf(starts, lineCount * 2);
+			depths = Arrays.copyOf(depths, lineCount * 2);
+			braces = Arrays.copyOf(braces, lineCount * 2);
+			minBraces = Arrays.copyOf(minBraces, lineCount * 2);
+		}
+		int suffix = startLine + 1 + mScanLines;
+		System.arraycopy(mLineStart, nextLine, starts, suffix, mLineCount - nextLine);
+		System.arraycopy(mLineDepth, nextLine, depths, suffix, mLineCount - nextLine);
+		System.arraycopy(mLineBraces, nextLine, braces, suffix, mLineCount - nextLine);
+		System.arraycopy(mLineMinBraces, nextLine, minBraces, suffix, mLineCount - nextLine);
+		System.arraycopy(mScanLineStart, 0, starts, startLine + 1, mScanLines);
+		System.arraycopy(mScanDepth, 0, depths, startLine + 1, mScanLines);
+		System.arraycopy(mScanBraces, 0, braces, startLine + 1, mScanLines);
+		System.arraycopy(mScanMinBraces, 0, minBraces, startLine + 1, mScanLines);
+		minBraces[startLine] = mScanStartMinBraces;
+		for(int j = suffix; j < lineCount; j++) {
+			starts[j] += delta;
+			braces[j] += braceDelta;
+			minBraces[j] += braceDelta;
+		}
+		mLineStart = starts;
+		mLineDepth = depths;
+		mLineBraces = braces;
+		mLineMinBraces = minBraces;
+		mLineCount = lineCount;
+		
+		// Replace the old comments, the ones after the scanned range are shifted
+		final int count = mCommentCount - (last - first) + mScanComments;
+		starts = mCommentStart;
+		int[] ends = mCommentEnd;
+		if(count > starts.length) {
+			starts = Arrays.copyOf(starts, count * 2);
+			ends = Arrays.copyOf(ends, count * 2);
+		}
+		suffix = first + mScanComments;
+		System.arraycopy(mCommentStart, last, starts, suffix, mCommentCount - last);
+		System.arraycopy(mCommentEnd, last, ends, suffix, mCommentCount - last);
+		System.arraycopy(mScanStart, 0, starts, first, mScanComments);
+		System.arraycopy(mScanEnd, 0, ends, first, mScanComments);
+		for(int j = suffix; j < count; j++) {
+			starts[j] += delta;
+			ends[j] += delta;
+		}
+		mCommentStart = starts;
+		mCommentEnd = ends;
+		mCommentCount = count;
+		return changed;
+	}
+	
+	/**
+	 * Determine the region whose partitioning was changed, by comparing the old comments overlapping the
+	 * scanned range with the new ones.
+	 */
+	private IRegion getChangedRegion(int first, int last, int offset, int length, int textLength) {
+		final int oldCount = last - first;
+		int front = 0;
+		while(front < oldCount && front < mScanComments &&
+				isSameComment(first + front, front, offset, length, textLength)) {
+			front++;
+		}
+		if(front == oldCount && front == mScanComments) {
+			return null;
+		}
+		int back = 0;
+		while(back < oldCount - front && back < mScanComments - front &&
+				isSameComment(last - 1 - back, mScanComments - 1 - back, offset, length, textLength)) {
+			back++;
+		}
+		
+		int start = Integer.MAX_VALUE;
+		int end = Integer.MIN_VALUE;
+		if(front < mScanComments - back) {
+			start = mScanStart[front];
+			end = mScanEnd[mScanComments - 1 - back];
+		}
+		if(front < oldCount - back) {
+			int s = mapStart(mCommentStart[first + front], offset, length, textLength);
+			int e = mapEnd(mCommentEnd[last - 1 - back], offset, length, textLength);
+			start = Math.min(start, (s >= 0 ? s : offset));
+			end = Math.max(end, (e >= 0 ? e : offset + textLength));
+		}
+		return new Region(start, end - start);
+	}
+	
+	/**
+	 * Determine whether an old comment is the same as a comment found by the last scan, after the change.
+	 */
+	private boolean isSameComment(int oldIndex, int newIndex, int offset, int length, int textLength) {
+		return (mapStart(mCommentStart[oldIndex], offset, length, textLength) == mScanStart[newIndex] &&
+				mapEnd(mCommentEnd[oldIndex], offset, length, textLength) == mScanEnd[newIndex]);
+	}
+	
+	/**
+	 * Map the start offset of an old comment to the document after the change.
+	 * 
+	 * @return The new offset, or {@code -1} if it was in the replaced text
+	 */
+	private static int mapStart(int start, int offset, int length, int textLength) {
+		if(start < offset) {
+			return start;
+		}
+		return (start >= offset + length ? start + textLength - length : -1);
+	}
+	
+	/**
+	 * Map the end offset of an old comment to the document after the change.
+	 * 
+	 * @return The new offset, or {@code -1} if it was in the replaced text
+	 */
+	private static int mapEnd(int end, int offset, int length, int textLength) {
+		if(end <= offset) {
+			return end;
+		}
+		return (end >= offset + length ? end + textLength - length : -1);
+	}
+	
+	/**
+	 * Scan the document starting at the specified line, until a line start after {@code minOffset} has the same
+	 * depth as the corresponding old line start, or until the end of the document.
+	 * <p>
+	 * The line starts that were found are stored in {@link #mScanLineStart}, {@link #mScanDepth} and
+	 * {@link #mScanBraces}, the smallest brace depths of the scanned lines in {@link #mScanStartMinBraces} and
+	 * {@link #mScanMinBraces}, the old line the scan stopped at in {@link #mScanNextLine} together with the
+	 * change of its brace depth, and the comments that were found in {@link #mScanStart} and
+	 * {@link #mScanEnd}.
+	 * 
+	 * @param startLine The line to start at
+	 * @param minOffset The offset after which the scan may stop
+	 * @param nextLine The first old line that may correspond to a line start after {@code minOffset}
+	 * @param delta The change in document length, to map old line starts to the changed document
+	 * @return The offset the scan stopped at
+	 */
+	private int scan(int startLine, int minOffset, int nextLine, int delta) throws BadLocationException {
+		final int length = mDocument.getLength();
+		int pos = mLineStart[startLine];
+		int depth = mLineDepth[startLine];
+		int braces = mLineBraces[startLine];
+		int minBraces = braces;
+		int commentStart = (depth > 0 ? OPEN : -1);
+		mScanLines = 0;
+		mScanComments = 0;
+		
+		// Read the document in chunks to avoid copying all of it for a small change
+		String chunk = "";
+		int chunkStart = pos;
+		while(pos < length) {
+			int i = pos - chunkStart;
+			if(i + 1 >= chunk.length()) {
+				chunkStart = pos;
+				chunk = mDocument.get(pos, Math.min(CHUNK_SIZE, length - pos));
+				i = 0;
+			}
+			final char c = chunk.charAt(i);
+			final int next = (i + 1 < chunk.length() ? chunk.charAt(i + 1) : -1);
+			if(c == '\n' || c == '\r') {
+				pos += (c == '\r' && next == '\n' ? 2 : 1);
+				finishLine(minBraces);
+				if(pos >= minOffset) {
+					while(nextLine < mLineCount && mLineStart[nextLine] + delta < pos) {
+						nextLine++;
+					}
+					if(nextLine < mLineCount && mLineStart[nextLine] + delta == pos && mLineDepth[nextLine] == depth) {
+						if(depth > 0) {
+							addComment(commentStart, OPEN);
+						}
+						mScanNextLine = nextLine;
+						mScanBraceDelta = braces - mLineBraces[nextLine];
+						return pos;
+					}
+				}
+				addLine(pos, depth, braces);
+				minBraces = braces;
+			} else if(depth > 0) {
+				if(c == '*' && next == '/') {
+					pos += 2;
+					if(--depth == 0) {
+						addComment(commentStart, pos);
+					}
+				} else if(c == '/' && next == '*') {
+					pos += 2;
+					depth++;
+				} else {
+					pos++;
+				}
+			} else if(c == '/' && next == '*') {
+				commentStart = pos;
+				pos += 2;
+				depth = 1;
+			} else if(c == '\'') {
+				pos = skipCharConst(pos);
+			} else {
+				if(c == '{') {
+					braces++;
+				} else if(c == '}') {
+					minBraces = Math.min(minBraces, --braces);
+				}
+				pos++;
+			}
+		}
+		
+		// A comment that is not closed extends to the end of the document
+		if(depth > 0) {
+			addComment(commentStart, length);
+		}
+		finishLine(minBraces);
+		mScanNextLine = mLineCount;
+		mScanBraceDelta = 0;
+		return length;
+	}
+	
+	/**
+	 * Skip a character constant, a quote that does not start one on the same line is skipped by itself.
+	 * 
+	 * @return The offset after the character constant
+	 */
+	private int skipCharConst(int start) throws BadLocationException {
+		final int length = mDocument.getLength();
+		int pos = start + 1;
+		while(pos < length) {
+			final char c = mDocument.getChar(pos);
+			if(c == '\n' || c == '\r') {
+				break;
+			} else if(c == '\'') {
+				return pos + 1;
+			} else if(c == '\\' && pos + 1 < length && mDocument.getChar(pos + 1) != '\n' &&
+					mDocument.getChar(pos + 1) != '\r') {
+				// Skip the escaped character, but never a line delimiter
+				pos++;
+			}
+			pos++;
+		}
+		return start + 1;
+	}
+	
+	private void addLine(int start, int depth, int braces) {
+		if(mScanLines == mScanLineStart.length) {
+			mScanLineStart = Arrays.copyOf(mScanLineStart, mScanLines * 2);
+			mScanDepth = Arrays.copyOf(mScanDepth, mScanLines * 2);
+			mScanBraces = Arrays.copyOf(mScanBraces, mScanLines * 2);
+			mScanMinBraces = Arrays.copyOf(mScanMinBraces, mScanLines * 2);
+		}
+		mScanLineStart[mScanLines] = start;
+		mScanDepth[mScanLines] = depth;
+		mScanBraces[mScanLines] = braces;
+		mScanLines++;
+	}
+	
+	/**
+	 * Set the smallest brace depth of the last line found by the scan, or of the line it started at.
+	 */
+	private void finishLine(int minBraces) {
+		if(mScanLines == 0) {
+			mScanStartMinBraces = minBraces;
+		} else {
+			mScanMinBraces[mScanLines - 1] = minBraces;
+		}
+	}
+	
+	private void addComment(int start, int end) {
+		if(mScanComments == mScanStart.length) {
+			mScanStart = Arrays.copyOf(mScanStart, mScanComments * 2);
+			mScanEnd = Arrays.copyOf(mScanEnd, mScanComments * 2);
+		}
+		mScanStart[mScanComments] = start;
+		mScanEnd[mScanComments] = end;
+		mScanComments++;
+	}
+	
+	/**
+	 * Find the first line that starts after the specified offset.
+	 * 
+	 * @return The index of the line, or the number of lines if there is none
+	 */
+	private int findLineAfter(int offset) {
+		int low = 0;
+		int high = mLineCount;
+		while(low < high) {
+			final int mid = (low + high) >>> 1;
+			if(mLineStart[mid] > offset) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Find the first comment that ends after the specified offset.
+	 * 
+	 * @return The index of the comment, or the number of comments if there is none
+	 */
+	private int findCommentEndingAfter(int offset) {
+		int low = 0;
+		int high = mCommentCount;
+		while(low < high) {
+			final int mid = (low + high) >>> 1;
+			if(mCommentEnd[mid] > offset) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+}
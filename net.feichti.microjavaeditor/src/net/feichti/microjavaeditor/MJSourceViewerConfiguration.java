@@ -2,7 +2,10 @@ package net.feichti.microjavaeditor;
 
 import net.feichti.microjavaeditor.microjava.MJAutoIndentStrategy;
 import net.feichti.microjavaeditor.microjava.MJCompletionProcessor;
+import net.feichti.microjavaeditor.microjava.MJContentFormatter;
 import net.feichti.microjavaeditor.microjava.MJDoubleClickSelector;
+import net.feichti.microjavaeditor.microjava.MJReconcilingStrategy;
+import net.feichti.microjavaeditor.microjava.MJTokenDamagerRepairer;
 
 import org.eclipse.jface.text.DefaultIndentLineAutoEditStrategy;
 import org.eclipse.jface.text.IAutoEditStrategy;
@@ -11,8 +14,11 @@ import org.eclipse.jface.text.ITextDoubleClickStrategy;
 import org.eclipse.jface.text.ITextHover;
 import org.eclipse.jface.text.contentassist.ContentAssistant;
 import org.eclipse.jface.text.contentassist.IContentAssistant;
+import org.eclipse.jface.text.formatter.IContentFormatter;
 import org.eclipse.jface.text.presentation.IPresentationReconciler;
 import org.eclipse.jface.text.presentation.PresentationReconciler;
+import org.eclipse.jface.text.reconciler.IReconciler;
+import org.eclipse.jface.text.reconciler.MonoReconciler;
 import org.eclipse.jface.text.rules.DefaultDamagerRepairer;
 import org.eclipse.jface.text.source.DefaultAnnotationHover;
 import org.eclipse.jface.text.source.IAnnotationHover;
@@ -21,6 +27,11 @@ import org.eclipse.jface.text.source.SourceViewerConfiguration;
 
 public class MJSourceViewerConfiguration extends SourceViewerConfiguration
 {
+	/**
+	 * The delay in milliseconds after the last change before the document is parsed again.
+	 */
+	public static final int RECONCILE_DELAY = 500;
+	
 	private MJEditor mEditor;
 	
 	public MJSourceViewerConfiguration(MJEditor editor) {
@@ -47,14 +58,14 @@ public class MJSourceViewerConfiguration extends SourceViewerConfiguration
 	
 	@Override
 	public String[] getConfiguredContentTypes(ISourceViewer sourceViewer) {
-		return new String[] { IDocument.DEFAULT_CONTENT_TYPE, MJPartitionScanner.MICROJAVA_COMMENT };
+		return new String[] { IDocument.DEFAULT_CONTENT_TYPE, MJPartitioner.MICROJAVA_COMMENT };
 	}
 	
 	@Override
 	public IContentAssistant getContentAssistant(ISourceViewer sourceViewer) {
 		ContentAssistant assistant = new ContentAssistant();
 		assistant.setDocumentPartitioning(getConfiguredDocumentPartitioning(sourceViewer));
-		assistant.setContentAssistProcessor(new MJCompletionProcessor(), IDocument.DEFAULT_CONTENT_TYPE);
+		assistant.setContentAssistProcessor(new MJCompletionProcessor(mEditor), IDocument.DEFAULT_CONTENT_TYPE);
 		
 		assistant.enableAutoActivation(true);
 		assistant.setAutoActivationDelay(0);
@@ -64,9 +75,14 @@ public class MJSourceViewerConfiguration extends SourceViewerConfiguration
 		return assistant;
 	}
 	
+	@Override
+	public IContentFormatter getContentFormatter(ISourceViewer sourceViewer) {
+		return new MJContentFormatter();
+	}
+	
 	@Override
 	public ITextDoubleClickStrategy getDoubleClickStrategy(ISourceViewer sourceViewer, String contentType) {
-		return new MJDoubleClickSelector();
+		return new MJDoubleClickSelector(mEditor);
 	}
 	
 	@Override
@@ -79,17 +95,24 @@ public class MJSourceViewerConfiguration extends SourceViewerConfiguration
 		PresentationReconciler reconciler = new PresentationReconciler();
 		reconciler.setDocumentPartitioning(getConfiguredDocumentPartitioning(sourceViewer));
 		
-		DefaultDamagerRepairer dr = new DefaultDamagerRepairer(MicroJavaEditorPlugin.getCodeScanner());
+		DefaultDamagerRepairer dr = new MJTokenDamagerRepairer(mEditor, MicroJavaEditorPlugin.getCodeScanner());
 		reconciler.setDamager(dr, IDocument.DEFAULT_CONTENT_TYPE);
 		reconciler.setRepairer(dr, IDocument.DEFAULT_CONTENT_TYPE);
 		
 		dr = new DefaultDamagerRepairer(MicroJavaEditorPlugin.getCommentScanner());
-		reconciler.setDamager(dr, MJPartitionScanner.MICROJAVA_COMMENT);
-		reconciler.setRepairer(dr, MJPartitionScanner.MICROJAVA_COMMENT);
+		reconciler.setDamager(dr, MJPartitioner.MICROJAVA_COMMENT);
+		reconciler.setRepairer(dr, MJPartitioner.MICROJAVA_COMMENT);
 		
 		return reconciler;
 	}
 	
+	@Override
+	public IReconciler getReconciler(ISourceViewer sourceViewer) {
+		MonoReconciler reconciler = new MonoReconciler(new MJReconcilingStrategy(mEditor), false);
+		reconciler.setDelay(RECONCILE_DELAY);
+		return reconciler;
+	}
+	
 	@Override
 	public int getTabWidth(ISourceViewer sourceViewer) {
 		return 4;
@@ -1,6 +1,22 @@
 package net.feichti.microjavaeditor;
 
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.feichti.microjavaeditor.microjava.MJContainerIndex;
+import net.feichti.microjavaeditor.microjava.MJFileModel;
+import net.feichti.microjavaeditor.microjava.MJReferenceIndex;
+import net.feichti.microjavaeditor.symtab.BuiltinFunctionSymbol;
+import net.feichti.microjavaeditor.symtab.BuiltinTypeSymbol;
+import net.feichti.microjavaeditor.symtab.ClassSymbol;
+import net.feichti.microjavaeditor.symtab.ConstantSymbol;
+import net.feichti.microjavaeditor.symtab.GlobalScope;
+import net.feichti.microjavaeditor.symtab.MethodSymbol;
+import net.feichti.microjavaeditor.symtab.Scope;
+import net.feichti.microjavaeditor.symtab.Symbol;
+import net.feichti.microjavaeditor.symtab.SymbolTable;
+import net.feichti.microjavaeditor.util.SourceRegion;
 
 import org.eclipse.jface.text.DefaultInformationControl;
 import org.eclipse.jface.text.IInformationControl;
@@ -10,7 +26,6 @@ import org.eclipse.jface.text.ITextHover;
 import org.eclipse.jface.text.ITextHoverExtension;
 import org.eclipse.jface.text.ITextHoverExtension2;
 import org.eclipse.jface.text.ITextViewer;
-import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.Region;
 import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.jface.text.source.IAnnotationModel;
@@ -19,11 +34,35 @@ import org.eclipse.jface.text.source.ISourceViewerExtension2;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.editors.text.EditorsUI;
 
+/**
+ * Shows the messages of annotations and describes the symbol of the identifier under the mouse.
+ * <p>
+ * Annotations are looked up in an {@link MJAnnotationIndex} of the visual annotation model, symbols in the
+ * reference index and symbol table of the file model. The description of a symbol is built once and cached
+ * until the symbol table is replaced by the next parse, so hovering does not depend on the size of the file.
+ * Hovers are computed on a background thread.
+ * 
+ * @author Peter
+ */
 public class MJTextHover implements ITextHover, ITextHoverExtension, ITextHoverExtension2
 {
 	private MJEditor mEditor;
 	private ISourceViewer mSourceViewer;
 	
+	/** The index of the annotation model that was hovered last, guarded by {@code this}. */
+	private MJAnnotationIndex mAnnotationIndex;
+	private final MJAnnotationIndex.Filter mFilter = new MJAnnotationIndex.Filter() {
+		@Override
+		public boolean isIncluded(Annotation annotation) {
+			return MJTextHover.this.isIncluded(annotation);
+		}
+	};
+	
+	/** The symbol table the descriptions in {@link #mSymbolHovers} belong to, guarded by the map. */
+	private SymbolTable mSymbolTable;
+	/** The descriptions of the symbols that were hovered. */
+	private final Map<Symbol, String> mSymbolHovers = new HashMap<>();
+	
 	public MJTextHover(MJEditor editor, ISourceViewer sourceViewer) {
 		mSourceViewer = sourceViewer;
 		mEditor = editor;
@@ -31,35 +70,125 @@ public class MJTextHover implements ITextHover, ITextHoverExtension, ITextHoverE
 	
 	@Override
 	public String getHoverInfo(ITextViewer textViewer, IRegion hoverRegion) {
-		IAnnotationModel model = getAnnotationModel(mSourceViewer);
+		final String msg = getAnnotationHover(hoverRegion);
+		if(msg != null) {
+			return msg;
+		}
+		return getSymbolHover(hoverRegion.getOffset());
+	}
+	
+	/**
+	 * Get the message of the first annotation in the specified region that has one.
+	 */
+	private String getAnnotationHover(IRegion hoverRegion) {
+		final MJAnnotationIndex index = getAnnotationIndex();
+		if(index == null) {
+			return null;
+		}
+		
+		final List<Annotation> annotations = index.find(hoverRegion.getOffset(), hoverRegion.getLength());
+		for(Annotation a : annotations) {
+			String msg = a.getText();
+			if(msg != null && msg.trim().length() > 0) {
+				return msg;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the index of the current annotation model, a new index is created if the model changed.
+	 */
+	private synchronized MJAnnotationIndex getAnnotationIndex() {
+		final IAnnotationModel model = getAnnotationModel(mSourceViewer);
 		if(model == null) {
 			return null;
 		}
+		if(mAnnotationIndex == null || mAnnotationIndex.getModel() != model) {
+			if(mAnnotationIndex != null) {
+				mAnnotationIndex.dispose();
+			}
+			mAnnotationIndex = new MJAnnotationIndex(model, mFilter);
+		}
+		return mAnnotationIndex;
+	}
+	
+	/**
+	 * Describe the symbol that is referenced or declared at the specified offset.
+	 */
+	private String getSymbolHover(int offset) {
+		final MJFileModel model = mEditor.getFileModel();
+		final SymbolTable tab = model.getSymbolTable();
+		final MJReferenceIndex references = model.getReferenceIndex();
+		final MJContainerIndex nodes = model.getContainerIndex();
+		if(tab == null || references == null || nodes == null) {
+			return null;
+		}
 		
-		Iterator<Annotation> e = model.getAnnotationIterator();
-		while(e.hasNext()) {
-			Annotation a = e.next();
-			if(!isIncluded(a)) {
-				continue;
+		final int parsedOffset = model.getParsedOffset(offset);
+		Symbol sym = null;
+		final int ref = references.find(parsedOffset);
+		if(ref >= 0) {
+			sym = references.getSymbol(ref);
+		} else {
+			// Not a reference, maybe the name of a declaration
+			final int id = nodes.find(parsedOffset);
+			final SourceRegion name = (id >= 0 ? nodes.getNode(id).getNameRegion() : null);
+			if(name != null && name.getOffset() <= parsedOffset && parsedOffset <= name.getOffset() + name.getLength()
+					&& id < tab.getSymbols().length) {
+				sym = tab.getSymbol(id);
 			}
-			
-			Position p = model.getPosition(a);
-			if(p != null && p.overlapsWith(hoverRegion.getOffset(), hoverRegion.getLength())) {
-				String msg = a.getText();
-				if(msg != null && msg.trim().length() > 0) {
-					return msg;
-				}
+		}
+		if(sym == null) {
+			return null;
+		}
+		
+		synchronized(mSymbolHovers) {
+			if(tab != mSymbolTable) {
+				mSymbolHovers.clear();
+				mSymbolTable = tab;
 			}
+			String text = mSymbolHovers.get(sym);
+			if(text == null) {
+				text = describe(sym);
+				mSymbolHovers.put(sym, text);
+			}
+			return text;
+		}
+	}
+	
+	/**
+	 * Describe the kind, type and name of a symbol.
+	 */
+	private static String describe(Symbol sym) {
+		final String name = sym.getName();
+		final String type = (sym.getType() != null ? sym.getType().getName() : "?");
+		if(sym instanceof ClassSymbol) {
+			return MJEditorMessages.format("TextHover.class.pattern", name);
+		} else if(sym instanceof MethodSymbol) {
+			return MJEditorMessages.format("TextHover.method.pattern", type, name);
+		} else if(sym instanceof ConstantSymbol) {
+			return MJEditorMessages.format("TextHover.constant.pattern", type, name, ((ConstantSymbol)sym).getValue());
+		} else if(sym instanceof BuiltinFunctionSymbol) {
+			return MJEditorMessages.format("TextHover.builtinFunction.pattern", name);
+		} else if(sym instanceof BuiltinTypeSymbol) {
+			return MJEditorMessages.format("TextHover.builtinType.pattern", name);
 		}
 		
-		return null;
+		final Scope scope = sym.getScope();
+		if(scope instanceof ClassSymbol) {
+			return MJEditorMessages.format("TextHover.field.pattern", type, name, scope.getName());
+		} else if(scope instanceof GlobalScope || scope == null) {
+			return MJEditorMessages.format("TextHover.global.pattern", type, name);
+		}
+		return MJEditorMessages.format("TextHover.local.pattern", type, name, scope.getName());
 	}
-
+	
 	@Override
 	public Object getHoverInfo2(ITextViewer textViewer, IRegion hoverRegion) {
 		return getHoverInfo(textViewer, hoverRegion);
 	}
-
+	
 	@Override
 	public IInformationControlCreator getHoverControlCreator() {
 		return new IInformationControlCreator() {
@@ -78,7 +207,9 @@ public class MJTextHover implements ITextHover, ITextHoverExtension, ITextHoverE
 	@SuppressWarnings("static-method")
 	protected boolean isIncluded(Annotation annotation) {
 		if(annotation.getType() != null) {
-			return !annotation.getType().startsWith("org.eclipse.ui.workbench.texteditor.quickdiff");
+			// Occurrences are shown for the symbol under the caret, the symbol info is more useful
+			return !annotation.getType().startsWith("org.eclipse.ui.workbench.texteditor.quickdiff") &&
+					!annotation.getType().equals(MJOccurrencesMarker.OCCURRENCE_ANNOTATION_TYPE);
 		}
 		return true;
 	}
@@ -2,13 +2,21 @@ package net.feichti.microjavaeditor;
 
 import java.net.URL;
 
+import net.feichti.microjavaeditor.index.MJIndexer;
+import net.feichti.microjavaeditor.index.MJSymbolIndex;
 import net.feichti.microjavaeditor.microjava.MJCodeScanner;
 import net.feichti.microjavaeditor.microjava.MJCommentScanner;
+import net.feichti.microjavaeditor.microjava.MJParserPool;
 import net.feichti.microjavaeditor.util.MJColorManager;
 
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.resource.ImageRegistry;
 import org.eclipse.swt.graphics.Image;
@@ -33,21 +41,43 @@ public class MicroJavaEditorPlugin extends AbstractUIPlugin
 	public static final String IMG_MAIN_OVERLAY = "run_co.gif";
 	public static final String IMG_LOCAL = "localvariable_obj.gif";
 	
+	private static final String SYMBOL_INDEX_FILE = "symbols.idx";
+	
 	private static MicroJavaEditorPlugin sInstance;
 	
-	private MJPartitionScanner mPartitionScanner;
 	private MJColorManager mColorManager;
 	private MJCodeScanner mCodeScanner;
 	private MJCommentScanner mCommentScanner;
+	private MJSymbolIndex mSymbolIndex;
+	private MJIndexer mIndexer;
 	
 	@Override
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		sInstance = this;
+		
+		// Fill the DFA cache of the parser in the background, so opening the first file is faster
+		Job warmUp = new Job("Initializing MicroJava parser") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				MJParserPool.warmUp();
+				return Status.OK_STATUS;
+			}
+		};
+		warmUp.setSystem(true);
+		warmUp.setPriority(Job.DECORATE);
+		warmUp.schedule();
 	}
 	
 	@Override
 	public void stop(BundleContext context) throws Exception {
+		synchronized(this) {
+			if(mIndexer != null) {
+				mIndexer.stop();
+				mIndexer = null;
+				mSymbolIndex = null;
+			}
+		}
 		if(sInstance != null) {
 			sInstance.dispose();
 			sInstance = null;
@@ -121,16 +151,6 @@ public class MicroJavaEditorPlugin extends AbstractUIPlugin
 		return getImageDescriptor(key).createImage();
 	}
 	
-	/**
-	 * Get the scanner for creating MicroJava partitions.
-	 */
-	public static MJPartitionScanner getPartitionScanner() {
-		if(sInstance.mPartitionScanner == null) {
-			sInstance.mPartitionScanner = new MJPartitionScanner();
-		}
-		return sInstance.mPartitionScanner;
-	}
-	
 	/**
 	 * Get the MicroJava color manager.
 	 */
@@ -151,6 +171,24 @@ public class MicroJavaEditorPlugin extends AbstractUIPlugin
 		return sInstance.mCodeScanner;
 	}
 	
+	/**
+	 * Get the index of the top-level symbols of all MicroJava files in the workspace.
+	 * <p>
+	 * The indexer is only started when the index is first requested. The index is loaded from and saved to the
+	 * state location, files changed since it was saved are indexed in the background.
+	 */
+	public static MJSymbolIndex getSymbolIndex() {
+		synchronized(sInstance) {
+			if(sInstance.mSymbolIndex == null) {
+				sInstance.mSymbolIndex = new MJSymbolIndex();
+				sInstance.mIndexer = new MJIndexer(ResourcesPlugin.getWorkspace(), sInstance.mSymbolIndex,
+						sInstance.getStateLocation().append(SYMBOL_INDEX_FILE).toFile());
+				sInstance.mIndexer.start();
+			}
+			return sInstance.mSymbolIndex;
+		}
+	}
+	
 	/**
 	 * Get the MicroJava comment scanner.
 	 */
@@ -0,0 +1,204 @@
+package net.feichti.microjavaeditor.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ClassDeclContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ConstDeclContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.FormParsContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.MethodDeclContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ParamContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ProgContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.TypeContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.VarDeclContext;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * Lowers a MicroJava parse tree to the AST.
+ * <p>
+ * Only declarations are kept, statements are skipped. The parse tree may contain errors, missing parts of a
+ * declaration are represented by {@code null} values and {@code -1} offsets. Rules that did not match any
+ * token are skipped altogether.
+ * 
+ * @author Peter
+ */
+public final class MJAstBuilder
+{
+	private static final MJVarDecl[] NO_VARIABLES = new MJVarDecl[0];
+	
+	private MJAstBuilder() {
+		
+	}
+	
+	/**
+	 * Create the AST for a program.
+	 * 
+	 * @param ctx The program context
+	 * @return The program, or {@code null} if the context is empty
+	 */
+	public static MJProgram build(ProgContext ctx) {
+		final int start = getStart(ctx);
+		if(start < 0) {
+			return null;
+		}
+		List<MJNode> decls = new ArrayList<>();
+		if(ctx.children != null) {
+			for(ParseTree child : ctx.children) {
+				if(child instanceof ConstDeclContext) {
+					addIfValid(decls, build((ConstDeclContext)child));
+				} else if(child instanceof VarDeclContext) {
+					addVariables(decls, (VarDeclContext)child, VariableKind.GLOBAL);
+				} else if(child instanceof ClassDeclContext) {
+					addIfValid(decls, build((ClassDeclContext)child));
+				} else if(child instanceof MethodDeclContext) {
+					addIfValid(decls, build((MethodDeclContext)child));
+				}
+			}
+		}
+		final TerminalNode ident = ctx.Ident();
+		return new MJProgram(getText(ident), getOffset(ident), start, getStop(ctx),
+				decls.toArray(new MJNode[decls.size()]));
+	}
+	
+	/**
+	 * Create the AST for a class declaration.
+	 * 
+	 * @param ctx The class context
+	 * @return The class declaration, or {@code null} if the context is empty
+	 */
+	public static MJClassDecl build(ClassDeclContext ctx) {
+		final int start = getStart(ctx);
+		if(start < 0) {
+			return null;
+		}
+		List<MJVarDecl> fields = new ArrayList<>();
+		for(VarDeclContext decl : ctx.varDecl()) {
+			addVariables(fields, decl, VariableKind.FIELD);
+		}
+		final TerminalNode ident = ctx.Ident();
+		return new MJClassDecl(getText(ident), getOffset(ident), start, getStop(ctx),
+				getOffset(ctx.getToken(MicroJavaParser.LBRACE, 0)), getClosingBrace(ctx), toArray(fields));
+	}
+	
+	/**
+	 * Create the AST for a method declaration.
+	 * 
+	 * @param ctx The method context
+	 * @return The method declaration, or {@code null} if the context is empty
+	 */
+	public static MJMethodDecl build(MethodDeclContext ctx) {
+		final int start = getStart(ctx);
+		if(start < 0) {
+			return null;
+		}
+		MJType returnType = getType(ctx.type());
+		if(returnType == null && ctx.getToken(MicroJavaParser.VOID, 0) != null) {
+			returnType = MJType.VOID;
+		}
+		List<MJVarDecl> params = new ArrayList<>();
+		FormParsContext pars = ctx.formPars();
+		if(pars != null) {
+			for(ParamContext param : pars.param()) {
+				final int paramStart = getStart(param);
+				if(paramStart >= 0) {
+					final TerminalNode ident = param.Ident();
+					params.add(new MJVarDecl(getText(ident), getOffset(ident), paramStart, getStop(param),
+							getType(param.type()), VariableKind.LOCAL));
+				}
+			}
+		}
+		List<MJVarDecl> locals = new ArrayList<>();
+		for(VarDeclContext decl : ctx.varDecl()) {
+			addVariables(locals, decl, VariableKind.LOCAL);
+		}
+		int bodyStart = -1;
+		if(ctx.block() != null && ctx.block().getStart().getType() == MicroJavaParser.LBRACE) {
+			bodyStart = ctx.block().getStart().getStartIndex();
+		}
+		final TerminalNode ident = ctx.Ident();
+		return new MJMethodDecl(getText(ident), getOffset(ident), start, getStop(ctx), bodyStart,
+				getClosingBrace(ctx), returnType, toArray(params), toArray(locals));
+	}
+	
+	private static MJConstDecl build(ConstDeclContext ctx) {
+		final int start = getStart(ctx);
+		if(start < 0) {
+			return null;
+		}
+		final TerminalNode ident = ctx.Ident();
+		final String value = (ctx.literal() != null ? ctx.literal().getText() : null);
+		return new MJConstDecl(getText(ident), getOffset(ident), start, getStop(ctx), getType(ctx.type()), value);
+	}
+	
+	private static <T extends MJNode> void addIfValid(List<T> target, T node) {
+		if(node != null) {
+			target.add(node);
+		}
+	}
+	
+	/**
+	 * Add one node for every variable of a variable declaration.
+	 */
+	private static void addVariables(List<? super MJVarDecl> target, VarDeclContext ctx, VariableKind kind) {
+		final int start = getStart(ctx);
+		if(start < 0) {
+			return;
+		}
+		final int stop = getStop(ctx);
+		final MJType type = getType(ctx.type());
+		for(TerminalNode ident : ctx.Ident()) {
+			target.add(new MJVarDecl(getText(ident), getOffset(ident), start, stop, type, kind));
+		}
+	}
+	
+	private static MJVarDecl[] toArray(List<MJVarDecl> vars) {
+		return (vars.isEmpty() ? NO_VARIABLES : vars.toArray(new MJVarDecl[vars.size()]));
+	}
+	
+	private static MJType getType(TypeContext ctx) {
+		if(ctx == null || ctx.Ident() == null) {
+			return null;
+		}
+		return new MJType(ctx.Ident().getText(), ctx.getToken(MicroJavaParser.LBRACK, 0) != null);
+	}
+	
+	private static String getText(TerminalNode node) {
+		return (node != null ? node.getText() : null);
+	}
+	
+	private static int getOffset(TerminalNode node) {
+		return (node != null ? node.getSymbol().getStartIndex() : -1);
+	}
+	
+	private static int getStart(ParserRuleContext ctx) {
+		final Token start = ctx.getStart();
+		return (start != null && start.getType() != Token.EOF ? start.getStartIndex() : -1);
+	}
+	
+	/**
+	 * Get the stop offset of a rule, the program also includes everything up to the EOF token after its
+	 * closing brace.
+	 */
+	private static int getStop(ParserRuleContext ctx) {
+		final Token start = ctx.getStart();
+		Token stop = ctx.getStop();
+		final int count = ctx.getChildCount();
+		if(count > 0 && ctx.getChild(count - 1) instanceof TerminalNode) {
+			stop = ((TerminalNode)ctx.getChild(count - 1)).getSymbol();
+		}
+		return (stop != null ? Math.max(stop.getStopIndex(), start.getStopIndex()) : start.getStopIndex());
+	}
+	
+	/**
+	 * Get the offset of the closing brace a declaration ends with, or {@code -1} if it does not end with one.
+	 */
+	private static int getClosingBrace(ParserRuleContext ctx) {
+		final Token stop = ctx.getStop();
+		return (stop != null && stop.getType() == MicroJavaParser.RBRACE ? stop.getStartIndex() : -1);
+	}
+}
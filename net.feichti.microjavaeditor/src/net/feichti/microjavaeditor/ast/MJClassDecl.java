@@ -0,0 +1,31 @@
+package net.feichti.microjavaeditor.ast;
+
+/**
+ * Represents a class declaration.
+ * 
+ * @author Peter
+ */
+public class MJClassDecl extends MJScopeDecl
+{
+	/**
+	 * Create a new class declaration.
+	 * 
+	 * @param name The name of the class
+	 * @param nameOffset The offset of the name
+	 * @param start The start offset of the declaration
+	 * @param stop The stop offset (inclusive) of the declaration
+	 * @param bodyStart The offset of the opening brace, or {@code -1}
+	 * @param bodyEnd The offset of the closing brace, or {@code -1}
+	 * @param fields The fields of the class
+	 */
+	public MJClassDecl(String name, int nameOffset, int start, int stop, int bodyStart, int bodyEnd,
+			MJVarDecl[] fields) {
+		super(name, nameOffset, start, stop, bodyStart, bodyEnd, fields);
+	}
+	
+	@Override
+	public MJClassDecl shift(int delta) {
+		return new MJClassDecl(getName(), shift(getNameOffset(), delta), getStart() + delta, getStop() + delta,
+				shift(getBodyStart(), delta), shift(getBodyEnd(), delta), shift(variables(), delta));
+	}
+}
@@ -0,0 +1,52 @@
+package net.feichti.microjavaeditor.ast;
+
+/**
+ * Represents a constant declaration.
+ * 
+ * @author Peter
+ */
+public class MJConstDecl extends MJNode
+{
+	private final MJType mType;
+	private final String mValue;
+	
+	/**
+	 * Create a new constant declaration.
+	 * 
+	 * @param name The name of the constant
+	 * @param nameOffset The offset of the name
+	 * @param start The start offset of the declaration
+	 * @param stop The stop offset (inclusive) of the declaration
+	 * @param type The type of the constant, may be {@code null}
+	 * @param value The literal value as written in the source, may be {@code null}
+	 */
+	public MJConstDecl(String name, int nameOffset, int start, int stop, MJType type, String value) {
+		super(name, nameOffset, start, stop);
+		mType = type;
+		mValue = (value != null ? value.intern() : null);
+	}
+	
+	/**
+	 * Get the type of the constant.
+	 * 
+	 * @return The type, or {@code null} if it is unknown
+	 */
+	public MJType getType() {
+		return mType;
+	}
+	
+	/**
+	 * Get the value of the constant as written in the source.
+	 * 
+	 * @return The literal, or {@code null} if it is unknown
+	 */
+	public String getValue() {
+		return mValue;
+	}
+	
+	@Override
+	public MJConstDecl shift(int delta) {
+		return new MJConstDecl(getName(), shift(getNameOffset(), delta), getStart() + delta, getStop() + delta,
+				mType, mValue);
+	}
+}
@@ -0,0 +1,59 @@
+package net.feichti.microjavaeditor.ast;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a method declaration.
+ * 
+ * @author Peter
+ */
+public class MJMethodDecl extends MJScopeDecl
+{
+	private final MJType mReturnType;
+	private final MJVarDecl[] mParams;
+	
+	/**
+	 * Create a new method declaration.
+	 * 
+	 * @param name The name of the method
+	 * @param nameOffset The offset of the name
+	 * @param start The start offset of the declaration
+	 * @param stop The stop offset (inclusive) of the declaration
+	 * @param bodyStart The offset of the opening brace of the method block, or {@code -1}
+	 * @param bodyEnd The offset of the closing brace of the method block, or {@code -1}
+	 * @param returnType The return type, {@link MJType#VOID} for {@code void} or {@code null} if unknown
+	 * @param params The formal parameters
+	 * @param locals The local variables
+	 */
+	public MJMethodDecl(String name, int nameOffset, int start, int stop, int bodyStart, int bodyEnd,
+			MJType returnType, MJVarDecl[] params, MJVarDecl[] locals) {
+		super(name, nameOffset, start, stop, bodyStart, bodyEnd, locals);
+		mReturnType = returnType;
+		mParams = params;
+	}
+	
+	/**
+	 * Get the return type of the method.
+	 * 
+	 * @return The return type, {@link MJType#VOID} for {@code void} or {@code null} if it is unknown
+	 */
+	public MJType getReturnType() {
+		return mReturnType;
+	}
+	
+	/**
+	 * Get the formal parameters of the method.
+	 */
+	public List<MJVarDecl> getParams() {
+		return Collections.unmodifiableList(Arrays.asList(mParams));
+	}
+	
+	@Override
+	public MJMethodDecl shift(int delta) {
+		return new MJMethodDecl(getName(), shift(getNameOffset(), delta), getStart() + delta, getStop() + delta,
+				shift(getBodyStart(), delta), shift(getBodyEnd(), delta), mReturnType, shift(mParams, delta),
+				shift(variables(), delta));
+	}
+}
@@ -0,0 +1,113 @@
+package net.feichti.microjavaeditor.ast;
+
+import net.feichti.microjavaeditor.util.SourceRegion;
+
+/**
+ * Base class for the nodes of the MicroJava AST.
+ * <p>
+ * The AST only describes the declarations of a program, that is everything shown in the outline and needed
+ * for the symbol table. Nodes are immutable and don't reference the parse tree or any tokens, the region of a
+ * declaration is packed into a single {@code long} and names are interned, so the AST of a large file takes
+ * little memory and can be kept after the parser and parse tree are gone.
+ * 
+ * @author Peter
+ */
+public abstract class MJNode
+{
+	/** The start offset in the upper and the stop offset (inclusive) in the lower half. */
+	private final long mRange;
+	private final int mNameOffset;
+	private final String mName;
+	
+	/**
+	 * Create a new node.
+	 * 
+	 * @param name The name of the declared element, may be {@code null}
+	 * @param nameOffset The offset of the name, or {@code -1} if unknown
+	 * @param start The start offset of the declaration
+	 * @param stop The stop offset (inclusive) of the declaration
+	 */
+	protected MJNode(String name, int nameOffset, int start, int stop) {
+		mName = (name != null ? name.intern() : null);
+		mNameOffset = nameOffset;
+		mRange = ((long)start << 32) | (stop & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Get the name of the declared element.
+	 * 
+	 * @return The name, or {@code null} if the declaration has none
+	 */
+	public String getName() {
+		return mName;
+	}
+	
+	/**
+	 * Get the offset of the name of the declared element.
+	 * 
+	 * @return The offset, or {@code -1} if the declaration has no name
+	 */
+	public int getNameOffset() {
+		return mNameOffset;
+	}
+	
+	/**
+	 * Get the source code range of the name of the declared element.
+	 * 
+	 * @return The name range, or {@code null} if the declaration has no name
+	 */
+	public SourceRegion getNameRegion() {
+		if(mName == null || mNameOffset < 0) {
+			return null;
+		}
+		return new SourceRegion(mNameOffset, mName.length());
+	}
+	
+	/**
+	 * Get the start offset of the declaration.
+	 */
+	public int getStart() {
+		return (int)(mRange >>> 32);
+	}
+	
+	/**
+	 * Get the stop offset (inclusive) of the declaration.
+	 */
+	public int getStop() {
+		return (int)mRange;
+	}
+	
+	/**
+	 * Get the length of the declaration.
+	 */
+	public int getLength() {
+		return getStop() - getStart() + 1;
+	}
+	
+	/**
+	 * Get the source code range of the declaration.
+	 */
+	public SourceRegion getRegion() {
+		return new SourceRegion(getStart(), getLength());
+	}
+	
+	/**
+	 * Create a copy of this node with all offsets moved by the specified amount.
+	 * 
+	 * @param delta The amount to add to the offsets
+	 * @return The new node
+	 */
+	public abstract MJNode shift(int delta);
+	
+	/**
+	 * Shift an offset that may be {@code -1} to signify a missing element.
+	 */
+	static int shift(int offset, int delta) {
+		return (offset < 0 ? offset : offset + delta);
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + '<' + mName + '@' + getStart() + '-' + getStop() + '>';
+	}
+}
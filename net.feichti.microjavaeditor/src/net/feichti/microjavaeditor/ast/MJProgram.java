@@ -0,0 +1,143 @@
+package net.feichti.microjavaeditor.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a MicroJava program, the root of the AST.
+ * <p>
+ * The top-level declarations are kept in source order, typed lists of them are created on request.
+ * 
+ * @author Peter
+ */
+public class MJProgram extends MJNode
+{
+	private final MJNode[] mDeclarations;
+	
+	/**
+	 * Create a new program.
+	 * 
+	 * @param name The name of the program
+	 * @param nameOffset The offset of the name
+	 * @param start The start offset of the program
+	 * @param stop The stop offset (inclusive) of the program
+	 * @param declarations The constant, variable, class and method declarations in source order
+	 */
+	public MJProgram(String name, int nameOffset, int start, int stop, MJNode[] declarations) {
+		super(name, nameOffset, start, stop);
+		mDeclarations = declarations;
+	}
+	
+	/**
+	 * Get the top-level declarations of the program in source order.
+	 */
+	public List<MJNode> getDeclarations() {
+		return Collections.unmodifiableList(Arrays.asList(mDeclarations));
+	}
+	
+	/**
+	 * Get the number of top-level declarations.
+	 */
+	public int getDeclarationCount() {
+		return mDeclarations.length;
+	}
+	
+	/**
+	 * Get the top-level declaration with the specified index.
+	 */
+	public MJNode getDeclaration(int index) {
+		return mDeclarations[index];
+	}
+	
+	/**
+	 * Get the class declarations of the program.
+	 */
+	public List<MJClassDecl> getClasses() {
+		return filter(MJClassDecl.class);
+	}
+	
+	/**
+	 * Get the constant declarations of the program.
+	 */
+	public List<MJConstDecl> getConstants() {
+		return filter(MJConstDecl.class);
+	}
+	
+	/**
+	 * Get the global variable declarations of the program.
+	 */
+	public List<MJVarDecl> getVariables() {
+		return filter(MJVarDecl.class);
+	}
+	
+	/**
+	 * Get the method declarations of the program.
+	 */
+	public List<MJMethodDecl> getMethods() {
+		return filter(MJMethodDecl.class);
+	}
+	
+	private <T extends MJNode> List<T> filter(Class<T> type) {
+		List<T> ret = new ArrayList<>();
+		for(MJNode decl : mDeclarations) {
+			if(type.isInstance(decl)) {
+				ret.add(type.cast(decl));
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Find the top-level declaration that starts last at or before the specified offset.
+	 * 
+	 * @param offset The document offset
+	 * @return The index of the declaration, or {@code -1} if there is none
+	 */
+	public int findDeclaration(int offset) {
+		int low = 0;
+		int high = mDeclarations.length - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			if(mDeclarations[mid].getStart() <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return high;
+	}
+	
+	/**
+	 * Create a copy of this program with one top-level declaration replaced, e.g. after it has been parsed
+	 * again.
+	 * <p>
+	 * The declarations before the replaced one are shared with this program, the ones after it are shifted by
+	 * the change in length.
+	 * 
+	 * @param index The index of the declaration to replace
+	 * @param decl The new declaration
+	 * @param delta The change in document length
+	 * @return The new program
+	 */
+	public MJProgram replace(int index, MJNode decl, int delta) {
+		final MJNode[] decls = new MJNode[mDeclarations.length];
+		System.arraycopy(mDeclarations, 0, decls, 0, index);
+		decls[index] = decl;
+		for(int j = index + 1; j < decls.length; j++) {
+			decls[j] = mDeclarations[j].shift(delta);
+		}
+		return new MJProgram(getName(), getNameOffset(), getStart(), getStop() + delta, decls);
+	}
+	
+	@Override
+	public MJProgram shift(int delta) {
+		final MJNode[] decls = new MJNode[mDeclarations.length];
+		for(int j = 0; j < decls.length; j++) {
+			decls[j] = mDeclarations[j].shift(delta);
+		}
+		return new MJProgram(getName(), shift(getNameOffset(), delta), getStart() + delta, getStop() + delta,
+				decls);
+	}
+}
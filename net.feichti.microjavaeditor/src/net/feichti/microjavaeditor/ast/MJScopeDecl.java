@@ -0,0 +1,89 @@
+package net.feichti.microjavaeditor.ast;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base class for declarations with a body in braces that declare variables of their own, that is classes and
+ * methods.
+ * 
+ * @author Peter
+ */
+public abstract class MJScopeDecl extends MJNode
+{
+	private final int mBodyStart;
+	private final int mBodyEnd;
+	private final MJVarDecl[] mVariables;
+	
+	/**
+	 * Create a new declaration.
+	 * 
+	 * @param name The name of the declared element
+	 * @param nameOffset The offset of the name
+	 * @param start The start offset of the declaration
+	 * @param stop The stop offset (inclusive) of the declaration
+	 * @param bodyStart The offset of the opening brace of the body, or {@code -1}
+	 * @param bodyEnd The offset of the closing brace of the body, or {@code -1} if the declaration does not end
+	 *            with a closing brace
+	 * @param variables The fields or local variables
+	 */
+	protected MJScopeDecl(String name, int nameOffset, int start, int stop, int bodyStart, int bodyEnd,
+			MJVarDecl[] variables) {
+		super(name, nameOffset, start, stop);
+		mBodyStart = bodyStart;
+		mBodyEnd = bodyEnd;
+		mVariables = variables;
+	}
+	
+	/**
+	 * Get the offset of the opening brace of the body.
+	 * 
+	 * @return The offset, or {@code -1} if there is no opening brace
+	 */
+	public int getBodyStart() {
+		return mBodyStart;
+	}
+	
+	/**
+	 * Get the offset of the closing brace of the body.
+	 * 
+	 * @return The offset, or {@code -1} if the declaration does not end with a closing brace
+	 */
+	public int getBodyEnd() {
+		return mBodyEnd;
+	}
+	
+	/**
+	 * Get the variables declared directly in this declaration, that is the fields of a class or the local
+	 * variables of a method.
+	 */
+	public List<MJVarDecl> getVariables() {
+		return Collections.unmodifiableList(Arrays.asList(mVariables));
+	}
+	
+	/**
+	 * Determine whether this declaration declares any variables.
+	 */
+	public boolean hasVariables() {
+		return mVariables.length > 0;
+	}
+	
+	/**
+	 * Shift the specified variable declarations, for use by {@link #shift(int)}.
+	 */
+	static MJVarDecl[] shift(MJVarDecl[] vars, int delta) {
+		MJVarDecl[] ret = new MJVarDecl[vars.length];
+		for(int j = 0; j < vars.length; j++) {
+			ret[j] = vars[j].shift(delta);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Get the variables for use by subclasses.
+	 */
+	MJVarDecl[] variables() {
+		return mVariables;
+	}
+}
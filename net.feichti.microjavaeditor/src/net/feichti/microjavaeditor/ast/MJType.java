@@ -0,0 +1,61 @@
+package net.feichti.microjavaeditor.ast;
+
+/**
+ * Represents the type of a declaration in the AST, that is a type name and whether it is an array.
+ * 
+ * @author Peter
+ */
+public final class MJType
+{
+	/**
+	 * The pseudo-type of methods without a return value.
+	 */
+	public static final MJType VOID = new MJType("void", false);
+	
+	private final String mName;
+	private final boolean mArray;
+	
+	/**
+	 * Create a new type.
+	 * 
+	 * @param name The type name
+	 * @param array Whether the type is an array of the named type
+	 */
+	public MJType(String name, boolean array) {
+		mName = name.intern();
+		mArray = array;
+	}
+	
+	/**
+	 * Get the name of the type, for arrays this is the element type.
+	 */
+	public String getName() {
+		return mName;
+	}
+	
+	/**
+	 * Determine whether this is an array type.
+	 */
+	public boolean isArray() {
+		return mArray;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof MJType)) {
+			return false;
+		}
+		MJType other = (MJType)obj;
+		return mName.equals(other.mName) && mArray == other.mArray;
+	}
+	
+	@Override
+	public int hashCode() {
+		return mName.hashCode() * 2 + (mArray ? 1 : 0);
+	}
+	
+	@Override
+	public String toString() {
+		return (mArray ? mName + "[]" : mName);
+	}
+}
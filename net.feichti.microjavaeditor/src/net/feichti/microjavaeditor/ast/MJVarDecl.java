@@ -0,0 +1,53 @@
+package net.feichti.microjavaeditor.ast;
+
+/**
+ * Represents a single variable or parameter declaration.
+ * <p>
+ * A declaration of several variables like {@code int a, b;} results in one node per variable, all of them
+ * having the region of the whole declaration.
+ * 
+ * @author Peter
+ */
+public class MJVarDecl extends MJNode
+{
+	private final MJType mType;
+	private final VariableKind mKind;
+	
+	/**
+	 * Create a new variable declaration.
+	 * 
+	 * @param name The name of the variable
+	 * @param nameOffset The offset of the name
+	 * @param start The start offset of the declaration
+	 * @param stop The stop offset (inclusive) of the declaration
+	 * @param type The type of the variable, may be {@code null}
+	 * @param kind The kind of variable
+	 */
+	public MJVarDecl(String name, int nameOffset, int start, int stop, MJType type, VariableKind kind) {
+		super(name, nameOffset, start, stop);
+		mType = type;
+		mKind = kind;
+	}
+	
+	/**
+	 * Get the type of the variable.
+	 * 
+	 * @return The type, or {@code null} if it is unknown
+	 */
+	public MJType getType() {
+		return mType;
+	}
+	
+	/**
+	 * Get the kind of the variable.
+	 */
+	public VariableKind getKind() {
+		return mKind;
+	}
+	
+	@Override
+	public MJVarDecl shift(int delta) {
+		return new MJVarDecl(getName(), shift(getNameOffset(), delta), getStart() + delta, getStop() + delta,
+				mType, mKind);
+	}
+}
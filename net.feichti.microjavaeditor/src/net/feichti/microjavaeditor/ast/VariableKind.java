@@ -0,0 +1,36 @@
+package net.feichti.microjavaeditor.ast;
+
+import net.feichti.microjavaeditor.MicroJavaEditorPlugin;
+
+/**
+ * The possible types of variable declarations.
+ * 
+ * @author Peter
+ */
+public enum VariableKind
+{
+	/**
+	 * Declaration represents a global variable.
+	 */
+	GLOBAL(MicroJavaEditorPlugin.IMG_VARIABLE),
+	/**
+	 * Declaration represents a local variable or a method parameter.
+	 */
+	LOCAL(MicroJavaEditorPlugin.IMG_LOCAL),
+	/**
+	 * Declaration represents a class field.
+	 */
+	FIELD(MicroJavaEditorPlugin.IMG_FIELD);
+	
+	/**
+	 * The key for getting the outline view icon for this variable kind.
+	 * 
+	 * @see MicroJavaEditorPlugin#getImage(String)
+	 * @see MicroJavaEditorPlugin#getImageDescriptor(String)
+	 */
+	public final String imageKey;
+	
+	private VariableKind(String imgKey) {
+		imageKey = imgKey;
+	}
+}
@@ -0,0 +1,253 @@
+package net.feichti.microjavaeditor.index;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.feichti.microjavaeditor.antlr4.MicroJavaLexer;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ProgContext;
+import net.feichti.microjavaeditor.ast.MJAstBuilder;
+import net.feichti.microjavaeditor.ast.MJProgram;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Parses many MicroJava files in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * The files are split into small batches that are analyzed by the worker threads of the pool. Every worker
+ * thread owns a lexer and parser that it reuses for all of its files, so workers don't share any state except
+ * the DFA cache of the generated recognizers. Results are passed to a {@link Handler} on the worker threads,
+ * so it has to be thread-safe. Progress is reported and cancellation is checked on the calling thread, which
+ * would usually be an Eclipse job.
+ * 
+ * @author Peter
+ */
+public class MJBulkAnalyzer
+{
+	/**
+	 * Receives the results of an analysis, it is called concurrently by the worker threads.
+	 */
+	public interface Handler
+	{
+		/**
+		 * Called when a file was analyzed.
+		 * 
+		 * @param file The file
+		 * @param stamp The modification stamp of the file before it was read
+		 * @param root The program, or {@code null} if the file is not accessible or nothing could be parsed
+		 */
+		public void analyzed(IFile file, long stamp, MJProgram root);
+		
+		/**
+		 * Called when a file could not be read.
+		 * 
+		 * @param file The file
+		 * @param ex The exception that occurred
+		 */
+		public void failed(IFile file, Exception ex);
+	}
+	
+	/**
+	 * The lexer and parser owned by a worker thread.
+	 */
+	private static class Worker
+	{
+		final MicroJavaLexer mLexer = new MicroJavaLexer(null);
+		final MicroJavaParser mParser = new MicroJavaParser(null);
+		
+		/**
+		 * Parse a MicroJava file and create its AST, syntax errors are ignored.
+		 */
+		MJProgram parse(IFile file) throws CoreException, IOException {
+			try(Reader reader = new InputStreamReader(file.getContents(true), file.getCharset())) {
+				mLexer.setInputStream(new ANTLRInputStream(reader));
+				mLexer.removeErrorListeners();
+				mParser.setInputStream(new CommonTokenStream(mLexer));
+				mParser.removeErrorListeners();
+				
+				// Same as for the editor, try SLL first and use full LL only if that fails
+				mParser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+				mParser.setErrorHandler(new BailErrorStrategy());
+				ProgContext prog;
+				try {
+					prog = mParser.prog();
+				} catch(ParseCancellationException ex) {
+					mParser.reset();
+					mParser.getInterpreter().setPredictionMode(PredictionMode.LL);
+					mParser.setErrorHandler(new DefaultErrorStrategy());
+					prog = mParser.prog();
+				}
+				return MJAstBuilder.build(prog);
+			} catch(RecognitionException ex) {
+				return null;
+			} finally {
+				// Don't keep the input alive
+				mParser.setInputStream(null);
+				mLexer.setInputStream(null);
+			}
+		}
+	}
+	
+	/**
+	 * Analyzes a range of files, ranges larger than {@link #BATCH_SIZE} are split in half.
+	 */
+	private class AnalyzeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final Run mRun;
+		private final int mFrom;
+		private final int mTo;
+		
+		AnalyzeTask(Run run, int from, int to) {
+			mRun = run;
+			mFrom = from;
+			mTo = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(mTo - mFrom > BATCH_SIZE) {
+				final int mid = (mFrom + mTo) >>> 1;
+				invokeAll(new AnalyzeTask(mRun, mFrom, mid), new AnalyzeTask(mRun, mid, mTo));
+				return;
+			}
+			
+			final Worker worker = mWorkers.get();
+			for(int j = mFrom; j < mTo; j++) {
+				final IFile file = mRun.files.get(j);
+				if(mRun.canceled.get()) {
+					mRun.remaining.add(file);
+					continue;
+				}
+				try {
+					final long stamp = file.getModificationStamp();
+					mRun.handler.analyzed(file, stamp, (file.isAccessible() ? worker.parse(file) : null));
+				} catch(CoreException | IOException | RuntimeException ex) {
+					mRun.handler.failed(file, ex);
+				}
+				mRun.done.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * The state shared by the tasks of one {@link MJBulkAnalyzer#analyze analysis}.
+	 */
+	private static class Run
+	{
+		final List<IFile> files;
+		final Handler handler;
+		final List<IFile> remaining;
+		final AtomicBoolean canceled = new AtomicBoolean();
+		final AtomicInteger done = new AtomicInteger();
+		
+		Run(List<IFile> files, Handler handler, List<IFile> remaining) {
+			this.files = files;
+			this.handler = handler;
+			this.remaining = remaining;
+		}
+	}
+	
+	/**
+	 * The number of files analyzed by a task without splitting it further.
+	 */
+	private static final int BATCH_SIZE = 4;
+	
+	/**
+	 * The interval in which progress is reported and cancellation is checked, in milliseconds.
+	 */
+	private static final long POLL_INTERVAL = 100;
+	
+	private final ForkJoinPool mPool;
+	private final ThreadLocal<Worker> mWorkers = new ThreadLocal<Worker>() {
+		@Override
+		protected Worker initialValue() {
+			return new Worker();
+		}
+	};
+	
+	/**
+	 * Create a new analyzer with one worker thread per available processor.
+	 */
+	public MJBulkAnalyzer() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Create a new analyzer.
+	 * 
+	 * @param parallelism The number of worker threads
+	 */
+	public MJBulkAnalyzer(int parallelism) {
+		mPool = new ForkJoinPool(parallelism);
+	}
+	
+	/**
+	 * Analyze the specified files and wait until all of them have been analyzed or the monitor is canceled.
+	 * 
+	 * @param files The files to analyze
+	 * @param handler The handler that is passed the results
+	 * @param monitor The progress monitor, {@link IProgressMonitor#worked(int)} is called once per file
+	 * @param remaining A thread-safe list the files that were not analyzed because of cancellation are added to
+	 * @return {@code true} if all files were analyzed, {@code false} if the analysis was canceled
+	 */
+	public boolean analyze(List<IFile> files, Handler handler, IProgressMonitor monitor, List<IFile> remaining) {
+		if(files.isEmpty()) {
+			return true;
+		}
+		final Run run = new Run(files, handler, remaining);
+		final ForkJoinTask<Void> task = mPool.submit(new AnalyzeTask(run, 0, files.size()));
+		int reported = 0;
+		while(true) {
+			try {
+				task.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				break;
+			} catch(TimeoutException ex) {
+				// Not done yet
+			} catch(ExecutionException ex) {
+				ex.printStackTrace();
+				break;
+			} catch(InterruptedException ex) {
+				run.canceled.set(true);
+				Thread.currentThread().interrupt();
+				task.join();
+				break;
+			}
+			if(monitor.isCanceled()) {
+				run.canceled.set(true);
+			}
+			final int done = run.done.get();
+			monitor.worked(done - reported);
+			reported = done;
+		}
+		monitor.worked(run.done.get() - reported);
+		return !run.canceled.get();
+	}
+	
+	/**
+	 * Stop the worker threads, the analyzer can't be used afterwards.
+	 */
+	public void dispose() {
+		mPool.shutdownNow();
+	}
+}
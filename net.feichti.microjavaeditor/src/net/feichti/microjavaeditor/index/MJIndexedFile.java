@@ -0,0 +1,173 @@
+package net.feichti.microjavaeditor.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.feichti.microjavaeditor.ast.MJClassDecl;
+import net.feichti.microjavaeditor.ast.MJConstDecl;
+import net.feichti.microjavaeditor.ast.MJMethodDecl;
+import net.feichti.microjavaeditor.ast.MJNode;
+import net.feichti.microjavaeditor.ast.MJProgram;
+import net.feichti.microjavaeditor.ast.MJType;
+import net.feichti.microjavaeditor.ast.MJVarDecl;
+
+/**
+ * The top-level symbols of a MicroJava file, as stored in the {@link MJSymbolIndex}.
+ * <p>
+ * The symbols are the program and its classes, methods, constants and global variables. They are kept in
+ * parallel arrays in source order, names and types are interned so they can be shared with other files.
+ * 
+ * @author Peter
+ */
+public class MJIndexedFile
+{
+	/**
+	 * The kinds of symbols in the index, the ordinal is stored in the index file.
+	 */
+	public enum Kind
+	{
+		PROGRAM, CLASS, METHOD, CONSTANT, VARIABLE;
+		
+		private static final Kind[] VALUES = values();
+		
+		/**
+		 * Get the kind with the specified ordinal.
+		 */
+		public static Kind get(int ordinal) {
+			return VALUES[ordinal];
+		}
+	}
+	
+	private final long mStamp;
+	private final byte[] mKinds;
+	private final String[] mNames;
+	private final String[] mTypes;
+	private final int[] mNameOffsets;
+	
+	/**
+	 * Create a new indexed file.
+	 * 
+	 * @param stamp The modification stamp of the file that was indexed
+	 * @param kinds The ordinals of the symbol kinds
+	 * @param names The symbol names
+	 * @param types The types of the symbols, {@code null} for programs and classes
+	 * @param nameOffsets The offsets of the symbol names
+	 */
+	MJIndexedFile(long stamp, byte[] kinds, String[] names, String[] types, int[] nameOffsets) {
+		mStamp = stamp;
+		mKinds = kinds;
+		mNames = names;
+		mTypes = types;
+		mNameOffsets = nameOffsets;
+	}
+	
+	/**
+	 * Extract the top-level symbols of a program.
+	 * 
+	 * @param root The program
+	 * @param stamp The modification stamp of the file
+	 * @return The indexed file
+	 */
+	public static MJIndexedFile create(MJProgram root, long stamp) {
+		// Declarations without a name can't be searched for
+		List<MJNode> nodes = new ArrayList<>(root.getDeclarationCount() + 1);
+		if(root.getName() != null) {
+			nodes.add(root);
+		}
+		for(MJNode decl : root.getDeclarations()) {
+			if(decl.getName() != null) {
+				nodes.add(decl);
+			}
+		}
+		
+		final int count = nodes.size();
+		final byte[] kinds = new byte[count];
+		final String[] names = new String[count];
+		final String[] types = new String[count];
+		final int[] nameOffsets = new int[count];
+		for(int j = 0; j < count; j++) {
+			final MJNode node = nodes.get(j);
+			MJType type = null;
+			Kind kind;
+			if(node instanceof MJClassDecl) {
+				kind = Kind.CLASS;
+			} else if(node instanceof MJMethodDecl) {
+				kind = Kind.METHOD;
+				type = ((MJMethodDecl)node).getReturnType();
+			} else if(node instanceof MJConstDecl) {
+				kind = Kind.CONSTANT;
+				type = ((MJConstDecl)node).getType();
+			} else if(node instanceof MJVarDecl) {
+				kind = Kind.VARIABLE;
+				type = ((MJVarDecl)node).getType();
+			} else {
+				kind = Kind.PROGRAM;
+			}
+			kinds[j] = (byte)kind.ordinal();
+			names[j] = node.getName();
+			types[j] = (type != null ? type.toString().intern() : null);
+			nameOffsets[j] = node.getNameOffset();
+		}
+		return new MJIndexedFile(stamp, kinds, names, types, nameOffsets);
+	}
+	
+	/**
+	 * Get the modification stamp of the file when it was indexed.
+	 */
+	public long getStamp() {
+		return mStamp;
+	}
+	
+	/**
+	 * Get the number of symbols of the file.
+	 */
+	public int size() {
+		return mNames.length;
+	}
+	
+	/**
+	 * Get the kind of the symbol with the specified index.
+	 */
+	public Kind getKind(int index) {
+		return Kind.get(mKinds[index]);
+	}
+	
+	/**
+	 * Get the name of the symbol with the specified index.
+	 */
+	public String getName(int index) {
+		return mNames[index];
+	}
+	
+	/**
+	 * Get the type of the symbol with the specified index.
+	 * 
+	 * @return The type, or {@code null} if the symbol has none
+	 */
+	public String getType(int index) {
+		return mTypes[index];
+	}
+	
+	/**
+	 * Get the offset of the name of the symbol with the specified index.
+	 */
+	public int getNameOffset(int index) {
+		return mNameOffsets[index];
+	}
+	
+	byte[] kinds() {
+		return mKinds;
+	}
+	
+	String[] names() {
+		return mNames;
+	}
+	
+	String[] types() {
+		return mTypes;
+	}
+	
+	int[] nameOffsets() {
+		return mNameOffsets;
+	}
+}
@@ -0,0 +1,277 @@
+package net.feichti.microjavaeditor.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.feichti.microjavaeditor.ast.MJProgram;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Keeps the {@link MJSymbolIndex} up to date with the MicroJava files in the workspace.
+ * <p>
+ * The indexer is a resource change listener that queues added and changed files, and a background job that
+ * parses the queued files in parallel with a {@link MJBulkAnalyzer} and updates the index. When it is started,
+ * the whole workspace is scanned and every file whose modification stamp differs from the indexed one is parsed
+ * again, so the index loaded from disk only needs to be updated for files that were changed while the plugin
+ * was not running.
+ * 
+ * @author Peter
+ */
+public class MJIndexer extends Job implements IResourceChangeListener
+{
+	/**
+	 * The file extension of MicroJava files.
+	 */
+	public static final String EXTENSION = "mj";
+	
+	private final IWorkspace mWorkspace;
+	private final MJSymbolIndex mIndex;
+	private final File mIndexFile;
+	private final MJBulkAnalyzer mAnalyzer = new MJBulkAnalyzer();
+	
+	/** Puts the analyzed files into the index, called by the analyzer threads. */
+	private final MJBulkAnalyzer.Handler mHandler = new MJBulkAnalyzer.Handler() {
+		@Override
+		public void analyzed(IFile file, long stamp, MJProgram root) {
+			final String path = file.getFullPath().toString();
+			if(root != null) {
+				mIndex.put(path, MJIndexedFile.create(root, stamp));
+			} else {
+				mIndex.remove(path);
+			}
+		}
+		
+		@Override
+		public void failed(IFile file, Exception ex) {
+			System.err.println("Failed to index " + file.getFullPath() + ":");
+			ex.printStackTrace();
+		}
+	};
+	
+	/** The files that need to be indexed, guarded by itself. */
+	private final Set<IFile> mPendingFiles = new LinkedHashSet<>();
+	/** The containers that need to be scanned for files, guarded by {@link #mPendingFiles}. */
+	private final Set<IContainer> mPendingScans = new LinkedHashSet<>();
+	/** Whether the index file was loaded, only accessed by the job. */
+	private boolean mLoaded;
+	
+	/**
+	 * Create a new indexer.
+	 * 
+	 * @param workspace The workspace to index
+	 * @param index The index to update
+	 * @param indexFile The file the index is loaded from and saved to
+	 */
+	public MJIndexer(IWorkspace workspace, MJSymbolIndex index, File indexFile) {
+		super("Indexing MicroJava files");
+		mWorkspace = workspace;
+		mIndex = index;
+		mIndexFile = indexFile;
+		setSystem(true);
+		setPriority(Job.DECORATE);
+	}
+	
+	/**
+	 * Start listening for resource changes and schedule a scan of the whole workspace.
+	 */
+	public void start() {
+		mWorkspace.addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+		synchronized(mPendingFiles) {
+			mPendingScans.add(mWorkspace.getRoot());
+		}
+		schedule();
+	}
+	
+	/**
+	 * Stop listening for resource changes, cancel indexing and save the index.
+	 */
+	public void stop() {
+		mWorkspace.removeResourceChangeListener(this);
+		cancel();
+		try {
+			join();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		mAnalyzer.dispose();
+		save();
+	}
+	
+	/**
+	 * Get the index updated by this indexer.
+	 */
+	public MJSymbolIndex getIndex() {
+		return mIndex;
+	}
+	
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		final IResourceDelta delta = event.getDelta();
+		if(delta == null) {
+			return;
+		}
+		final List<IFile> changed = new ArrayList<>();
+		final List<IContainer> scans = new ArrayList<>();
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+				@Override
+				public boolean visit(IResourceDelta delta) throws CoreException {
+					final IResource res = delta.getResource();
+					if(res.getType() == IResource.PROJECT && (delta.getFlags() & IResourceDelta.OPEN) != 0) {
+						// Project opened or closed, its children are not part of the delta
+						scans.add((IProject)res);
+						return false;
+					} else if(res.getType() != IResource.FILE) {
+						return true;
+					} else if(!isMicroJavaFile(res)) {
+						return false;
+					}
+					
+					if(delta.getKind() == IResourceDelta.REMOVED) {
+						mIndex.remove(res.getFullPath().toString());
+					} else if(delta.getKind() == IResourceDelta.ADDED ||
+							(delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0) {
+						changed.add((IFile)res);
+					}
+					return false;
+				}
+			});
+		} catch(CoreException ex) {
+			ex.printStackTrace();
+		}
+		
+		if(!changed.isEmpty() || !scans.isEmpty()) {
+			synchronized(mPendingFiles) {
+				mPendingFiles.addAll(changed);
+				mPendingScans.addAll(scans);
+			}
+			schedule();
+		}
+	}
+	
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		final List<IFile> files;
+		final List<IContainer> scans;
+		synchronized(mPendingFiles) {
+			files = new ArrayList<>(mPendingFiles);
+			scans = new ArrayList<>(mPendingScans);
+			mPendingFiles.clear();
+			mPendingScans.clear();
+		}
+		
+		if(!mLoaded) {
+			// Files that were indexed before loading are scanned again anyway
+			load();
+			mLoaded = true;
+		}
+		for(IContainer container : scans) {
+			files.addAll(scan(container));
+		}
+		
+		monitor.beginTask(getName(), files.size());
+		try {
+			final List<IFile> remaining = Collections.synchronizedList(new ArrayList<IFile>());
+			if(!mAnalyzer.analyze(files, mHandler, monitor, remaining)) {
+				// Index the remaining files next time
+				synchronized(mPendingFiles) {
+					mPendingFiles.addAll(remaining);
+				}
+				return Status.CANCEL_STATUS;
+			}
+		} finally {
+			monitor.done();
+			if(mIndex.isDirty()) {
+				save();
+			}
+		}
+		return Status.OK_STATUS;
+	}
+	
+	/**
+	 * Find the files in a container that are not indexed or were changed since they were indexed, indexed
+	 * files that don't exist anymore are removed from the index.
+	 */
+	private List<IFile> scan(IContainer container) {
+		final List<IFile> ret = new ArrayList<>();
+		final Set<String> found = new HashSet<>();
+		if(container.isAccessible()) {
+			try {
+				container.accept(new IResourceProxyVisitor() {
+					@Override
+					public boolean visit(IResourceProxy proxy) throws CoreException {
+						if(proxy.getType() != IResource.FILE) {
+							return true;
+						} else if(proxy.getName().endsWith("." + EXTENSION)) {
+							final IFile file = (IFile)proxy.requestResource();
+							final String path = file.getFullPath().toString();
+							found.add(path);
+							final MJIndexedFile indexed = mIndex.get(path);
+							if(indexed == null || indexed.getStamp() != proxy.getModificationStamp()) {
+								ret.add(file);
+							}
+						}
+						return false;
+					}
+				}, IResource.NONE);
+			} catch(CoreException ex) {
+				ex.printStackTrace();
+			}
+		}
+		
+		final String prefix = container.getFullPath().addTrailingSeparator().toString();
+		for(String path : mIndex.getPaths()) {
+			if(path.startsWith(prefix) && !found.contains(path)) {
+				mIndex.remove(path);
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Determine whether a resource is a MicroJava file.
+	 */
+	public static boolean isMicroJavaFile(IResource res) {
+		return res.getType() == IResource.FILE && EXTENSION.equals(res.getFileExtension());
+	}
+	
+	private void load() {
+		try {
+			mIndex.load(mIndexFile);
+		} catch(IOException ex) {
+			System.err.println("Failed to load the MicroJava symbol index:");
+			ex.printStackTrace();
+		}
+	}
+	
+	private void save() {
+		try {
+			mIndex.save(mIndexFile);
+		} catch(IOException ex) {
+			System.err.println("Failed to save the MicroJava symbol index:");
+			ex.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package net.feichti.microjavaeditor.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index of the top-level symbols of all MicroJava files in the workspace.
+ * <p>
+ * The index maps the full workspace path of every file to its {@link MJIndexedFile}, so symbols can be
+ * searched without parsing anything. It is filled and kept up to date by the {@link MJIndexer}, and can be
+ * saved to and loaded from a compact binary file: all names, types and paths are written once to a string
+ * table and referenced by their index.
+ * <p>
+ * The index can be read and modified from any thread.
+ * 
+ * @author Peter
+ */
+public class MJSymbolIndex
+{
+	/**
+	 * A symbol found in the index.
+	 */
+	public static class Match
+	{
+		public final String path;
+		public final MJIndexedFile.Kind kind;
+		public final String name;
+		public final String type;
+		public final int nameOffset;
+		
+		Match(String path, MJIndexedFile file, int index) {
+			this.path = path;
+			this.kind = file.getKind(index);
+			this.name = file.getName(index);
+			this.type = file.getType(index);
+			this.nameOffset = file.getNameOffset(index);
+		}
+		
+		@Override
+		public String toString() {
+			return name + (type != null ? " : " + type : "") + " - " + path;
+		}
+	}
+	
+	private static final int MAGIC = 0x4D4A4958;
+	private static final int VERSION = 1;
+	
+	private final Map<String, MJIndexedFile> mFiles = new ConcurrentHashMap<>();
+	private volatile boolean mDirty;
+	
+	/**
+	 * Get the indexed symbols of a file.
+	 * 
+	 * @param path The full workspace path of the file
+	 * @return The symbols, or {@code null} if the file is not indexed
+	 */
+	public MJIndexedFile get(String path) {
+		return mFiles.get(path);
+	}
+	
+	/**
+	 * Set the indexed symbols of a file.
+	 * 
+	 * @param path The full workspace path of the file
+	 * @param file The symbols
+	 */
+	public void put(String path, MJIndexedFile file) {
+		mFiles.put(path, file);
+		mDirty = true;
+	}
+	
+	/**
+	 * Remove a file from the index.
+	 * 
+	 * @param path The full workspace path of the file
+	 */
+	public void remove(String path) {
+		if(mFiles.remove(path) != null) {
+			mDirty = true;
+		}
+	}
+	
+	/**
+	 * Get the paths of all indexed files.
+	 */
+	public Set<String> getPaths() {
+		return mFiles.keySet();
+	}
+	
+	/**
+	 * Find all symbols whose name starts with the specified prefix, ignoring case.
+	 * 
+	 * @param prefix The name prefix, the empty string matches all symbols
+	 * @param kind The kind of symbols to find, or {@code null} for any kind
+	 * @return The matching symbols
+	 */
+	public List<Match> findSymbols(String prefix, MJIndexedFile.Kind kind) {
+		List<Match> ret = new ArrayList<>();
+		for(Map.Entry<String, MJIndexedFile> e : mFiles.entrySet()) {
+			final MJIndexedFile file = e.getValue();
+			for(int j = 0; j < file.size(); j++) {
+				if((kind == null || file.getKind(j) == kind) &&
+						file.getName(j).regionMatches(true, 0, prefix, 0, prefix.length())) {
+					ret.add(new Match(e.getKey(), file, j));
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Determine whether the index was modified since it was last loaded or saved.
+	 */
+	public boolean isDirty() {
+		return mDirty;
+	}
+	
+	/**
+	 * Load the index from a file, replacing the current contents. Nothing is loaded if the file does not exist
+	 * or has an unknown format.
+	 * 
+	 * @param file The index file
+	 * @throws IOException If the file could not be read
+	 */
+	public void load(File file) throws IOException {
+		if(!file.isFile()) {
+			return;
+		}
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return;
+			}
+			final String[] strings = new String[in.readInt()];
+			for(int j = 0; j < strings.length; j++) {
+				strings[j] = in.readUTF().intern();
+			}
+			final int fileCount = in.readInt();
+			Map<String, MJIndexedFile> files = new HashMap<>(fileCount * 2);
+			for(int j = 0; j < fileCount; j++) {
+				final String path = strings[in.readInt()];
+				final long stamp = in.readLong();
+				final int count = in.readInt();
+				final byte[] kinds = new byte[count];
+				final String[] names = new String[count];
+				final String[] types = new String[count];
+				final int[] nameOffsets = new int[count];
+				for(int k = 0; k < count; k++) {
+					kinds[k] = in.readByte();
+					names[k] = strings[in.readInt()];
+					final int type = in.readInt();
+					types[k] = (type >= 0 ? strings[type] : null);
+					nameOffsets[k] = in.readInt();
+				}
+				files.put(path, new MJIndexedFile(stamp, kinds, names, types, nameOffsets));
+			}
+			mFiles.clear();
+			mFiles.putAll(files);
+			mDirty = false;
+		}
+	}
+	
+	/**
+	 * Save the index to a file. The index is written to a temporary file first, so an existing index file is
+	 * not damaged if saving fails.
+	 * 
+	 * @param file The index file
+	 * @throws IOException If the file could not be written
+	 */
+	public void save(File file) throws IOException {
+		mDirty = false;
+		final Map<String, MJIndexedFile> files = new HashMap<>(mFiles);
+		final Map<String, Integer> strings = new HashMap<>();
+		final List<String> table = new ArrayList<>();
+		for(Map.Entry<String, MJIndexedFile> e : files.entrySet()) {
+			addString(strings, table, e.getKey());
+			for(String name : e.getValue().names()) {
+				addString(strings, table, name);
+			}
+			for(String type : e.getValue().types()) {
+				addString(strings, table, type);
+			}
+		}
+		
+		final File tmp = new File(file.getPath() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(table.size());
+			for(String s : table) {
+				out.writeUTF(s);
+			}
+			out.writeInt(files.size());
+			for(Map.Entry<String, MJIndexedFile> e : files.entrySet()) {
+				final MJIndexedFile f = e.getValue();
+				out.writeInt(strings.get(e.getKey()));
+				out.writeLong(f.getStamp());
+				out.writeInt(f.size());
+				for(int k = 0; k < f.size(); k++) {
+					out.writeByte(f.kinds()[k]);
+					out.writeInt(strings.get(f.names()[k]));
+					out.writeInt(f.types()[k] != null ? strings.get(f.types()[k]) : -1);
+					out.writeInt(f.nameOffsets()[k]);
+				}
+			}
+		} catch(IOException ex) {
+			mDirty = true;
+			throw ex;
+		}
+		if((file.exists() && !file.delete()) || !tmp.renameTo(file)) {
+			mDirty = true;
+			throw new IOException("Could not replace " + file);
+		}
+	}
+	
+	private static void addString(Map<String, Integer> strings, List<String> table, String s) {
+		if(s != null && !strings.containsKey(s)) {
+			strings.put(s, table.size());
+			table.add(s);
+		}
+	}
+}
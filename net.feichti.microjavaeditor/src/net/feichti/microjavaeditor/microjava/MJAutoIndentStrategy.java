@@ -1,11 +1,22 @@
 package net.feichti.microjavaeditor.microjava;
 
+import net.feichti.microjavaeditor.MJPartitioner;
+import net.feichti.microjavaeditor.MicroJavaEditorPlugin;
+
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.DefaultIndentLineAutoEditStrategy;
 import org.eclipse.jface.text.DocumentCommand;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension3;
+import org.eclipse.jface.text.IDocumentPartitioner;
 import org.eclipse.jface.text.TextUtilities;
 
+/**
+ * Indents new lines after an open brace and aligns closing braces with the line of their open brace.
+ * <p>
+ * The brace depths are looked up in the {@link MJPartitioner} of the document, which keeps them for every
+ * line. Only documents without that partitioner are scanned backwards line by line.
+ */
 public class MJAutoIndentStrategy extends DefaultIndentLineAutoEditStrategy
 {
 	@Override
@@ -33,6 +44,40 @@ public class MJAutoIndentStrategy extends DefaultIndentLineAutoEditStrategy
 		return false;
 	}
 	
+	/**
+	 * Get the partitioner of the specified document, or {@code null} if it was not set up for MicroJava.
+	 */
+	private static MJPartitioner getPartitioner(IDocument document) {
+		if(document instanceof IDocumentExtension3) {
+			final IDocumentPartitioner partitioner = ((IDocumentExtension3)document).getDocumentPartitioner(
+					MicroJavaEditorPlugin.MICROJAVA_PARTITIONING);
+			if(partitioner instanceof MJPartitioner) {
+				return (MJPartitioner)partitioner;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the line of the innermost brace that is open at the specified offset.
+	 *
+	 * @param document - the document being parsed
+	 * @param line - the line of the offset
+	 * @param offset - the offset
+	 * @param closingBracketIncrease - the number of brackets to skip if the document has to be scanned
+	 * @return the line number of the open brace, or -1 if there is none
+	 * @throws BadLocationException in case the offset is invalid in the document
+	 */
+	private static int findOpenBraceLine(IDocument document, int line, int offset, int closingBracketIncrease)
+			throws BadLocationException {
+		final MJPartitioner partitioner = getPartitioner(document);
+		if(partitioner == null) {
+			return findMatchingOpenBracket(document, line, offset, closingBracketIncrease);
+		}
+		final int start = partitioner.findOpenBraceLine(offset);
+		return (start >= 0 ? document.getLineOfOffset(start) : -1);
+	}
+	
 	/**
 	 * Returns the line number of the next bracket after end.
 	 *
@@ -130,7 +175,7 @@ public class MJAutoIndentStrategy extends DefaultIndentLineAutoEditStrategy
 	}
 	
 	/**
-	 * Returns the end position of a comment starting at the given <code>position</code>.
+	 * Returns the end position of a comment starting at the given <code>position</code>, comments can be nested.
 	 *
 	 * @param document - the document being parsed
 	 * @param position - the start position for the search
@@ -141,12 +186,21 @@ public class MJAutoIndentStrategy extends DefaultIndentLineAutoEditStrategy
 	 */
 	private static int getCommentEnd(IDocument document, int position, int end) throws BadLocationException {
 		int currentPosition = position;
+		int depth = 1;
 		while(currentPosition < end) {
 			char curr = document.getChar(currentPosition);
 			currentPosition++;
 			if(curr == '*') {
 				if(currentPosition < end && document.getChar(currentPosition) == '/') {
-					return currentPosition + 1;
+					currentPosition++;
+					if(--depth == 0) {
+						return currentPosition;
+					}
+				}
+			} else if(curr == '/') {
+				if(currentPosition < end && document.getChar(currentPosition) == '*') {
+					currentPosition++;
+					depth++;
 				}
 			}
 		}
@@ -216,7 +270,7 @@ public class MJAutoIndentStrategy extends DefaultIndentLineAutoEditStrategy
 			
 			StringBuffer buf = new StringBuffer(command.text);
 			if(command.offset < docLength && document.getChar(command.offset) == '}') {
-				int indLine = findMatchingOpenBracket(document, line, command.offset, 0);
+				int indLine = findOpenBraceLine(document, line, command.offset, 0);
 				if(indLine == -1) {
 					indLine = line;
 				}
@@ -225,7 +279,9 @@ public class MJAutoIndentStrategy extends DefaultIndentLineAutoEditStrategy
 				int start = document.getLineOffset(line);
 				int whiteend = findEndOfWhiteSpace(document, start, command.offset);
 				buf.append(document.get(start, whiteend - start));
-				if(getBracketCount(document, start, command.offset, true) > 0) {
+				final MJPartitioner partitioner = getPartitioner(document);
+				if(partitioner != null ? partitioner.isBraceOpenOnLine(command.offset) :
+						getBracketCount(document, start, command.offset, true) > 0) {
 					buf.append('\t');
 				}
 			}
@@ -256,7 +312,7 @@ public class MJAutoIndentStrategy extends DefaultIndentLineAutoEditStrategy
 			// shift only when line does not contain any text up to the closing bracket
 			if(whiteend == command.offset) {
 				// evaluate the line with the opening bracket that matches out closing bracket
-				int indLine = findMatchingOpenBracket(document, line, command.offset, 1);
+				int indLine = findOpenBraceLine(document, line, command.offset, 1);
 				if(indLine != -1 && indLine != line) {
 					// take the indent of the found line
 					StringBuffer replaceText = new StringBuffer(getIndentOfLine(document, indLine));
@@ -0,0 +1,253 @@
+package net.feichti.microjavaeditor.microjava;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser;
+
+import org.antlr.v4.runtime.Token;
+
+/**
+ * An immutable table of the bracket pairs of a parse, sorted by position.
+ * <p>
+ * The table is built from the bracket tokens, so brackets in comments and character constants are never
+ * matched. For every bracket it keeps the index of its partner and of the innermost pair enclosing it, so the
+ * partner of a bracket is found with a binary search no matter how far away it is, and the enclosing pair of
+ * an offset is usually found right next to it.
+ * <p>
+ * A close bracket is paired with the innermost open bracket of the same kind, the open brackets in between
+ * stay unmatched. A close bracket without an open bracket of its kind stays unmatched as well.
+ * 
+ * @author Peter
+ */
+public class MJBracketIndex
+{
+	private final int[] mOffsets;
+	private final char[] mChars;
+	/** The index of the partner of every bracket, {@code -1} if it is unmatched. */
+	private final int[] mPartners;
+	/** The index of the open bracket of the innermost pair enclosing every bracket, {@code -1} if there is none. */
+	private final int[] mParents;
+	
+	private MJBracketIndex(int[] offsets, char[] chars) {
+		final int size = offsets.length;
+		mOffsets = offsets;
+		mChars = chars;
+		mPartners = new int[size];
+		mParents = new int[size];
+		Arrays.fill(mPartners, -1);
+		
+		// Pair the brackets, then find the parents using only the matched brackets
+		final int[] stack = new int[size];
+		int depth = 0;
+		for(int j = 0; j < size; j++) {
+			final char c = chars[j];
+			if(isOpen(c)) {
+				stack[depth++] = j;
+				continue;
+			}
+			int k = depth - 1;
+			while(k >= 0 && chars[stack[k]] != getPeer(c)) {
+				k--;
+			}
+			if(k >= 0) {
+				mPartners[j] = stack[k];
+				mPartners[stack[k]] = j;
+				depth = k;
+			}
+		}
+		depth = 0;
+		for(int j = 0; j < size; j++) {
+			final boolean matched = (mPartners[j] >= 0);
+			if(matched && !isOpen(chars[j])) {
+				depth--;
+			}
+			mParents[j] = (depth > 0 ? stack[depth - 1] : -1);
+			if(matched && isOpen(chars[j])) {
+				stack[depth++] = j;
+			}
+		}
+	}
+	
+	/**
+	 * Create an index of the brackets in the specified tokens.
+	 * 
+	 * @param tokens The tokens, sorted by position
+	 * @return The new index
+	 */
+	public static MJBracketIndex create(List<? extends Token> tokens) {
+		int[] offsets = new int[64];
+		char[] chars = new char[64];
+		int size = 0;
+		for(Token t : tokens) {
+			final char c = getBracket(t.getType());
+			if(c == 0 || t.getStartIndex() < 0) {
+				continue;
+			}
+			if(size == offsets.length) {
+				offsets = Arrays.copyOf(offsets, size * 2);
+				chars = Arrays.copyOf(chars, size * 2);
+			}
+			offsets[size] = t.getStartIndex();
+			chars[size] = c;
+			size++;
+		}
+		return new MJBracketIndex(Arrays.copyOf(offsets, size), Arrays.copyOf(chars, size));
+	}
+	
+	/**
+	 * Get the number of brackets in this index.
+	 */
+	public int size() {
+		return mOffsets.length;
+	}
+	
+	/**
+	 * Get the offset of the bracket with the specified index.
+	 */
+	public int getOffset(int index) {
+		return mOffsets[index];
+	}
+	
+	/**
+	 * Get the character of the bracket with the specified index.
+	 */
+	public char getChar(int index) {
+		return mChars[index];
+	}
+	
+	/**
+	 * Get the partner of the bracket with the specified index.
+	 * 
+	 * @return The index of the partner, or {@code -1} if the bracket is unmatched
+	 */
+	public int getPartner(int index) {
+		return mPartners[index];
+	}
+	
+	/**
+	 * Find the bracket at the specified offset.
+	 * 
+	 * @param offset The document offset
+	 * @return The index of the bracket, or {@code -1} if there is none
+	 */
+	public int indexOf(int offset) {
+		final int ret = Arrays.binarySearch(mOffsets, offset);
+		return (ret >= 0 ? ret : -1);
+	}
+	
+	/**
+	 * Find the innermost bracket pair that encloses the specified region, that is the open bracket is before
+	 * the region and the close bracket is at or after its end.
+	 * 
+	 * @param offset The start of the region
+	 * @param length The length of the region
+	 * @return The index of the open bracket of the pair, or {@code -1} if there is none
+	 */
+	public int findEnclosing(int offset, int length) {
+		// The last bracket before the region
+		int low = 0;
+		int high = mOffsets.length - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			if(mOffsets[mid] < offset) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if(high < 0) {
+			return -1;
+		}
+		
+		int idx = (isOpen(mChars[high]) && mPartners[high] >= 0 ? high : mParents[high]);
+		while(idx >= 0 && mOffsets[mPartners[idx]] < offset + length) {
+			idx = mParents[idx];
+		}
+		return idx;
+	}
+	
+	/**
+	 * Create a new index with the brackets in a range of offsets replaced by the brackets of another index,
+	 * e.g. after a declaration has been parsed again. The brackets are paired again.
+	 * <p>
+	 * The offsets of the brackets after the replaced range are shifted by the specified amount.
+	 * 
+	 * @param start The first offset of the replaced range
+	 * @param stop The last offset of the replaced range
+	 * @param replacement The new brackets
+	 * @param delta The change in document length
+	 * @return The new index
+	 */
+	public MJBracketIndex splice(int start, int stop, MJBracketIndex replacement, int delta) {
+		int from = Arrays.binarySearch(mOffsets, start);
+		from = (from >= 0 ? from : -from - 1);
+		int to = Arrays.binarySearch(mOffsets, stop + 1);
+		to = (to >= 0 ? to : -to - 1);
+		
+		final int count = replacement.size();
+		final int size = from + count + mOffsets.length - to;
+		final int[] offsets = new int[size];
+		final char[] chars = new char[size];
+		System.arraycopy(mOffsets, 0, offsets, 0, from);
+		System.arraycopy(mChars, 0, chars, 0, from);
+		System.arraycopy(replacement.mOffsets, 0, offsets, from, count);
+		System.arraycopy(replacement.mChars, 0, chars, from, count);
+		System.arraycopy(mChars, to, chars, from + count, mOffsets.length - to);
+		for(int j = from + count, k = to; j < size; j++, k++) {
+			offsets[j] = mOffsets[k] + delta;
+		}
+		return new MJBracketIndex(offsets, chars);
+	}
+	
+	/**
+	 * Determine whether the specified bracket is an open bracket.
+	 */
+	public static boolean isOpen(char c) {
+		return (c == '(' || c == '{' || c == '[');
+	}
+	
+	/**
+	 * Get the bracket that forms a pair with the specified bracket.
+	 */
+	public static char getPeer(char c) {
+		switch(c) {
+			case '(':
+				return ')';
+			case ')':
+				return '(';
+			case '{':
+				return '}';
+			case '}':
+				return '{';
+			case '[':
+				return ']';
+			case ']':
+				return '[';
+			default:
+				return 0;
+		}
+	}
+	
+	/**
+	 * Get the bracket of the specified token type, or {@code 0} if it is no bracket.
+	 */
+	private static char getBracket(int type) {
+		switch(type) {
+			case MicroJavaParser.LPAR:
+				return '(';
+			case MicroJavaParser.RPAR:
+				return ')';
+			case MicroJavaParser.LBRACE:
+				return '{';
+			case MicroJavaParser.RBRACE:
+				return '}';
+			case MicroJavaParser.LBRACK:
+				return '[';
+			case MicroJavaParser.RBRACK:
+				return ']';
+			default:
+				return 0;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package net.feichti.microjavaeditor.microjava;
+
+import net.feichti.microjavaeditor.MJEditor;
+
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.source.DefaultCharacterPairMatcher;
+
+/**
+ * A character pair matcher that looks up brackets in the {@link MJBracketIndex} of the file model.
+ * <p>
+ * Brackets are matched using the bracket pairs of the last parse, so matching does not depend on the distance
+ * to the partner and ignores brackets in comments and character constants. While the document was changed
+ * since the last parse the index does not match the document, then the brackets are matched by scanning the
+ * document like the default matcher does.
+ * 
+ * @author Peter
+ */
+public class MJCharacterPairMatcher extends DefaultCharacterPairMatcher
+{
+	private static final char[] BRACKETS = { '(', ')', '{', '}', '[', ']' };
+	
+	private final MJEditor mEditor;
+	/** Whether the last match was found in the bracket index. */
+	private boolean mIndexed;
+	private int mAnchor;
+	
+	/**
+	 * Create a new matcher for the specified editor.
+	 */
+	public MJCharacterPairMatcher(MJEditor editor) {
+		super(BRACKETS);
+		mEditor = editor;
+	}
+	
+	@Override
+	public IRegion match(IDocument doc, int offset) {
+		final MJBracketIndex brackets = getBracketIndex(doc, offset);
+		mIndexed = (brackets != null);
+		if(brackets == null) {
+			return super.match(doc, offset);
+		}
+		
+		// Like the default matcher, the character before the caret is matched
+		final int idx = brackets.indexOf(offset - 1);
+		final int partner = (idx >= 0 ? brackets.getPartner(idx) : -1);
+		if(partner < 0) {
+			return null;
+		}
+		final int start = brackets.getOffset(Math.min(idx, partner));
+		final int end = brackets.getOffset(Math.max(idx, partner));
+		mAnchor = (idx < partner ? LEFT : RIGHT);
+		return new Region(start, end - start + 1);
+	}
+	
+	@Override
+	public IRegion findEnclosingPeerCharacters(IDocument doc, int offset, int length) {
+		final MJBracketIndex brackets = getBracketIndex(doc, offset + length);
+		if(brackets == null) {
+			return super.findEnclosingPeerCharacters(doc, offset, length);
+		}
+		
+		final int idx = brackets.findEnclosing(offset, length);
+		if(idx < 0) {
+			return null;
+		}
+		final int start = brackets.getOffset(idx);
+		final int end = brackets.getOffset(brackets.getPartner(idx));
+		return new Region(start, end - start + 1);
+	}
+	
+	@Override
+	public int getAnchor() {
+		return (mIndexed ? mAnchor : super.getAnchor());
+	}
+	
+	/**
+	 * Get the bracket index for the specified document, or {@code null} if it does not match the document.
+	 */
+	private MJBracketIndex getBracketIndex(IDocument doc, int offset) {
+		if(doc == null || offset < 0 || offset > doc.getLength()) {
+			return null;
+		}
+		final MJFileModel model = mEditor.getFileModel();
+		return (model.getDocument() == doc ? model.getBracketIndex() : null);
+	}
+}
@@ -1,128 +1,132 @@
 package net.feichti.microjavaeditor.microjava;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import net.feichti.microjavaeditor.antlr4.MicroJavaLexer;
 import net.feichti.microjavaeditor.util.MJColorManager;
-import net.feichti.microjavaeditor.util.MJWhitespaceDetector;
-import net.feichti.microjavaeditor.util.MJWordDetector;
 
-import org.eclipse.jface.text.rules.ICharacterScanner;
-import org.eclipse.jface.text.rules.IRule;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.rules.IToken;
-import org.eclipse.jface.text.rules.NumberRule;
-import org.eclipse.jface.text.rules.RuleBasedScanner;
-import org.eclipse.jface.text.rules.SingleLineRule;
+import org.eclipse.jface.text.rules.ITokenScanner;
 import org.eclipse.jface.text.rules.Token;
-import org.eclipse.jface.text.rules.WhitespaceRule;
-import org.eclipse.jface.text.rules.WordRule;
 
-public class MJCodeScanner extends RuleBasedScanner
+/**
+ * Scans MicroJava code for syntax highlighting.
+ * <p>
+ * Instead of trying a list of rules at every position, the scanner looks up the class of the current character
+ * in a table and scans the token of that class directly. Keywords, operators and separators are derived from
+ * the literal tokens of the {@link MicroJavaLexer} vocabulary, so the tokens found by this scanner are the same
+ * the parser sees, and every token type has its style in a table indexed by type. Identifiers that are not
+ * keywords in the grammar but have a predefined meaning, like {@code int} or {@code len}, are highlighted
+ * separately.
+ * 
+ * @author Peter
+ */
+public class MJCodeScanner implements ITokenScanner
 {
-	/**
-	 * Rule to detect MicroJava operators.
-	 */
-	private static final class OperatorRule implements IRule
-	{
-		private final IToken mToken;
-		
-		/**
-		 * Create a new operator rule.
-		 *
-		 * @param token Token to use for this rule
-		 */
-		public OperatorRule(IToken token) {
-			mToken = token;
-		}
-		
-		/**
-		 * Is this character an operator character?
-		 *
-		 * @param character Character to determine whether it is an operator character
-		 * @return {@code true} iff the character is an operator, {@code false} otherwise
-		 */
-		public static boolean isOperator(char character) {
-			for(int index = 0; index < OPERATORS.length; index++) {
-				if(OPERATORS[index] == character) {
-					return true;
-				}
-			}
-			return false;
+	/** Predefined methods, highlighted like keywords. */
+	public static final String[] BUILTINS = { "ord", "chr", "len" };
+	/** Predefined constants. */
+	public static final String[] CONSTANTS = { "null" };
+	/** Predefined types, {@code void} is a keyword and highlighted like these. */
+	public static final String[] TYPES = { "int", "char" };
+	
+	private static final byte CC_OTHER = 0;
+	private static final byte CC_WHITESPACE = 1;
+	private static final byte CC_LETTER = 2;
+	private static final byte CC_DIGIT = 3;
+	private static final byte CC_QUOTE = 4;
+	private static final byte CC_PUNCTUATION = 5;
+	
+	/** The class of every ASCII character, other characters are {@link #CC_OTHER}. */
+	private static final byte[] sCharClass = new byte[128];
+	/** The keywords of the grammar mapped to their token type. */
+	private static final Map<String, Integer> sKeywords = new HashMap<>();
+	/** The texts of operators and separators indexed by first character, longest first. */
+	private static final String[][] sPunctuation = new String[128][];
+	/** The token types of {@link #sPunctuation}. */
+	private static final int[][] sPunctuationTypes = new int[128][];
+	
+	static {
+		for(char c = 'a'; c <= 'z'; c++) {
+			sCharClass[c] = CC_LETTER;
+			sCharClass[Character.toUpperCase(c)] = CC_LETTER;
 		}
-		
-		@Override
-		public IToken evaluate(ICharacterScanner scanner) {
-			int character = scanner.read();
-			
-			if(isOperator((char)character)) {
-				do {
-					character = scanner.read();
-				} while(isOperator((char)character));
-				scanner.unread();
-				return mToken;
-			}
-			
-			scanner.unread();
-			return Token.UNDEFINED;
+		sCharClass['_'] = CC_LETTER;
+		for(char c = '0'; c <= '9'; c++) {
+			sCharClass[c] = CC_DIGIT;
 		}
-	}
-	
-	/**
-	 * Rule to detect MicroJava brackets.
-	 */
-	private static final class BracketRule implements IRule
-	{
-		private final IToken mToken;
+		sCharClass[' '] = sCharClass['\t'] = sCharClass['\r'] = sCharClass['\n'] = CC_WHITESPACE;
+		sCharClass['\''] = CC_QUOTE;
 		
-		/**
-		 * Create a new bracket rule.
-		 *
-		 * @param token Token to use for this rule
-		 */
-		public BracketRule(IToken token) {
-			mToken = token;
+		final List<List<String>> punctuation = new ArrayList<>(128);
+		for(int c = 0; c < 128; c++) {
+			punctuation.add(null);
 		}
-		
-		/**
-		 * Is this character a bracket character?
-		 *
-		 * @param character Character to determine whether it is a bracket character
-		 * @return {@code true} iff the character is a bracket, {@code false} otherwise
-		 */
-		public static boolean isBracket(char character) {
-			for(int index = 0; index < BRACKETS.length; index++) {
-				if(BRACKETS[index] == character) {
-					return true;
+		final Map<String, Integer> types = new HashMap<>();
+		final String[] names = MicroJavaLexer.tokenNames;
+		for(int type = 0; type < names.length; type++) {
+			final String name = names[type];
+			if(name == null || name.length() <= 2 || !name.startsWith("'") || !name.endsWith("'")) {
+				continue;
+			}
+			final String text = name.substring(1, name.length() - 1);
+			final char first = text.charAt(0);
+			if(first < 128 && sCharClass[first] == CC_LETTER) {
+				sKeywords.put(text, type);
+			} else if(first < 128) {
+				sCharClass[first] = CC_PUNCTUATION;
+				if(punctuation.get(first) == null) {
+					punctuation.set(first, new ArrayList<String>());
 				}
+				punctuation.get(first).add(text);
+				types.put(text, type);
 			}
-			return false;
 		}
+		// A comment starts with a slash, which is also an operator
+		sCharClass['/'] = CC_PUNCTUATION;
 		
-		@Override
-		public IToken evaluate(ICharacterScanner scanner) {
-			int character = scanner.read();
-			
-			if(isBracket((char)character)) {
-				do {
-					character = scanner.read();
-				} while(isBracket((char)character));
-				scanner.unread();
-				return mToken;
+		final Comparator<String> longestFirst = new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return b.length() - a.length();
+			}
+		};
+		for(int c = 0; c < punctuation.size(); c++) {
+			final List<String> texts = punctuation.get(c);
+			if(texts != null) {
+				Collections.sort(texts, longestFirst);
+				sPunctuation[c] = texts.toArray(new String[texts.size()]);
+				sPunctuationTypes[c] = new int[sPunctuation[c].length];
+				for(int j = 0; j < sPunctuation[c].length; j++) {
+					sPunctuationTypes[c][j] = types.get(sPunctuation[c][j]);
+				}
 			}
-			
-			scanner.unread();
-			return Token.UNDEFINED;
 		}
 	}
 	
-	public static final String[] KEYWORDS = { "program", "class", "if", "else", "while", "switch", "case", "default",
-			"break", "return", "final", "new", "read", "print", "ord", "chr", "len" };
-	public static final String[] CONSTANTS = { "null" };
-	public static final String[] TYPES = { "int", "char", "void" };
-	public static final char[] OPERATORS = { ';', '.', '=', '/', '+', '-', '*', '<', '>', ':', '?', '!', ',', '%', '&',
-			'|' };
-	public static final char[] BRACKETS = { '(', ')', '{', '}', '[', ']' };
+	/** The style of every token type. */
+	private final IToken[] mStyles;
+	/** The styles of identifiers with a predefined meaning. */
+	private final Map<String, IToken> mIdentStyles = new HashMap<>();
+	private final IToken mDefault;
 	
+	private String mText = "";
+	private int mOffset;
+	private int mPos;
+	private int mTokenStart;
+	
+	/**
+	 * Create a new code scanner.
+	 * 
+	 * @param colorManager The color manager used to create the styles
+	 */
 	public MJCodeScanner(MJColorManager colorManager) {
 		IToken keyword = MJColorManager.KEYWORD_STYLE.getStyleToken(colorManager);
 		IToken operator = MJColorManager.OPERATOR_STYLE.getStyleToken(colorManager);
@@ -131,32 +135,162 @@ public class MJCodeScanner extends RuleBasedScanner
 		IToken type = MJColorManager.TYPE_STYLE.getStyleToken(colorManager);
 		IToken number = MJColorManager.NUMBER_STYLE.getStyleToken(colorManager);
 		IToken charconst = MJColorManager.CHAR_CONST_STYLE.getStyleToken(colorManager);
-		IToken other = MJColorManager.DEFAULT_STYLE.getStyleToken(colorManager);
+		IToken comment = MJColorManager.COMMENT_STYLE.getStyleToken(colorManager);
 		IToken main = MJColorManager.MAIN_METHOD_STYLE.getStyleToken(colorManager);
+		mDefault = MJColorManager.DEFAULT_STYLE.getStyleToken(colorManager);
 		
-		List<IRule> rules = new ArrayList<>();
-		
-		rules.add(new SingleLineRule("'", "'", charconst, '\\'));
-		rules.add(new NumberRule(number));
-		rules.add(new OperatorRule(operator));
-		rules.add(new BracketRule(bracket));
-		rules.add(new WhitespaceRule(new MJWhitespaceDetector()));
+		mStyles = new IToken[MicroJavaLexer.tokenNames.length];
+		for(int t : sKeywords.values()) {
+			mStyles[t] = keyword;
+		}
+		for(int[] types : sPunctuationTypes) {
+			for(int j = 0; types != null && j < types.length; j++) {
+				mStyles[types[j]] = operator;
+			}
+		}
+		mStyles[MicroJavaLexer.VOID] = type;
+		mStyles[MicroJavaLexer.LPAR] = mStyles[MicroJavaLexer.RPAR] = bracket;
+		mStyles[MicroJavaLexer.LBRACE] = mStyles[MicroJavaLexer.RBRACE] = bracket;
+		mStyles[MicroJavaLexer.LBRACK] = mStyles[MicroJavaLexer.RBRACK] = bracket;
+		mStyles[MicroJavaLexer.Ident] = mDefault;
+		mStyles[MicroJavaLexer.Number] = number;
+		mStyles[MicroJavaLexer.CharConst] = charconst;
+		mStyles[MicroJavaLexer.Comment] = comment;
+		mStyles[MicroJavaLexer.WS] = Token.WHITESPACE;
 		
-		WordRule wordRule = new WordRule(new MJWordDetector(), other);
-		for(String s : KEYWORDS) {
-			wordRule.addWord(s, keyword);
+		for(String s : BUILTINS) {
+			mIdentStyles.put(s, keyword);
 		}
 		for(String s : TYPES) {
-			wordRule.addWord(s, type);
+			mIdentStyles.put(s, type);
 		}
 		for(String s : CONSTANTS) {
-			wordRule.addWord(s, constant);
+			mIdentStyles.put(s, constant);
+		}
+		mIdentStyles.put("main", main);
+	}
+	
+	@Override
+	public void setRange(IDocument document, int offset, int length) {
+		try {
+			mText = document.get(offset, length);
+		} catch(BadLocationException ex) {
+			mText = "";
+		}
+		mOffset = offset;
+		mPos = 0;
+		mTokenStart = 0;
+	}
+	
+	@Override
+	public IToken nextToken() {
+		final String text = mText;
+		final int end = text.length();
+		mTokenStart = mPos;
+		if(mPos >= end) {
+			return Token.EOF;
+		}
+		
+		final char c = text.charAt(mPos);
+		switch(c < 128 ? sCharClass[c] : CC_OTHER) {
+			case CC_WHITESPACE:
+				do {
+					mPos++;
+				} while(mPos < end && isClass(text.charAt(mPos), CC_WHITESPACE));
+				return mStyles[MicroJavaLexer.WS];
+			case CC_LETTER:
+				do {
+					mPos++;
+				} while(mPos < end && isIdentPart(text.charAt(mPos)));
+				final String word = text.substring(mTokenStart, mPos);
+				final Integer keyword = sKeywords.get(word);
+				if(keyword != null) {
+					return mStyles[keyword];
+				}
+				final IToken ident = mIdentStyles.get(word);
+				return (ident != null ? ident : mStyles[MicroJavaLexer.Ident]);
+			case CC_DIGIT:
+				do {
+					mPos++;
+				} while(mPos < end && isClass(text.charAt(mPos), CC_DIGIT));
+				return mStyles[MicroJavaLexer.Number];
+			case CC_QUOTE:
+				return scanCharConst(text, end);
+			case CC_PUNCTUATION:
+				if(c == '/' && text.startsWith("/*", mPos)) {
+					scanComment(text, end);
+					return mStyles[MicroJavaLexer.Comment];
+				}
+				final String[] candidates = sPunctuation[c];
+				for(int j = 0; j < candidates.length; j++) {
+					if(text.startsWith(candidates[j], mPos)) {
+						mPos += candidates[j].length();
+						return mStyles[sPunctuationTypes[c][j]];
+					}
+				}
+				break;
 		}
-		wordRule.addWord("main", main);
-		rules.add(wordRule);
 		
-		IRule[] result = new IRule[rules.size()];
-		rules.toArray(result);
-		setRules(result);
+		// Not a valid token
+		mPos++;
+		return mDefault;
+	}
+	
+	@Override
+	public int getTokenOffset() {
+		return mOffset + mTokenStart;
+	}
+	
+	@Override
+	public int getTokenLength() {
+		return mPos - mTokenStart;
+	}
+	
+	/**
+	 * Scan a character constant, a quote that does not start a valid one is not a valid token.
+	 */
+	private IToken scanCharConst(String text, int end) {
+		int pos = mPos + 1;
+		if(pos < end && text.charAt(pos) == '\\') {
+			pos += (pos + 1 < end && "rn'\\".indexOf(text.charAt(pos + 1)) >= 0 ? 2 : end);
+		} else if(pos < end && text.charAt(pos) != '\'') {
+			pos++;
+		} else {
+			pos = end;
+		}
+		if(pos < end && text.charAt(pos) == '\'') {
+			mPos = pos + 1;
+			return mStyles[MicroJavaLexer.CharConst];
+		}
+		mPos++;
+		return mDefault;
+	}
+	
+	/**
+	 * Scan a possibly nested comment, an unclosed comment extends to the end of the range.
+	 */
+	private void scanComment(String text, int end) {
+		int level = 0;
+		int pos = mPos;
+		do {
+			if(text.startsWith("/*", pos)) {
+				level++;
+				pos += 2;
+			} else if(text.startsWith("*/", pos)) {
+				level--;
+				pos += 2;
+			} else {
+				pos++;
+			}
+		} while(level > 0 && pos < end);
+		mPos = Math.min(pos, end);
+	}
+	
+	private static boolean isClass(char c, byte charClass) {
+		return (c < 128 && sCharClass[c] == charClass);
+	}
+	
+	private static boolean isIdentPart(char c) {
+		return (c < 128 && (sCharClass[c] == CC_LETTER || sCharClass[c] == CC_DIGIT));
 	}
 }
@@ -1,19 +1,50 @@
 package net.feichti.microjavaeditor.microjava;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.feichti.microjavaeditor.MJEditor;
 import net.feichti.microjavaeditor.MJEditorMessages;
+import net.feichti.microjavaeditor.ast.MJNode;
+import net.feichti.microjavaeditor.symtab.ArrayType;
+import net.feichti.microjavaeditor.symtab.ClassSymbol;
+import net.feichti.microjavaeditor.symtab.MethodSymbol;
+import net.feichti.microjavaeditor.symtab.Scope;
+import net.feichti.microjavaeditor.symtab.Symbol;
+import net.feichti.microjavaeditor.symtab.SymbolScope;
+import net.feichti.microjavaeditor.symtab.SymbolTable;
+import net.feichti.microjavaeditor.symtab.Type;
+import net.feichti.microjavaeditor.util.MJPrefixTrie;
+import net.feichti.microjavaeditor.util.MJWordDetector;
 
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.TextPresentation;
-import org.eclipse.jface.text.contentassist.CompletionProposal;
 import org.eclipse.jface.text.contentassist.ContextInformation;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
+import org.eclipse.jface.text.contentassist.ICompletionProposalExtension2;
 import org.eclipse.jface.text.contentassist.IContentAssistProcessor;
 import org.eclipse.jface.text.contentassist.IContextInformation;
 import org.eclipse.jface.text.contentassist.IContextInformationPresenter;
 import org.eclipse.jface.text.contentassist.IContextInformationValidator;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Point;
 
 /**
- * Example MicroJava completion processor.
+ * MicroJava completion processor that proposes the symbols visible at the caret and keywords.
+ * <p>
+ * The file model puts the symbols of the program into a {@link MJPrefixTrie} when it is parsed, so finding
+ * the candidates for a prefix or camel case pattern does not depend on the size of the program. Candidates
+ * are then filtered by the scope at the caret. After a {@code .} only the fields of the class of the
+ * designator before it are candidates, they are matched directly. While the proposal popup is open, the
+ * proposals filter themselves as the user keeps typing, see
+ * {@link Proposal#validate(IDocument, int, DocumentEvent)}.
  */
 public class MJCompletionProcessor implements IContentAssistProcessor
 {
@@ -41,22 +72,334 @@ public class MJCompletionProcessor implements IContentAssistProcessor
 		}
 	}
 	
-	protected final static String[] PROPOSALS = { "break", "case", "char", "class", "default", "else", "final", "if",
-			"int", "new", "null", "return", "switch", "void" };
+	/**
+	 * A proposal that replaces the identifier prefix before the caret, it stays valid while the text typed
+	 * since the start of the prefix matches its name.
+	 */
+	protected static class Proposal implements ICompletionProposal, ICompletionProposalExtension2
+	{
+		private final String mName;
+		private final String mDisplayString;
+		private final String mInfo;
+		private final int mOffset;
+		private int mLength;
+		private int mCursor;
+		
+		/**
+		 * Create a new proposal.
+		 * 
+		 * @param name The text that is inserted
+		 * @param displayString The text shown in the proposal list
+		 * @param info The additional info shown next to the list, may be {@code null}
+		 * @param offset The start of the prefix that is replaced
+		 * @param length The length of the prefix
+		 */
+		public Proposal(String name, String displayString, String info, int offset, int length) {
+			mName = name;
+			mDisplayString = displayString;
+			mInfo = info;
+			mOffset = offset;
+			mLength = length;
+			mCursor = offset + length;
+		}
+		
+		@Override
+		public void apply(IDocument document) {
+			try {
+				document.replace(mOffset, mLength, mName);
+				mCursor = mOffset + mName.length();
+			} catch(BadLocationException ex) {
+				// Document was changed in the meantime, ignore
+			}
+		}
+		
+		@Override
+		public void apply(ITextViewer viewer, char trigger, int stateMask, int offset) {
+			// Also replace what was typed since the proposals were computed
+			mLength = Math.max(offset - mOffset, 0);
+			apply(viewer.getDocument());
+		}
+		
+		@Override
+		public boolean validate(IDocument document, int offset, DocumentEvent event) {
+			if(offset < mOffset) {
+				return false;
+			}
+			try {
+				return MJPrefixTrie.matches(document.get(mOffset, offset - mOffset), mName);
+			} catch(BadLocationException ex) {
+				return false;
+			}
+		}
+		
+		@Override
+		public void selected(ITextViewer viewer, boolean smartToggle) {
+			
+		}
+		
+		@Override
+		public void unselected(ITextViewer viewer) {
+			
+		}
+		
+		@Override
+		public Point getSelection(IDocument document) {
+			return new Point(mCursor, 0);
+		}
+		
+		@Override
+		public String getAdditionalProposalInfo() {
+			return mInfo;
+		}
+		
+		@Override
+		public String getDisplayString() {
+			return mDisplayString;
+		}
+		
+		@Override
+		public Image getImage() {
+			return null;
+		}
+		
+		@Override
+		public IContextInformation getContextInformation() {
+			return null;
+		}
+	}
+	
+	/**
+	 * The keywords that are proposed in addition to symbols. Builtin functions and types like {@code print} or
+	 * {@code void} are symbols of the universe.
+	 */
+	protected final static String[] KEYWORDS = { "break", "case", "class", "default", "else", "final", "if", "new",
+			"null", "program", "return", "switch", "while" };
+	
+	/** How far to search back for the designator before a {@code .}. */
+	private static final int MAX_DESIGNATOR_LENGTH = 256;
+	
+	private static final MJPrefixTrie<String> sKeywords = new MJPrefixTrie<>();
+	private static final MJWordDetector sWordDetector = new MJWordDetector();
+	
+	private static final Comparator<Symbol> SYMBOL_ORDER = new Comparator<Symbol>() {
+		@Override
+		public int compare(Symbol a, Symbol b) {
+			return a.getName().compareToIgnoreCase(b.getName());
+		}
+	};
+	
+	static {
+		for(String keyword : KEYWORDS) {
+			sKeywords.add(keyword, keyword);
+		}
+	}
 	
 	protected IContextInformationValidator mValidator = new Validator();
 	
+	private final MJEditor mEditor;
+	
+	/**
+	 * Create a new completion processor for the specified editor.
+	 * 
+	 * @param editor The editor whose file model provides the symbols
+	 */
+	public MJCompletionProcessor(MJEditor editor) {
+		mEditor = editor;
+	}
+	
 	@Override
 	public ICompletionProposal[] computeCompletionProposals(ITextViewer viewer, int documentOffset) {
-		ICompletionProposal[] result = new ICompletionProposal[PROPOSALS.length];
-		for(int i = 0; i < PROPOSALS.length; i++) {
-			IContextInformation info = new ContextInformation(PROPOSALS[i],
-					MJEditorMessages.format("CompletionProcessor.Proposal.ContextInfo.pattern", PROPOSALS[i]));
-			result[i] = new CompletionProposal(PROPOSALS[i], documentOffset, 0, PROPOSALS[i].length(), null,
-					PROPOSALS[i], info,
-					MJEditorMessages.format("CompletionProcessor.Proposal.hoverinfo.pattern", PROPOSALS[i]));
+		final IDocument doc = viewer.getDocument();
+		final List<ICompletionProposal> result = new ArrayList<>();
+		try {
+			int start = documentOffset;
+			while(start > 0 && sWordDetector.isWordPart(doc.getChar(start - 1))) {
+				start--;
+			}
+			final String prefix = doc.get(start, documentOffset - start);
+			final int before = skipWhitespace(doc, start);
+			final boolean qualified = (before > 0 && doc.getChar(before - 1) == '.');
+			
+			final MJFileModel model = mEditor.getFileModel();
+			final SymbolTable tab = model.getSymbolTable();
+			final MJContainerIndex nodes = model.getContainerIndex();
+			final MJPrefixTrie<Symbol> trie = model.getSymbolTrie();
+			if(tab != null && nodes != null && trie != null) {
+				final Scope scope = findScope(tab, nodes, model.getParsedOffset(start));
+				final ClassSymbol owner = (qualified ? resolveDesignator(doc, before - 1, scope) : null);
+				final Set<Symbol> candidates = new LinkedHashSet<>();
+				if(!qualified) {
+					trie.find(prefix, candidates);
+				} else if(owner != null) {
+					for(Symbol sym : owner.getSymbols()) {
+						if(MJPrefixTrie.matches(prefix, sym.getName())) {
+							candidates.add(sym);
+						}
+					}
+				}
+				
+				final List<Symbol> symbols = new ArrayList<>();
+				final int nameOffset = model.getParsedOffset(start);
+				for(Symbol sym : candidates) {
+					if(qualified ? sym.getScope() == owner : scope.resolve(sym.getName()) == sym) {
+						if(!isDeclaredAt(sym, nodes, nameOffset)) {
+							symbols.add(sym);
+						}
+					}
+				}
+				Collections.sort(symbols, SYMBOL_ORDER);
+				for(Symbol sym : symbols) {
+					result.add(createProposal(sym, start, prefix.length()));
+				}
+			}
+			
+			if(!qualified) {
+				final List<String> keywords = new ArrayList<>();
+				sKeywords.find(prefix, keywords);
+				Collections.sort(keywords);
+				for(String keyword : keywords) {
+					result.add(new Proposal(keyword, keyword, MJEditorMessages.format(
+							"CompletionProcessor.Proposal.hoverinfo.pattern", keyword), start, prefix.length()));
+				}
+			}
+		} catch(BadLocationException ex) {
+			ex.printStackTrace();
 		}
-		return result;
+		return result.toArray(new ICompletionProposal[result.size()]);
+	}
+	
+	/**
+	 * Find the innermost scope at the specified offset of the parsed program.
+	 */
+	private static Scope findScope(SymbolTable tab, MJContainerIndex nodes, int offset) {
+		int id = nodes.find(offset);
+		while(id >= 0 && id < tab.getScopes().length && tab.getScope(id) == null) {
+			id = nodes.getParent(id);
+		}
+		return (id >= 0 && id < tab.getScopes().length ? tab.getScope(id) : tab.getUniverse());
+	}
+	
+	/**
+	 * Determine whether a symbol is declared by the name that is being completed, it is not proposed then.
+	 */
+	private static boolean isDeclaredAt(Symbol sym, MJContainerIndex nodes, int offset) {
+		final int decl = sym.getDeclaration();
+		if(decl < 0 || decl >= nodes.size()) {
+			return false;
+		}
+		final MJNode node = nodes.getNode(decl);
+		return (node.getNameOffset() == offset);
+	}
+	
+	/**
+	 * Resolve the class of the designator that ends before the specified {@code .}, e.g. {@code a.b[i]}.
+	 * 
+	 * @param doc The document
+	 * @param dot The offset of the {@code .}
+	 * @param scope The scope at the caret
+	 * @return The class, or {@code null} if the designator could not be resolved to a class
+	 * @throws BadLocationException If the document was changed concurrently
+	 */
+	private static ClassSymbol resolveDesignator(IDocument doc, int dot, Scope scope) throws BadLocationException {
+		// Collect the parts of the designator backwards, with the number of array accesses of every part
+		final List<String> names = new ArrayList<>();
+		final List<Integer> dims = new ArrayList<>();
+		final int limit = Math.max(dot - MAX_DESIGNATOR_LENGTH, 0);
+		int pos = dot;
+		while(true) {
+			pos = skipWhitespace(doc, pos);
+			int dim = 0;
+			while(pos > limit && doc.getChar(pos - 1) == ']') {
+				pos = skipBrackets(doc, pos - 1, limit);
+				if(pos < 0) {
+					return null;
+				}
+				pos = skipWhitespace(doc, pos);
+				dim++;
+			}
+			final int end = pos;
+			while(pos > limit && sWordDetector.isWordPart(doc.getChar(pos - 1))) {
+				pos--;
+			}
+			if(pos == end) {
+				return null;
+			}
+			names.add(doc.get(pos, end - pos));
+			dims.add(dim);
+			pos = skipWhitespace(doc, pos);
+			if(pos <= limit || doc.getChar(pos - 1) != '.') {
+				break;
+			}
+			pos--;
+		}
+		
+		// Resolve the parts in order, members are looked up in the class of the previous part
+		Type type = null;
+		for(int j = names.size() - 1; j >= 0; j--) {
+			final Symbol sym;
+			if(j == names.size() - 1) {
+				sym = scope.resolve(names.get(j));
+			} else {
+				sym = (type instanceof SymbolScope ? ((SymbolScope)type).getMember(names.get(j)) : null);
+			}
+			if(sym == null || sym instanceof MethodSymbol) {
+				return null;
+			}
+			type = sym.getType();
+			for(int d = dims.get(j); d > 0; d--) {
+				type = (type instanceof ArrayType ? ((ArrayType)type).getElementType() : null);
+			}
+		}
+		return (type instanceof ClassSymbol ? (ClassSymbol)type : null);
+	}
+	
+	/**
+	 * Find the start of the whitespace before the specified offset.
+	 */
+	private static int skipWhitespace(IDocument doc, int offset) throws BadLocationException {
+		while(offset > 0 && Character.isWhitespace(doc.getChar(offset - 1))) {
+			offset--;
+		}
+		return offset;
+	}
+	
+	/**
+	 * Find the {@code [} matching the {@code ]} at the specified offset.
+	 * 
+	 * @return The offset of the {@code [}, or {@code -1} if there is none after the limit
+	 */
+	private static int skipBrackets(IDocument doc, int offset, int limit) throws BadLocationException {
+		int depth = 0;
+		for(int pos = offset; pos >= limit; pos--) {
+			final char c = doc.getChar(pos);
+			if(c == ']') {
+				depth++;
+			} else if(c == '[' && --depth == 0) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Create the proposal for a symbol.
+	 */
+	private static Proposal createProposal(Symbol sym, int offset, int length) {
+		final String name = sym.getName();
+		final Type type = sym.getType();
+		final StringBuilder display = new StringBuilder(name);
+		if(sym instanceof MethodSymbol) {
+			display.append("()");
+		}
+		if(type != null) {
+			display.append(" : ").append(type.getName());
+		}
+		final Scope scope = sym.getScope();
+		String info = null;
+		if(scope != null) {
+			info = MJEditorMessages.format("CompletionProcessor.Proposal.symbolinfo.pattern", display, scope.getName());
+		}
+		return new Proposal(name, display.toString(), info, offset, length);
 	}
 	
 	@Override
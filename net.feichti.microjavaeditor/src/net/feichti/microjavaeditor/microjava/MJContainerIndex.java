@@ -0,0 +1,143 @@
+package net.feichti.microjavaeditor.microjava;
+
+import java.util.Arrays;
+
+import net.feichti.microjavaeditor.ast.MJMethodDecl;
+import net.feichti.microjavaeditor.ast.MJNode;
+import net.feichti.microjavaeditor.ast.MJProgram;
+import net.feichti.microjavaeditor.ast.MJScopeDecl;
+import net.feichti.microjavaeditor.ast.MJVarDecl;
+import net.feichti.microjavaeditor.symtab.SymbolTable;
+
+/**
+ * An immutable interval index of the containers of a program.
+ * <p>
+ * Containers are the program, class and method declarations as well as variable, parameter and constant
+ * declarations. Their source regions are nested, so they are kept in pre-order together with the index of
+ * their parent. The innermost container at an offset is then found with a binary search followed by a walk up
+ * the (at most three) parents, without walking the AST or allocating anything.
+ * <p>
+ * The index of a container is a dense id for its AST node, side tables like the scopes and symbols of the
+ * {@link SymbolTable} are plain arrays indexed by it. The ids are only valid for the program the index was
+ * created for.
+ * 
+ * @author Peter
+ */
+public class MJContainerIndex
+{
+	private int[] mStart = new int[16];
+	private int[] mStop = new int[16];
+	private int[] mParent = new int[16];
+	private MJNode[] mNodes = new MJNode[16];
+	private int mSize;
+	
+	/**
+	 * Create the container index for the specified program.
+	 * 
+	 * @param root The program
+	 */
+	public MJContainerIndex(MJProgram root) {
+		final int prog = add(root, -1);
+		for(MJNode decl : root.getDeclarations()) {
+			final int idx = add(decl, prog);
+			if(decl instanceof MJMethodDecl) {
+				for(MJVarDecl param : ((MJMethodDecl)decl).getParams()) {
+					add(param, idx);
+				}
+			}
+			if(decl instanceof MJScopeDecl) {
+				for(MJVarDecl var : ((MJScopeDecl)decl).getVariables()) {
+					add(var, idx);
+				}
+			}
+		}
+	}
+	
+	private int add(MJNode node, int parent) {
+		if(mSize == mNodes.length) {
+			final int size = mSize * 2;
+			mStart = Arrays.copyOf(mStart, size);
+			mStop = Arrays.copyOf(mStop, size);
+			mParent = Arrays.copyOf(mParent, size);
+			mNodes = Arrays.copyOf(mNodes, size);
+		}
+		mStart[mSize] = node.getStart();
+		mStop[mSize] = node.getStop();
+		mParent[mSize] = parent;
+		mNodes[mSize] = node;
+		return mSize++;
+	}
+	
+	/**
+	 * Get the number of containers in this index.
+	 */
+	public int size() {
+		return mSize;
+	}
+	
+	/**
+	 * Find the innermost container that contains the specified offset.
+	 * 
+	 * @param offset The document offset
+	 * @return The index of the container, or {@code -1} if there is none
+	 */
+	public int find(int offset) {
+		int low = 0;
+		int high = mSize - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			if(mStart[mid] <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		// The last container starting before the offset is the innermost candidate, otherwise one of its parents
+		int idx = high;
+		while(idx >= 0 && mStop[idx] < offset) {
+			idx = mParent[idx];
+		}
+		return idx;
+	}
+	
+	/**
+	 * Determine whether the region of one container contains the region of another one.
+	 * 
+	 * @param outer Index of the outer container
+	 * @param inner Index of the inner container
+	 * @return {@code true} if the outer region contains the inner region
+	 */
+	public boolean contains(int outer, int inner) {
+		return mStart[outer] <= mStart[inner] && mStop[outer] >= mStop[inner];
+	}
+	
+	/**
+	 * Get the index of the parent of a container.
+	 * 
+	 * @return The parent index, or {@code -1} for the program
+	 */
+	public int getParent(int index) {
+		return mParent[index];
+	}
+	
+	/**
+	 * Get the start offset of the container with the specified index.
+	 */
+	public int getStart(int index) {
+		return mStart[index];
+	}
+	
+	/**
+	 * Get the length of the region of the container with the specified index.
+	 */
+	public int getLength(int index) {
+		return mStop[index] - mStart[index] + 1;
+	}
+	
+	/**
+	 * Get the AST node of the container with the specified index.
+	 */
+	public MJNode getNode(int index) {
+		return mNodes[index];
+	}
+}
@@ -0,0 +1,48 @@
+package net.feichti.microjavaeditor.microjava;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.TextUtilities;
+import org.eclipse.jface.text.formatter.IContentFormatter;
+import org.eclipse.jface.text.formatter.IFormattingStrategy;
+import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * A content formatter that applies the edits of a {@link MJFormatter} to the document.
+ * <p>
+ * If the whole document is formatted, all of it is formatted. Otherwise the declarations overlapping the
+ * region are formatted, e.g. the method containing the selection. Only the changed whitespace is replaced, so
+ * the undo record stays small. Documents with syntax errors are not formatted.
+ * 
+ * @author Peter
+ */
+public class MJContentFormatter implements IContentFormatter
+{
+	@Override
+	public void format(IDocument document, IRegion region) {
+		final MJFormatter formatter = new MJFormatter(document.get(), TextUtilities.getDefaultLineDelimiter(document));
+		final TextEdit edit;
+		if(region == null || region.getOffset() == 0 && region.getLength() >= document.getLength()) {
+			edit = formatter.format();
+		} else {
+			edit = formatter.formatDeclarations(region.getOffset(), region.getLength());
+		}
+		if(edit == null || !edit.hasChildren()) {
+			return;
+		}
+		
+		try {
+			edit.apply(document, TextEdit.NONE);
+		} catch(MalformedTreeException | BadLocationException ex) {
+			ex.printStackTrace();
+		}
+	}
+	
+	@Override
+	public IFormattingStrategy getFormattingStrategy(String contentType) {
+		// Formatting does not depend on partitions
+		return null;
+	}
+}
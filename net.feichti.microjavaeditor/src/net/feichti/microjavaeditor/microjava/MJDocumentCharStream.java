@@ -0,0 +1,105 @@
+package net.feichti.microjavaeditor.microjava;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+
+/**
+ * A {@link CharStream} that reads the characters of an {@link IDocument} in place.
+ * <p>
+ * Unlike {@code new ANTLRInputStream(doc.get())} this does not copy the document, characters are read from the
+ * text store of the document when the lexer asks for them. The document must not be changed while the stream
+ * is used, e.g. by only using it while handling a document event on the thread that changed the document.
+ *
+ * @author Peter
+ */
+public class MJDocumentCharStream implements CharStream
+{
+	private final IDocument mDocument;
+	private final int mLength;
+	/** The index of the next character to consume. */
+	protected int p;
+	
+	/**
+	 * Create a new stream for the specified document.
+	 *
+	 * @param document The document
+	 */
+	public MJDocumentCharStream(IDocument document) {
+		mDocument = document;
+		mLength = document.getLength();
+	}
+	
+	@Override
+	public void consume() {
+		if(p >= mLength) {
+			assert LA(1) == IntStream.EOF;
+			throw new IllegalStateException("cannot consume EOF");
+		}
+		p++;
+	}
+	
+	@Override
+	public int LA(int i) {
+		if(i == 0) {
+			// Undefined
+			return 0;
+		}
+		final int index = (i < 0 ? p + i : p + i - 1);
+		if(index < 0 || index >= mLength) {
+			return IntStream.EOF;
+		}
+		try {
+			return mDocument.getChar(index);
+		} catch(BadLocationException ex) {
+			return IntStream.EOF;
+		}
+	}
+	
+	@Override
+	public int mark() {
+		// The whole document is always available
+		return -1;
+	}
+	
+	@Override
+	public void release(int marker) {
+		
+	}
+	
+	@Override
+	public int index() {
+		return p;
+	}
+	
+	@Override
+	public void seek(int index) {
+		p = Math.max(0, Math.min(index, mLength));
+	}
+	
+	@Override
+	public int size() {
+		return mLength;
+	}
+	
+	@Override
+	public String getSourceName() {
+		return IntStream.UNKNOWN_SOURCE_NAME;
+	}
+	
+	@Override
+	public String getText(Interval interval) {
+		final int start = Math.max(interval.a, 0);
+		final int stop = Math.min(interval.b, mLength - 1);
+		if(start > stop) {
+			return "";
+		}
+		try {
+			return mDocument.get(start, stop - start + 1);
+		} catch(BadLocationException ex) {
+			return "";
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package net.feichti.microjavaeditor.microjava;
 
+import net.feichti.microjavaeditor.MJEditor;
 import net.feichti.microjavaeditor.util.MJWordDetector;
 
 import org.eclipse.jface.text.BadLocationException;
@@ -9,17 +10,28 @@ import org.eclipse.jface.text.ITextViewer;
 
 /**
  * Double click strategy aware of MicroJava identifier syntax rules.
+ * <p>
+ * Brackets are matched using the {@link MJBracketIndex} of the file model, the document is only scanned for the
+ * partner of a bracket if it was changed since the last parse.
  */
 public class MJDoubleClickSelector implements ITextDoubleClickStrategy
 {
 	protected static char[] sBrackets = { '{', '}', '(', ')', '[', ']', '"', '"' };
 	
 	private MJWordDetector mWordDetector = new MJWordDetector();
+	private final MJEditor mEditor;
 	protected ITextViewer mText;
 	protected int mPos;
 	protected int mStartPos;
 	protected int mEndPos;
 	
+	/**
+	 * Create a new double click strategy for the specified editor.
+	 */
+	public MJDoubleClickSelector(MJEditor editor) {
+		mEditor = editor;
+	}
+	
 	@Override
 	public void doubleClicked(ITextViewer text) {
 		mPos = text.getSelectedRange().x;
@@ -49,9 +61,15 @@ public class MJDoubleClickSelector implements ITextDoubleClickStrategy
 		mStartPos = -1;
 		mEndPos = -1;
 		
+		final IDocument doc = mText.getDocument();
+		final MJFileModel model = mEditor.getFileModel();
+		final MJBracketIndex brackets = (model.getDocument() == doc ? model.getBracketIndex() : null);
+		if(brackets != null) {
+			return matchBracketsAt(brackets);
+		}
+		
 		// get the chars preceding and following the start position
 		try {
-			IDocument doc = mText.getDocument();
 			
 			prevChar = doc.getChar(mPos - 1);
 			nextChar = doc.getChar(mPos);
@@ -90,6 +108,30 @@ public class MJDoubleClickSelector implements ITextDoubleClickStrategy
 		return false;
 	}
 	
+	/**
+	 * Match the brackets at the current selection using the bracket pairs of the last parse. An open bracket
+	 * before the selection takes precedence over a close bracket after it.
+	 * 
+	 * @param brackets The bracket index of the current document
+	 * @return <code>true</code> if brackets match, <code>false</code> otherwise
+	 */
+	private boolean matchBracketsAt(MJBracketIndex brackets) {
+		int idx = brackets.indexOf(mPos - 1);
+		if(idx < 0 || !MJBracketIndex.isOpen(brackets.getChar(idx)) || brackets.getPartner(idx) < 0) {
+			idx = brackets.indexOf(mPos);
+			if(idx >= 0 && MJBracketIndex.isOpen(brackets.getChar(idx))) {
+				idx = -1;
+			}
+		}
+		final int partner = (idx >= 0 ? brackets.getPartner(idx) : -1);
+		if(partner < 0) {
+			return false;
+		}
+		mStartPos = brackets.getOffset(Math.min(idx, partner));
+		mEndPos = brackets.getOffset(Math.max(idx, partner));
+		return true;
+	}
+	
 	/**
 	 * Select the word at the current selection location. Return <code>true</code> if successful,
 	 * <code>false</code> otherwise.
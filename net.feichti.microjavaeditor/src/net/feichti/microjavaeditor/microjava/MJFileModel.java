@@ -1,24 +1,28 @@
 package net.feichti.microjavaeditor.microjava;
 
 import java.util.ArrayList;
-import java.util.Deque;
-import java.util.IdentityHashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import net.feichti.microjavaeditor.MJContentOutlinePage;
-import net.feichti.microjavaeditor.MicroJavaEditorPlugin;
-import net.feichti.microjavaeditor.antlr4.MicroJavaBaseListener;
-import net.feichti.microjavaeditor.antlr4.MicroJavaLexer;
-import net.feichti.microjavaeditor.antlr4.MicroJavaListener;
 import net.feichti.microjavaeditor.antlr4.MicroJavaParser;
 import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ClassDeclContext;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ConstDeclContext;
 import net.feichti.microjavaeditor.antlr4.MicroJavaParser.MethodDeclContext;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ParamContext;
 import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ProgContext;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.VarDeclContext;
+import net.feichti.microjavaeditor.ast.MJAstBuilder;
+import net.feichti.microjavaeditor.ast.MJClassDecl;
+import net.feichti.microjavaeditor.ast.MJConstDecl;
+import net.feichti.microjavaeditor.ast.MJMethodDecl;
+import net.feichti.microjavaeditor.ast.MJNode;
+import net.feichti.microjavaeditor.ast.MJProgram;
+import net.feichti.microjavaeditor.ast.MJScopeDecl;
+import net.feichti.microjavaeditor.ast.MJType;
+import net.feichti.microjavaeditor.ast.MJVarDecl;
 import net.feichti.microjavaeditor.symtab.ClassSymbol;
 import net.feichti.microjavaeditor.symtab.ConstantSymbol;
 import net.feichti.microjavaeditor.symtab.MethodSymbol;
@@ -27,97 +31,60 @@ import net.feichti.microjavaeditor.symtab.Symbol;
 import net.feichti.microjavaeditor.symtab.SymbolTable;
 import net.feichti.microjavaeditor.symtab.Type;
 import net.feichti.microjavaeditor.symtab.VariableSymbol;
+import net.feichti.microjavaeditor.util.MJPrefixTrie;
 import net.feichti.microjavaeditor.util.SourceRegion;
-import net.feichti.microjavaeditor.util.VarDeclWrapper;
 
-import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.BaseErrorListener;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
-import org.antlr.v4.runtime.RuleContext;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ErrorNode;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeProperty;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.antlr.v4.runtime.tree.TerminalNode;
-import org.antlr.v4.runtime.tree.Tree;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.BadPositionCategoryException;
 import org.eclipse.jface.text.DefaultPositionUpdater;
+import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
 import org.eclipse.jface.text.IPositionUpdater;
-import org.eclipse.jface.viewers.ITreeContentProvider;
-import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModelExtension;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.ide.ResourceUtil;
 import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.MarkerAnnotation;
+import org.eclipse.ui.texteditor.MarkerUtilities;
 
 /**
- * Represents a model of a MicroJava file and is a tree content provider.
+ * Represents a model of a MicroJava file.
  * <p>
- * This class is used as the content provider for the {@link MJContentOutlinePage}, when the input is set the
- * file is parsed and the {@link ProgContext} for the file as well as the parser can be accessed.<br>
- * This class also provides methods to work with the generated parse tree.
+ * The model is owned by the editor and shown by the {@link MJContentOutlinePage}, the file is parsed by the
+ * {@link MJReconcilingStrategy} whenever the document changes. After that the {@link MJProgram AST} for the
+ * file can be accessed. The parse tree is not kept, it is lowered to the AST and dropped right after parsing.
  * 
  * @TODO Parsing errors are collected and can be accessed, e.g. for display to the user.
  * @author Peter
  */
-public class MJFileModel implements ITreeContentProvider
+public class MJFileModel
 {
-	/**
-	 * The possible types of variable declarations.
-	 */
-	public static enum VariableKind
-	{
-		/**
-		 * Declaration represents a global variable.
-		 */
-		GLOBAL(MicroJavaEditorPlugin.IMG_VARIABLE),
-		/**
-		 * Declaration represents a local variable.
-		 */
-		LOCAL(MicroJavaEditorPlugin.IMG_LOCAL),
-		/**
-		 * Declaration represents a class field.
-		 */
-		FIELD(MicroJavaEditorPlugin.IMG_FIELD);
-		
-		/**
-		 * The key for getting the outline view icon for this variable kind.
-		 * 
-		 * @see MicroJavaEditorPlugin#getImage(String)
-		 * @see MicroJavaEditorPlugin#getImageDescriptor(String)
-		 */
-		public final String imageKey;
-		
-		/**
-		 * Get a {@link VariableKind} for the specified declaration.
-		 * 
-		 * @param decl The {@link VarDeclContext}
-		 * @return A variable kind, or {@code null} if the type cannot be determined
-		 */
-		public static VariableKind forDeclaration(VarDeclContext decl) {
-			if(decl.parent instanceof ClassDeclContext) {
-				return FIELD;
-			} else if(decl.parent instanceof MethodDeclContext) {
-				return LOCAL;
-			} else if(decl.parent instanceof ProgContext) {
-				return GLOBAL;
-			} else {
-				return null;
-			}
-		}
-		
-		private VariableKind(String imgKey) {
-			imageKey = imgKey;
-		}
-	}
-	
 	/**
 	 * Base class for errors encountered during parsing.
 	 */
@@ -160,136 +127,259 @@ public class MJFileModel implements ITreeContentProvider
 	 */
 	public static class SemanticError extends ParserError
 	{
-		public SemanticError(int line, int col, String message, ParseTree parseTreeNode) {
-			super(line, col, message, parseTreeNode);
+		public SemanticError(int line, int col, String message, MJNode node) {
+			super(line, col, message, node);
 		}
 		
-		public ParseTree getParseTreeNode() {
-			return (ParseTree)offendingSymbol;
+		public MJNode getNode() {
+			return (MJNode)offendingSymbol;
 		}
 	}
 	
 	/**
-	 * Adds reported syntax errors to {@code mSyntaxErrors}.
+	 * Adds reported syntax errors to a list.
 	 */
-	private class ParserErrorListener extends BaseErrorListener
+	private static class ParserErrorListener extends BaseErrorListener
 	{
-		public ParserErrorListener() {
-			
+		private final List<ParserError> mTarget;
+		
+		public ParserErrorListener(List<ParserError> target) {
+			mTarget = target;
 		}
 		
 		@Override
 		public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
 				String msg, RecognitionException e) {
-			mErrors.add(new SyntaxError(line, charPositionInLine, msg, (Token)offendingSymbol));
+			mTarget.add(new SyntaxError(line, charPositionInLine, msg, (Token)offendingSymbol));
 		}
 	}
 	
 	/**
-	 * A {@link MicroJavaListener} that builds a symbol table when the program is parsed.
+	 * Aborts parsing with an {@link OperationCanceledException} as soon as a rule is entered after the
+	 * progress monitor has been canceled.
 	 */
-	protected class SymbolTableBuilder extends MicroJavaBaseListener
+	private static class CancelListener implements ParseTreeListener
 	{
-		final ParseTreeProperty<Scope> mScopes = new ParseTreeProperty<>();
-		final Map<Symbol, ParseTree> mDeclarations = new IdentityHashMap<>();
-		final Scope mGlobalScope;
-		Scope mCurrentScope;
+		private final IProgressMonitor mMonitor;
 		
-		public SymbolTableBuilder(SymbolTable tab) {
-			mGlobalScope = tab.getUniverse();
-			mCurrentScope = mGlobalScope;
-			tab.setScopes(mScopes);
-			tab.setDeclarations(mDeclarations);
+		public CancelListener(IProgressMonitor monitor) {
+			mMonitor = monitor;
 		}
 		
-		private VariableSymbol defineVar(MicroJavaParser.TypeContext ctx, Token ident) {
-			Type type = mCurrentScope.resolveType(ctx.Ident().getText());
-			VariableSymbol var = new VariableSymbol(ident.getText(), type);
-			mCurrentScope.define(var);
-			return var;
+		@Override
+		public void enterEveryRule(ParserRuleContext ctx) {
+			if(mMonitor.isCanceled()) {
+				throw new OperationCanceledException();
+			}
 		}
 		
 		@Override
-		public void enterClassDecl(ClassDeclContext ctx) {
-			String name = ctx.Ident().getText();
-			ClassSymbol scope = new ClassSymbol(name, mCurrentScope);
-			mDeclarations.put(scope, ctx);
-			mScopes.put(ctx, scope);
-			mCurrentScope.define(scope);
-			mCurrentScope = scope;
+		public void exitEveryRule(ParserRuleContext ctx) {
+			
 		}
 		
 		@Override
-		public void exitClassDecl(ClassDeclContext ctx) {
-			mCurrentScope = mCurrentScope.getParent();
+		public void visitTerminal(TerminalNode node) {
+			
 		}
 		
 		@Override
-		public void enterMethodDecl(MethodDeclContext ctx) {
-			String name = ctx.Ident().getText();
-			Type type = null;
-			if(ctx.type() != null) {
-				type = mCurrentScope.resolveType(ctx.type().Ident().getText());
-			} else if(ctx.getToken(MicroJavaParser.VOID, 0) != null) {
-				type = mCurrentScope.resolveType("void");
+		public void visitErrorNode(ErrorNode node) {
+			
+		}
+	}
+	
+	/**
+	 * Builds a symbol table from the declarations of a program.
+	 * <p>
+	 * The containers of the program are visited in pre-order, so every declaration is visited after its parent
+	 * and after all declarations before it. The scopes and symbols are stored by node id.
+	 */
+	protected class SymbolTableBuilder
+	{
+		final MJContainerIndex mNodes;
+		final Scope[] mScopes;
+		final Symbol[] mSymbols;
+		final Scope mGlobalScope;
+		
+		/**
+		 * Create a symbol table builder that adds symbols to the specified table.
+		 * 
+		 * @param tab The symbol table
+		 * @param nodes The container index of the program, defines the node ids
+		 */
+		public SymbolTableBuilder(SymbolTable tab, MJContainerIndex nodes) {
+			mNodes = nodes;
+			mGlobalScope = tab.getUniverse();
+			if(tab.getScopes() == null) {
+				tab.setScopes(new Scope[nodes.size()]);
 			}
-			MethodSymbol scope = new MethodSymbol(name, type, mCurrentScope);
-			mDeclarations.put(scope, ctx);
-			mScopes.put(ctx, scope);
-			mCurrentScope = scope;
+			if(tab.getSymbols() == null) {
+				tab.setSymbols(new Symbol[nodes.size()]);
+			}
+			mScopes = tab.getScopes();
+			mSymbols = tab.getSymbols();
 		}
 		
-		@Override
-		public void exitMethodDecl(MethodDeclContext ctx) {
-			mCurrentScope = mCurrentScope.getParent();
+		/**
+		 * Add the symbols for all declarations of the program.
+		 */
+		public void visit() {
+			for(int id = 0; id < mNodes.size(); id++) {
+				final MJNode node = mNodes.getNode(id);
+				final int parent = mNodes.getParent(id);
+				final Scope scope = (parent >= 0 ? mScopes[parent] : null);
+				if(node instanceof MJProgram) {
+					mScopes[id] = mGlobalScope;
+				} else if(node instanceof MJClassDecl) {
+					visitClass(id, (MJClassDecl)node, scope);
+				} else if(node instanceof MJMethodDecl) {
+					visitMethod(id, (MJMethodDecl)node, scope);
+				} else if(node instanceof MJVarDecl) {
+					defineVar(id, (MJVarDecl)node, scope);
+				} else if(node instanceof MJConstDecl) {
+					defineConst(id, (MJConstDecl)node, scope);
+				}
+			}
 		}
 		
-		@Override
-		public void exitParam(ParamContext ctx) {
-			Symbol param = defineVar(ctx.type(), ctx.Ident().getSymbol());
-			mDeclarations.put(param, ctx.getParent());
+		private Type resolveType(MJType type, Scope scope) {
+			return (type != null ? scope.resolveType(type.getName()) : null);
+		}
+		
+		private void declare(int id, Symbol sym) {
+			mSymbols[id] = sym;
+			sym.setDeclaration(id);
+		}
+		
+		private void defineVar(int id, MJVarDecl decl, Scope scope) {
+			VariableSymbol var = new VariableSymbol(decl.getName(), resolveType(decl.getType(), scope));
+			scope.define(var);
+			declare(id, var);
+		}
+		
+		private void defineConst(int id, MJConstDecl decl, Scope scope) {
+			ConstantSymbol cons = new ConstantSymbol(decl.getName(), resolveType(decl.getType(), scope),
+					decl.getValue());
+			declare(id, cons);
+			scope.define(cons);
+		}
+		
+		private void visitClass(int id, MJClassDecl decl, Scope scope) {
+			ClassSymbol sym = new ClassSymbol(decl.getName(), scope);
+			declare(id, sym);
+			mScopes[id] = sym;
+			scope.define(sym);
+		}
+		
+		private void visitMethod(int id, MJMethodDecl decl, Scope scope) {
+			MethodSymbol sym = new MethodSymbol(decl.getName(), resolveType(decl.getReturnType(), scope), scope);
+			declare(id, sym);
+			mScopes[id] = sym;
+			scope.define(sym);
+		}
+	}
+	
+	/**
+	 * Records the region of the document that was changed since the last parse.
+	 * <p>
+	 * The damaged region is kept in the coordinates of the current document, the total change in length is
+	 * kept as well so the region can be mapped back onto the tokens of the last parse.
+	 */
+	private class DamageTracker implements IDocumentListener
+	{
+		public DamageTracker() {
+			
 		}
 		
 		@Override
-		public void exitVarDecl(VarDeclContext ctx) {
-			for(TerminalNode ident : ctx.Ident()) {
-				Symbol var = defineVar(ctx.type(), ident.getSymbol());
-				mDeclarations.put(var, ctx);
+		public void documentAboutToBeChanged(DocumentEvent event) {
+			synchronized(MJFileModel.this) {
+				mPendingChanges++;
 			}
 		}
 		
 		@Override
-		public void exitConstDecl(ConstDeclContext ctx) {
-			String name = ctx.Ident().getText();
-			Type type = null;
-			if(ctx.type() != null && ctx.type().Ident() != null) {
-				type = mCurrentScope.resolveType(ctx.type().Ident().getText());
+		public void documentChanged(DocumentEvent event) {
+			synchronized(MJFileModel.this) {
+				mPendingChanges--;
+				mChangeCount++;
+				
+				final int offset = event.getOffset();
+				final int removed = event.getLength();
+				final int inserted = (event.getText() != null ? event.getText().length() : 0);
+				if(mDamageEnd < 0) {
+					mDamageStart = offset;
+					mDamageEnd = offset + inserted;
+				} else {
+					if(mDamageEnd > offset) {
+						mDamageEnd = Math.max(offset + inserted, mDamageEnd + inserted - removed);
+					}
+					mDamageStart = Math.min(mDamageStart, offset);
+					mDamageEnd = Math.max(mDamageEnd, offset + inserted);
+				}
+				mDamageDelta += inserted - removed;
 			}
-			Object value = ctx.literal().getText();
-			ConstantSymbol cons = new ConstantSymbol(name, type, value);
-			mDeclarations.put(cons, ctx);
-			mCurrentScope.define(cons);
 		}
 	}
 	
 	public static final String ELEMENTS = "__microjava_elements";
 	
-	final List<ParserError> mErrors = new LinkedList<>();
+	/** The annotation type used for errors while typing. */
+	private static final String ERROR_ANNOTATION_TYPE = "org.eclipse.ui.workbench.texteditor.error";
+	
+	/**
+	 * The attributes set on problem markers, the position attributes are {@code null} if the exact position
+	 * of an error is not available.
+	 */
+	private static final String[] MARKER_ATTRIBUTES = { IMarker.LINE_NUMBER, IMarker.MESSAGE, IMarker.SEVERITY,
+			IMarker.CHAR_START, IMarker.CHAR_END };
+	
 	private final IPositionUpdater mPositionUpdater;
+	private final IDocumentListener mDamageTracker;
 	private final IDocumentProvider mDocumentProvider;
 	
-	/** The parser used to parse the current document, kept even on error. */
-	private MicroJavaParser mParser = null;
-	/** The context on successful parse, {@code null} otherwise. */
-	private ProgContext mRoot = null;
-	/** The list of tokens for position search on successful parse, {@code null} otherwise. */
-	private TerminalNode[] mTokens;
-	/** The symbol table constructed when walking the parse tree. */
+	/** The syntax and semantic errors encountered during the last parse. */
+	private List<ParserError> mErrors = new LinkedList<>();
+	/** The AST of the program on successful parse, {@code null} otherwise. */
+	private MJProgram mRoot = null;
+	/** The index of tokens for position search on successful parse, {@code null} otherwise. */
+	private MJTokenIndex mTokens;
+	/** The bracket pairs of the last parse, {@code null} if nothing was parsed. */
+	private MJBracketIndex mBrackets;
+	/** The index of container regions for the highlight range on successful parse, {@code null} otherwise. */
+	private MJContainerIndex mContainers;
+	/** The symbol table constructed from the AST. */
 	private SymbolTable mSymbolTable;
+	/** All symbols of {@link #mSymbolTable} and its universe by name, for completion. */
+	private MJPrefixTrie<Symbol> mSymbolTrie;
+	/** The resolved identifier references on successful parse, {@code null} otherwise. */
+	private MJReferenceIndex mReferences;
+	/** The prediction mode that was used for the last parse, {@code null} if nothing was parsed. */
+	private PredictionMode mParseMode = null;
+	/** The time the last parse took, in nanoseconds. */
+	private long mParseTime;
 	/** The current document. */
 	private IDocument mDocument = null;
+	/** The tokens of the current document, updated on every change. */
+	private MJTokenCache mTokenCache = null;
 	/** The resource for the current input. */
 	private IResource mInputResource = null;
+	/** The annotations created for the errors of the last parse, only accessed on the UI thread. */
+	private Annotation[] mAnnotations = new Annotation[0];
+	
+	/** Start of the region changed since the last parse, in current document coordinates. */
+	private int mDamageStart;
+	/** End (exclusive) of the region changed since the last parse, {@code -1} if nothing changed. */
+	private int mDamageEnd = -1;
+	/** The change in document length since the last parse. */
+	private int mDamageDelta;
+	/** Whether the whole document needs to be parsed again. */
+	private boolean mDamageFull = true;
+	/** The number of document changes that have been announced but not performed yet. */
+	private int mPendingChanges;
+	/** The number of document changes, used to detect changes made while parsing. */
+	private int mChangeCount;
 	
 	/**
 	 * Initialize a new model with the specified content provider.
@@ -298,487 +388,753 @@ public class MJFileModel implements ITreeContentProvider
 	 */
 	public MJFileModel(IDocumentProvider documentProvider) {
 		mPositionUpdater = new DefaultPositionUpdater(ELEMENTS);
+		mDamageTracker = new DamageTracker();
 		mDocumentProvider = documentProvider;
 	}
 	
 	/**
-	 * Parse the specified document and set {@link #mRoot} and {@link #mParser}.
+	 * Parse the specified document and replace the current parse result with the new one.
+	 * <p>
+	 * This method is called by the reconciler and does not need to run on the UI thread. The AST, token
+	 * index, symbol table and error list are only replaced once parsing has finished, so readers see either the
+	 * old or the new result, never a mix of both.
+	 * <p>
+	 * If the document was only changed inside the body of a single method or class declaration, only that
+	 * declaration is re-parsed and replaced in the existing AST, see
+	 * {@link #reparseDeclaration(MJTokenCache, int, int, int, int)}.
+	 * 
+	 * @param doc The document to parse, should be the current document of this model
+	 * @param monitor The progress monitor used to cancel a stale parse, may be {@code null}
+	 * @return {@code true} if the model was updated, {@code false} if parsing was canceled, nothing changed
+	 *         or the document is not the current document of this model
+	 */
+	public boolean reconcile(IDocument doc, IProgressMonitor monitor) {
+		if(doc == null || doc != mDocument) {
+			return false;
+		}
+		
+		final int damageStart, damageEnd, damageDelta, changeCount;
+		final boolean damageFull;
+		final MJTokenCache cache;
+		synchronized(this) {
+			if(mPendingChanges > 0) {
+				// Document is being modified, the reconciler will run again afterwards
+				return false;
+			}
+			damageStart = mDamageStart;
+			damageEnd = mDamageEnd;
+			damageDelta = mDamageDelta;
+			damageFull = mDamageFull;
+			changeCount = mChangeCount;
+			cache = mTokenCache;
+		}
+		if(cache == null || (!damageFull && damageEnd < 0)) {
+			// Nothing changed since the last parse
+			return false;
+		}
+		
+		try {
+			if(!damageFull && reparseDeclaration(cache, damageStart, damageEnd, damageDelta, changeCount)) {
+				return true;
+			}
+			return parse(doc, cache, monitor, changeCount);
+		} catch(OperationCanceledException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Reset the damaged region after a parse of the document with the specified change count.
+	 * <p>
+	 * If the document was changed in the meantime, the next parse needs to be a full one. This includes changes
+	 * that are still pending, because the token cache is updated before the model is notified.
+	 */
+	private void resetDamage(int changeCount) {
+		assert Thread.holdsLock(this);
+		mDamageEnd = -1;
+		mDamageDelta = 0;
+		mDamageFull = (changeCount != mChangeCount || mPendingChanges > 0);
+	}
+	
+	/**
+	 * Parse the specified document and set {@link #mRoot} to the AST of the program.
 	 * <p>
-	 * This method also populates the token list ({@link #mTokens} for token position search), adds markers
-	 * for encountered syntax and semantic errors (which are added to {@link #mErrors}) and builds a symbol
-	 * table.
+	 * The parse tree is lowered to the AST right after parsing, then the parser is returned to the pool and the
+	 * parse tree is dropped. This method also populates the token index ({@link #mTokens} for token position
+	 * search), collects encountered syntax and semantic errors (in {@link #mErrors}) and builds a symbol table and
+	 * the container index. The document is not lexed again, the tokens are taken from the {@link MJTokenCache},
+	 * they are also used for the bracket pairs.
+	 * 
+	 * @return {@code true} if the model was updated, {@code false} if parsing was canceled
+	 * @throws OperationCanceledException If parsing was canceled using the progress monitor
 	 */
-	private void parse(IDocument doc) {
+	private boolean parse(IDocument doc, MJTokenCache cache, IProgressMonitor monitor, int changeCount) {
+		final List<ParserError> errors = new LinkedList<>();
+		MicroJavaParser parser = null;
+		MJProgram root = null;
+		MJTokenIndex tokens = null;
+		MJBracketIndex brackets = null;
+		SymbolTable symbolTable = null;
+		MJPrefixTrie<Symbol> symbolTrie = null;
+		MJContainerIndex containers = null;
+		MJReferenceIndex references = null;
+		
+		PredictionMode parseMode = PredictionMode.SLL;
+		long parseTime = System.nanoTime();
 		try {
-			MicroJavaLexer lex = new MicroJavaLexer(new ANTLRInputStream(doc.get()));
-			CommonTokenStream tokens = new CommonTokenStream(lex);
-			mParser = new MicroJavaParser(tokens);
+			final List<Token> allTokens = cache.getTokens(0, Integer.MAX_VALUE);
+			brackets = MJBracketIndex.create(allTokens);
+			TokenSource source = new ListTokenSource(allTokens);
+			CommonTokenStream tokenStream = new CommonTokenStream(source);
+			parser = MJParserPool.acquireParser(tokenStream);
 			// We don't want syntax errors printed to the console, so remove the default ConsoleErrorListener
-			mParser.removeErrorListeners();
-			mParser.addErrorListener(new ParserErrorListener());
+			parser.removeErrorListeners();
+			if(monitor != null) {
+				parser.addParseListener(new CancelListener(monitor));
+			}
+			// Collect token positions for position search while parsing
+			MJTokenIndex.Builder indexBuilder = new MJTokenIndex.Builder();
+			parser.addParseListener(indexBuilder);
+			MJReferenceIndex.Builder referenceBuilder = new MJReferenceIndex.Builder();
+			parser.addParseListener(referenceBuilder);
 			
-			// Parse!
-			mRoot = mParser.prog();
+			// Parse! Try the faster SLL prediction first, it is sufficient for almost all programs
+			parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+			parser.setErrorHandler(new BailErrorStrategy());
+			ProgContext prog;
+			try {
+				prog = parser.prog();
+			} catch(ParseCancellationException ex) {
+				// Either a syntax error or SLL is too weak, parse again with full LL to get correct error messages
+				parseMode = PredictionMode.LL;
+				parser.reset();
+				indexBuilder.reset();
+				referenceBuilder.reset();
+				parser.addErrorListener(new ParserErrorListener(errors));
+				parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+				parser.setErrorHandler(new DefaultErrorStrategy());
+				prog = parser.prog();
+			}
+			parseTime = System.nanoTime() - parseTime;
 			
-			// Collect terminal nodes for position search
-			List<TerminalNode> tmp = collectTerminalNodes(mRoot);
-			if(tmp.size() > 1) {
+			tokens = indexBuilder.build();
+			references = referenceBuilder.build();
+			if(tokens.size() >= 2) {
 				// We need two tokens for position search, a program with one token makes no sense anyway
-				mTokens = tmp.toArray(new TerminalNode[0]);
-			} else {
-				mRoot = null;
-				mTokens = null;
+				root = MJAstBuilder.build(prog);
 			}
-			
-			System.out.println("parse finished");
 		} catch(RecognitionException ex) {
 			System.out.println("parse failed:");
 			ex.printStackTrace();
-			mRoot = null;
-			mTokens = null;
+			root = null;
+		} finally {
+			// Only the AST is kept, the parse tree is not referenced anymore
+			MJParserPool.releaseParser(parser);
 		}
 		
-		if(mRoot != null) {
-			mSymbolTable = new SymbolTable();
-			ParseTreeWalker.DEFAULT.walk(new SymbolTableBuilder(mSymbolTable), mRoot);
-			
-			try {
-				final int docLength = mDocument.getLength();
-				for(ParserError err : mErrors) {
-					int errLength;
-					if(err instanceof SyntaxError) {
-						errLength = ((SyntaxError)err).getToken().getText().length();
-					} else if(err instanceof SemanticError) {
-						errLength = ((SemanticError)err).getParseTreeNode().getText().length();
-					} else {
-						errLength = err.offendingSymbol.toString().length();
-					}
-					
-					IMarker m = mInputResource.createMarker(IMarker.PROBLEM);
-					m.setAttribute(IMarker.LINE_NUMBER, err.line);
-					m.setAttribute(IMarker.MESSAGE, err.message);
-					m.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_ERROR);
-					try {
-						int offset = mDocument.getLineOffset(err.line - 1);
-						if(offset + err.col < docLength) {
-							m.setAttribute(IMarker.CHAR_START, offset + err.col);
-							m.setAttribute(IMarker.CHAR_END, offset + err.col + errLength);
-						} else {
-							m.setAttribute(IMarker.CHAR_START, docLength - 1);
-							m.setAttribute(IMarker.CHAR_END, docLength);
-						}
-					} catch(BadLocationException ex) {
-						// Ignore, no exact position available
-					}
-				}
-			} catch(CoreException ex) {
-				System.err.println("Failed to create problem marker:");
-				ex.printStackTrace();
+		if(root != null) {
+			containers = new MJContainerIndex(root);
+			symbolTable = new SymbolTable();
+			new SymbolTableBuilder(symbolTable, containers).visit();
+			references.resolve(symbolTable, containers);
+			symbolTrie = createSymbolTrie(symbolTable);
+		} else {
+			references = null;
+		}
+		
+		if(monitor != null && monitor.isCanceled()) {
+			return false;
+		}
+		
+		synchronized(this) {
+			if(doc != mDocument) {
+				// Input changed while parsing
+				return false;
 			}
+			mRoot = root;
+			mTokens = tokens;
+			mBrackets = brackets;
+			mContainers = containers;
+			mSymbolTable = symbolTable;
+			mSymbolTrie = symbolTrie;
+			mReferences = references;
+			mErrors = errors;
+			mParseMode = parseMode;
+			mParseTime = parseTime;
+			resetDamage(changeCount);
 		}
+		return true;
 	}
 	
-	@Override
-	public void dispose() {
-		clear();
-	}
-
-	private void clear() {
-		mRoot = null;
-		mParser = null;
-		mDocument = null;
-		mTokens = null;
-		mSymbolTable = null;
-		mErrors.clear();
-	}
-	
-	@Override
-	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
-		if(oldInput != null) {
-			if(mDocument != null) {
-				try {
-					mDocument.removePositionCategory(ELEMENTS);
-				} catch(BadPositionCategoryException ex) {
-					
-				}
-				mDocument.removePositionUpdater(mPositionUpdater);
+	/**
+	 * Re-parse only the method or class declaration that encloses the damaged region and replace it in the
+	 * existing AST.
+	 * <p>
+	 * This is only possible if the last parse was free of errors and the damaged region lies completely inside
+	 * the braces of a single top-level method or class declaration. The tokens of the declaration are taken
+	 * from the token cache and parsed on their own, starting at the {@code methodDecl} or {@code classDecl}
+	 * rule. If the new declaration has errors or does not end exactly at the closing brace, the top-level
+	 * structure may have changed and a full parse is needed instead. Otherwise the declarations after the
+	 * re-parsed one are shifted.
+	 * <p>
+	 * The block of a method does not declare anything, so after a change inside of it the node ids and the
+	 * symbol table stay the same. The references outside of the method keep their symbols and only the new
+	 * references are resolved. The body of a class declares its fields, which may be referenced anywhere in the
+	 * program, so after a change inside a class the symbol table is built again and all references are
+	 * resolved again.
+	 * 
+	 * @param cache The token cache of the document
+	 * @param damageStart Start of the damaged region
+	 * @param damageEnd End (exclusive) of the damaged region in the current document
+	 * @param delta The change in document length since the last parse
+	 * @param changeCount The change count the damage was recorded for
+	 * @return {@code true} if the declaration was re-parsed, {@code false} if a full parse is needed
+	 */
+	private boolean reparseDeclaration(MJTokenCache cache, int damageStart, int damageEnd, int delta, int changeCount) {
+		final MJProgram root;
+		final MJTokenIndex tokens;
+		final MJBracketIndex brackets;
+		final MJReferenceIndex references;
+		final MJContainerIndex oldContainers;
+		final SymbolTable oldSymbolTable;
+		final MJPrefixTrie<Symbol> oldSymbolTrie;
+		synchronized(this) {
+			if(mRoot == null || !mErrors.isEmpty() || mSymbolTable == null || mBrackets == null ||
+					mReferences == null) {
+				return false;
 			}
-			if(mInputResource != null) {
-				try {
-					mInputResource.deleteMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE);
-				} catch(CoreException ex) {
-					
-				}
+			root = mRoot;
+			tokens = mTokens;
+			brackets = mBrackets;
+			references = mReferences;
+			oldContainers = mContainers;
+			oldSymbolTable = mSymbolTable;
+			oldSymbolTrie = mSymbolTrie;
+		}
+		
+		// Find the top-level declaration containing the damaged region
+		final int oldDamageEnd = damageEnd - delta;
+		final int childIdx = root.findDeclaration(damageStart);
+		if(childIdx < 0 || !(root.getDeclaration(childIdx) instanceof MJScopeDecl)) {
+			return false;
+		}
+		final MJScopeDecl decl = (MJScopeDecl)root.getDeclaration(childIdx);
+		final int open = decl.getBodyStart();
+		final int close = decl.getBodyEnd();
+		if(open < 0 || close < 0 || damageStart <= open || oldDamageEnd > close) {
+			return false;
+		}
+		
+		// Parse just the declaration
+		final int start = decl.getStart();
+		final int end = close + 1 + delta;
+		final List<Token> declTokens = cache.getTokens(start, end);
+		synchronized(this) {
+			if(mChangeCount != changeCount || mPendingChanges > 0) {
+				return false;
 			}
 		}
 		
-		clear();
+		// Only the fast SLL stage is used, on failure the full parse tries again with full LL
+		long parseTime = System.nanoTime();
+		MicroJavaParser parser = MJParserPool.acquireParser(new CommonTokenStream(new ListTokenSource(declTokens)));
+		parser.removeErrorListeners();
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		parser.setErrorHandler(new BailErrorStrategy());
+		MJTokenIndex.Builder indexBuilder = new MJTokenIndex.Builder();
+		parser.addParseListener(indexBuilder);
+		MJReferenceIndex.Builder referenceBuilder = new MJReferenceIndex.Builder();
+		parser.addParseListener(referenceBuilder);
 		
-		if(newInput != null) {
-			mDocument = mDocumentProvider.getDocument(newInput);
-			if(mDocument != null) {
-				mDocument.addPositionCategory(ELEMENTS);
-				mDocument.addPositionUpdater(mPositionUpdater);
-				parse(mDocument);
+		final MJScopeDecl newDecl;
+		try {
+			final ParserRuleContext ctx = (decl instanceof MJMethodDecl ? parser.methodDecl() : parser.classDecl());
+			if(parser.getCurrentToken().getType() != Token.EOF || ctx.getStop() == null ||
+					ctx.getStop().getType() != MicroJavaParser.RBRACE) {
+				// Structure changed, e.g. by adding or removing a brace
+				return false;
+			}
+			newDecl = (ctx instanceof MethodDeclContext ? MJAstBuilder.build((MethodDeclContext)ctx) :
+					MJAstBuilder.build((ClassDeclContext)ctx));
+		} catch(ParseCancellationException ex) {
+			return false;
+		} finally {
+			MJParserPool.releaseParser(parser);
+		}
+		parseTime = System.nanoTime() - parseTime;
+		
+		// Replace the tokens of the old declaration
+		final int firstIdx = tokens.indexOf(start);
+		final int lastIdx = tokens.indexOf(close);
+		if(newDecl == null || firstIdx < 0 || lastIdx < 0) {
+			return false;
+		}
+		final MJTokenIndex merged = tokens.splice(firstIdx, lastIdx, indexBuilder.build(), delta);
+		final MJBracketIndex mergedBrackets = brackets.splice(start, close, MJBracketIndex.create(declTokens), delta);
+		final MJProgram newRoot = root.replace(childIdx, newDecl, delta);
+		final MJContainerIndex containers = new MJContainerIndex(newRoot);
+		final SymbolTable symbolTable;
+		final MJPrefixTrie<Symbol> symbolTrie;
+		final MJReferenceIndex mergedReferences;
+		if(newDecl instanceof MJMethodDecl && containers.size() == oldContainers.size()) {
+			// Only the method block changed, so the symbols of the other references are still valid
+			symbolTable = oldSymbolTable;
+			symbolTrie = oldSymbolTrie;
+			mergedReferences = references.splice(start, close, referenceBuilder.build(), delta, symbolTable,
+					containers);
+		} else {
+			symbolTable = new SymbolTable();
+			new SymbolTableBuilder(symbolTable, containers).visit();
+			mergedReferences = references.splice(start, close, referenceBuilder.build(), delta);
+			mergedReferences.resolve(symbolTable, containers);
+			symbolTrie = createSymbolTrie(symbolTable);
+		}
+		
+		synchronized(this) {
+			if(root != mRoot || mChangeCount != changeCount) {
+				return false;
+			}
+			mRoot = newRoot;
+			mTokens = merged;
+			mBrackets = mergedBrackets;
+			mContainers = containers;
+			mSymbolTable = symbolTable;
+			mSymbolTrie = symbolTrie;
+			mReferences = mergedReferences;
+			mParseMode = PredictionMode.SLL;
+			mParseTime = parseTime;
+			resetDamage(changeCount);
+		}
+		return true;
+	}
+	
+	/**
+	 * Create a trie of the symbols of a symbol table and its universe, see {@link #getSymbolTrie()}.
+	 */
+	private static MJPrefixTrie<Symbol> createSymbolTrie(SymbolTable tab) {
+		final MJPrefixTrie<Symbol> ret = new MJPrefixTrie<>();
+		for(Symbol sym : tab.getUniverse().getSymbols()) {
+			ret.add(sym.getName(), sym);
+		}
+		for(Symbol sym : tab.getSymbols()) {
+			if(sym != null) {
+				ret.add(sym.getName(), sym);
 			}
-			mInputResource = ResourceUtil.getResource((IEditorInput)newInput);
 		}
+		return ret;
 	}
 	
-	@Override
-	public Object[] getElements(Object input) {
-		if(mRoot == null) {
-			return new Object[] { "Parser error." };
+	/**
+	 * Get the document region of an error.
+	 * 
+	 * @param err The error
+	 * @param doc The document that was parsed
+	 * @return The region, or {@code null} if no exact position is available
+	 */
+	private static SourceRegion getErrorRegion(ParserError err, IDocument doc) {
+		int errLength;
+		if(err instanceof SyntaxError) {
+			errLength = ((SyntaxError)err).getToken().getText().length();
+		} else if(err instanceof SemanticError) {
+			errLength = ((SemanticError)err).getNode().getLength();
+		} else {
+			errLength = err.offendingSymbol.toString().length();
 		}
 		
-		List<Object> elems = new ArrayList<>();
-		elems.add(mRoot);
-		elems.addAll(mRoot.classDecl());
-		elems.addAll(mRoot.constDecl());
-		addVarDecls(elems, mRoot.varDecl());
-		elems.addAll(mRoot.methodDecl());
-		return elems.toArray();
+		try {
+			final int docLength = doc.getLength();
+			final int offset = doc.getLineOffset(err.line - 1);
+			if(offset + err.col < docLength) {
+				return new SourceRegion(offset + err.col, errLength);
+			} else {
+				return new SourceRegion(Math.max(docLength - 1, 0), Math.min(docLength, 1));
+			}
+		} catch(BadLocationException ex) {
+			// Ignore, no exact position available
+			return null;
+		}
 	}
 	
-	@Override
-	public Object[] getChildren(Object parent) {
-		List<Object> elems = new ArrayList<>();
-		if(parent instanceof ClassDeclContext) {
-			ClassDeclContext clazz = (ClassDeclContext)parent;
-			addVarDecls(elems, clazz.varDecl());
-			
-		} else if(parent instanceof MethodDeclContext) {
-			MethodDeclContext method = (MethodDeclContext)parent;
-			addVarDecls(elems, method.varDecl());
-			
+	/**
+	 * Show the errors of the last parse as annotations in the specified annotation model.
+	 * <p>
+	 * This is done after every reconcile and does not touch the workspace, the annotations of the last call are
+	 * replaced in a single batch. Problem markers of the input resource are out of date while the document is
+	 * changed, so their annotations are hidden until the markers are updated again.
+	 * 
+	 * @param model The annotation model of the editor, may be {@code null}
+	 */
+	public void updateAnnotations(IAnnotationModel model) {
+		final IDocument doc;
+		final List<ParserError> errors;
+		synchronized(this) {
+			if(mRoot == null || model == null) {
+				return;
+			}
+			doc = mDocument;
+			errors = mErrors;
 		}
-		return elems.toArray();
+		
+		Map<Annotation, Position> added = new HashMap<>();
+		for(ParserError err : errors) {
+			final SourceRegion region = getErrorRegion(err, doc);
+			if(region != null) {
+				added.put(new Annotation(ERROR_ANNOTATION_TYPE, false, err.message),
+						new Position(region.getOffset(), region.getLength()));
+			}
+		}
+		setMarkerAnnotationsDeleted(model, true);
+		replaceAnnotations(model, added);
 	}
 	
 	/**
-	 * Add {@link VarDeclWrapper}s for the specified {@link VarDeclContext}s to the list.
+	 * Remove the annotations created by {@link #updateAnnotations(IAnnotationModel)} and show the annotations
+	 * of problem markers again, e.g. after the markers have been updated on save.
 	 * 
-	 * @param target The list to add wrappers to
-	 * @param varDecls The variable declarations
+	 * @param model The annotation model of the editor, may be {@code null}
 	 */
-	private static void addVarDecls(List<Object> target, List<VarDeclContext> varDecls) {
-		for(VarDeclContext decl : varDecls) {
-			int num = decl.Ident().size();
-			for(int j = 0; j < num; j++) {
-				target.add(new VarDeclWrapper(decl, j));
+	public void clearAnnotations(IAnnotationModel model) {
+		if(model != null) {
+			setMarkerAnnotationsDeleted(model, false);
+			replaceAnnotations(model, Collections.<Annotation, Position>emptyMap());
+		}
+	}
+	
+	private void replaceAnnotations(IAnnotationModel model, Map<Annotation, Position> added) {
+		if(model instanceof IAnnotationModelExtension) {
+			((IAnnotationModelExtension)model).replaceAnnotations(mAnnotations, added);
+		} else {
+			for(Annotation a : mAnnotations) {
+				model.removeAnnotation(a);
+			}
+			for(Map.Entry<Annotation, Position> e : added.entrySet()) {
+				model.addAnnotation(e.getKey(), e.getValue());
 			}
 		}
+		mAnnotations = added.keySet().toArray(new Annotation[added.size()]);
 	}
 	
-	@Override
-	public Object getParent(Object element) {
-		if(element instanceof Tree) {
-			return ((Tree)element).getParent();
+	/**
+	 * Mark the annotations of problem markers as deleted, so they are not shown, or show them again.
+	 */
+	private static void setMarkerAnnotationsDeleted(IAnnotationModel model, boolean deleted) {
+		Iterator<?> it = model.getAnnotationIterator();
+		while(it.hasNext()) {
+			Object a = it.next();
+			if(a instanceof MarkerAnnotation) {
+				IMarker marker = ((MarkerAnnotation)a).getMarker();
+				if(MarkerUtilities.isMarkerType(marker, IMarker.PROBLEM)) {
+					((MarkerAnnotation)a).markDeleted(deleted);
+				}
+			}
 		}
-		return null;
 	}
 	
-	@Override
-	public boolean hasChildren(Object element) {
-		if(element instanceof ClassDeclContext) {
-			return !((ClassDeclContext)element).varDecl().isEmpty();
-			
-		} else if(element instanceof MethodDeclContext) {
-			return !((MethodDeclContext)element).varDecl().isEmpty();
+	/**
+	 * Replace the problem markers of the input resource with markers for the errors of the last parse. This is
+	 * done when the document is saved, see {@link #updateAnnotations(IAnnotationModel)} for feedback while
+	 * typing.
+	 * <p>
+	 * Existing markers with the same attributes as an error are kept, all other markers are deleted and created
+	 * in a single workspace operation, so listeners only get one resource delta.
+	 */
+	public void updateMarkers() {
+		final IResource resource;
+		final IDocument doc;
+		final List<ParserError> errors;
+		synchronized(this) {
+			if(mRoot == null || mInputResource == null) {
+				return;
+			}
+			resource = mInputResource;
+			doc = mDocument;
+			errors = mErrors;
+		}
+		
+		final List<Object[]> attributes = new ArrayList<>(errors.size());
+		for(ParserError err : errors) {
+			final SourceRegion region = getErrorRegion(err, doc);
+			Object start = null;
+			Object end = null;
+			if(region != null) {
+				start = region.getOffset();
+				end = region.getOffset() + region.getLength();
+			}
+			attributes.add(new Object[] { err.line, err.message, IMarker.SEVERITY_ERROR, start, end });
+		}
+		
+		try {
+			// Keep markers that are still valid, create and delete the others in a single workspace operation
+			final Map<List<Object>, LinkedList<IMarker>> existing = new HashMap<>();
+			for(IMarker m : resource.findMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE)) {
+				final List<Object> key = Arrays.asList(m.getAttributes(MARKER_ATTRIBUTES));
+				LinkedList<IMarker> list = existing.get(key);
+				if(list == null) {
+					list = new LinkedList<>();
+					existing.put(key, list);
+				}
+				list.add(m);
+			}
+			final List<Object[]> added = new ArrayList<>();
+			for(Object[] values : attributes) {
+				final LinkedList<IMarker> list = existing.get(Arrays.asList(values));
+				if(list == null || list.poll() == null) {
+					added.add(values);
+				}
+			}
+			final List<IMarker> removed = new ArrayList<>();
+			for(LinkedList<IMarker> list : existing.values()) {
+				removed.addAll(list);
+			}
+			if(added.isEmpty() && removed.isEmpty()) {
+				return;
+			}
 			
+			final IWorkspace workspace = resource.getWorkspace();
+			workspace.run(new IWorkspaceRunnable() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					if(!removed.isEmpty()) {
+						workspace.deleteMarkers(removed.toArray(new IMarker[removed.size()]));
+					}
+					for(Object[] values : added) {
+						resource.createMarker(IMarker.PROBLEM).setAttributes(MARKER_ATTRIBUTES, values);
+					}
+				}
+			}, null, IWorkspace.AVOID_UPDATE, null);
+		} catch(CoreException ex) {
+			System.err.println("Failed to update problem markers:");
+			ex.printStackTrace();
 		}
-		return false;
+	}
+	
+	private synchronized void clear() {
+		mRoot = null;
+		mDocument = null;
+		mTokens = null;
+		mBrackets = null;
+		mContainers = null;
+		mTokenCache = null;
+		mSymbolTable = null;
+		mSymbolTrie = null;
+		mReferences = null;
+		mParseMode = null;
+		mParseTime = 0;
+		mErrors = new LinkedList<>();
+		mDamageEnd = -1;
+		mDamageDelta = 0;
+		mDamageFull = true;
+		mPendingChanges = 0;
 	}
 	
 	/**
-	 * Get the document provider for this model.
+	 * Set the input of this model, that is the editor input whose document should be modeled.
+	 * <p>
+	 * This only connects the model to the document of the input, parsing is done by the reconciler.
+	 * 
+	 * @param input The new input, or {@code null} to disconnect the model
 	 */
-	public IDocumentProvider getDocumentProvider() {
-		return mDocumentProvider;
+	public void setInput(Object input) {
+		if(mDocument != null) {
+			try {
+				mDocument.removePositionCategory(ELEMENTS);
+			} catch(BadPositionCategoryException ex) {
+				
+			}
+			mDocument.removePositionUpdater(mPositionUpdater);
+			mDocument.removeDocumentListener(mDamageTracker);
+		}
+		if(mTokenCache != null) {
+			mTokenCache.disconnect();
+		}
+		clear();
+		mInputResource = null;
+		mAnnotations = new Annotation[0];
+		
+		if(input != null) {
+			IDocument doc = mDocumentProvider.getDocument(input);
+			MJTokenCache cache = null;
+			if(doc != null) {
+				doc.addPositionCategory(ELEMENTS);
+				doc.addPositionUpdater(mPositionUpdater);
+				doc.addDocumentListener(mDamageTracker);
+				cache = new MJTokenCache(doc);
+				cache.connect();
+			}
+			synchronized(this) {
+				mDocument = doc;
+				mTokenCache = cache;
+			}
+			mInputResource = ResourceUtil.getResource((IEditorInput)input);
+		}
 	}
 	
 	/**
-	 * Get the parser for the current input.
+	 * Get the document provider for this model.
 	 */
-	public MicroJavaParser getParser() {
-		return mParser;
+	public IDocumentProvider getDocumentProvider() {
+		return mDocumentProvider;
 	}
 	
 	/**
-	 * Get the {@link RuleContext} for the program of this model.
+	 * Get the AST for the program of this model.
+	 * 
+	 * @return The program, or {@code null} if the document could not be parsed
 	 */
-	public ProgContext getRoot() {
+	public synchronized MJProgram getRoot() {
 		return mRoot;
 	}
 	
 	/**
 	 * Get the current document.
 	 */
-	public IDocument getDocument() {
+	public synchronized IDocument getDocument() {
 		return mDocument;
 	}
 	
 	/**
-	 * Get the list of syntax and semantic errors encountered during parsing.
+	 * Get the symbol table for the current program, or {@code null} if the program could not be parsed. Its
+	 * node ids refer to the {@link #getContainerIndex() container index}.
 	 */
-	public List<ParserError> getErrors() {
-		return mErrors;
+	public synchronized SymbolTable getSymbolTable() {
+		return mSymbolTable;
 	}
 	
 	/**
-	 * Get the tokens that are nearest to the specified offset:
-	 * <ul>
-	 * <li>If the offset is before the first or after the last token, the list contains the respective token.</li>
-	 * <li>If the offset is inside a single token, or at the boundary of a token not adjacent to another, the
-	 * list contains this token.</li>
-	 * <li>If the offset is between two adjacent tokens, the list contains both tokens.</li>
-	 * <li>Otherwise, the list contains the tokens immediately before and after the offset.</li>
-	 * </ul>
-	 * Note that the list may be empty if the parser was not able to parse the file successfully. This can be
-	 * determined by checking whether {@link #getRoot()} returns a non-{@code null} value.
-	 * 
-	 * @param offset The 0-based offset in the document
-	 * @return A list of {@link TerminalNode}s that are nearest to the offset (sorted by position)
-	 */
-	public List<TerminalNode> getTokensForOffset(final int offset) {
-		List<TerminalNode> ret = new ArrayList<>(2);
-		if(mRoot == null) {
-			return ret;
-		}
-		final int maxIdx = mTokens.length - 1;
-		
-		// Corner cases: offset is before first or after last token
-		if(offset < mTokens[0].getSymbol().getStartIndex()) {
-			ret.add(mTokens[0]);
-			return ret;
-		} else if(mTokens[maxIdx].getSymbol().getStopIndex() + 1 < offset) {
-			ret.add(mTokens[maxIdx]);
-			return ret;
-		}
-		
-		// Do a binary search (token positions are increasing)
-		int low = 0;
-		int high = maxIdx;
-		while(low <= high) {
-			final int mid = (low + high) >>> 1;
-			final TerminalNode t = mTokens[mid];
-			final int start = t.getSymbol().getStartIndex();
-			final int stop = t.getSymbol().getStopIndex();
-			
-			if(start > offset) {
-				high = mid - 1;
-				
-			} else if(stop + 1 < offset) {
-				low = mid + 1;
-				
-			} else if(start == offset) {
-				if(mid > 0 && mTokens[mid - 1].getSymbol().getStopIndex() + 1 == offset) {
-					// Adjacent tokens, add both
-					ret.add(mTokens[mid - 1]);
-				}
-				ret.add(t);
-				return ret;
-				
-			} else if(stop + 1 == offset) {
-				ret.add(t);
-				if(mid < maxIdx && mTokens[mid + 1].getSymbol().getStartIndex() == offset) {
-					// Adjacent tokens, add both
-					ret.add(mTokens[mid + 1]);
-				}
-				return ret;
-				
-			} else {
-				assert start < offset && stop >= offset;
-				ret.add(t);
-				return ret;
-			}
-		}
-		
-		// No tokens matched the offset exactly, return the nearest two
-		assert low > 0 && low < maxIdx;
-		assert mTokens[low].getSymbol().getStartIndex() > offset ||
-				mTokens[low].getSymbol().getStopIndex() + 1 < offset;
-		
-		if(mTokens[low].getSymbol().getStartIndex() > offset) {
-			ret.add(mTokens[low - 1]);
-			ret.add(mTokens[low]);
-		} else {
-			ret.add(mTokens[low]);
-			ret.add(mTokens[low - 1]);
-		}
-		
-		return ret;
+	 * Get a trie of all symbols of the {@link #getSymbolTable() symbol table} including the universe, or
+	 * {@code null} if the program could not be parsed. The trie is built on the reconciler thread together with
+	 * the symbol table and must not be modified.
+	 */
+	public synchronized MJPrefixTrie<Symbol> getSymbolTrie() {
+		return mSymbolTrie;
 	}
 	
 	/**
-	 * Get the source code range of the identifier for the specified object.
-	 * <p>
-	 * The object needs to be a {@link MethodDeclContext}, {@link ClassDeclContext}, {@link VarDeclWrapper},
-	 * {@link ClassDeclContext} or {@link ProgContext}.
-	 * 
-	 * @param sel The selected object
-	 * @return The identifier range, or {@code null}
+	 * Get the resolved identifier references of the current program, or {@code null} if the program could not
+	 * be parsed.
 	 */
-	public static SourceRegion getIdentRange(Object sel) {
-		TerminalNode ident = null;
-		if(sel instanceof MethodDeclContext) {
-			ident = ((MethodDeclContext)sel).Ident();
-			
-		} else if(sel instanceof ClassDeclContext) {
-			ident = ((ClassDeclContext)sel).Ident();
-			
-		} else if(sel instanceof VarDeclWrapper) {
-			ident = ((VarDeclWrapper)sel).getIdent();
-			
-		} else if(sel instanceof ConstDeclContext) {
-			ident = ((ConstDeclContext)sel).Ident();
-			
-		} else if(sel instanceof ProgContext) {
-			ident = ((ProgContext)sel).Ident();
-			
-		}
-		
-		if(ident != null && ident.getSymbol() != null) {
-			Token t = ident.getSymbol();
-			return new SourceRegion(t.getStartIndex(), t.getText().length());
-		}
-		return null;
+	public synchronized MJReferenceIndex getReferenceIndex() {
+		return mReferences;
 	}
 	
 	/**
-	 * Get the source code range of the selected element's parent.
-	 * <p>
-	 * A parent in this context is an element in the outline view like a class or method definition, variable
-	 * declaration or a program.
+	 * Get the index of container regions for the current program, or {@code null} if the program could not be
+	 * parsed.
+	 */
+	public synchronized MJContainerIndex getContainerIndex() {
+		return mContainers;
+	}
+	
+	/**
+	 * Get the bracket pairs of the last parse if the document was not changed since then, see
+	 * {@link #isCurrent()}.
 	 * 
-	 * @param sel The selected object
-	 * @return The parent range, or {@code null}
-	 * @see #getContainer(ParseTree)
+	 * @return The bracket index, or {@code null} if the document was changed or nothing was parsed yet
 	 */
-	public static SourceRegion getParentRange(Object sel) {
-		ParseTree parent = null;
-		if(sel instanceof ParseTree) {
-			parent = MJFileModel.getContainer((ParseTree)sel);
-		} else if(sel instanceof VarDeclWrapper) {
-			parent = MJFileModel.getContainer(((VarDeclWrapper)sel).getContext());
-		}
-		return getSourceRange(parent);
+	public synchronized MJBracketIndex getBracketIndex() {
+		return (isCurrent() ? mBrackets : null);
 	}
 	
 	/**
-	 * Get the source code range of the specified parse tree node.
+	 * Get the token cache for the current document.
+	 */
+	public synchronized MJTokenCache getTokenCache() {
+		return mTokenCache;
+	}
+	
+	/**
+	 * Determine whether the document was not changed since the last parse, so the positions of the current
+	 * program are positions in the current document.
+	 */
+	public synchronized boolean isCurrent() {
+		return (mPendingChanges == 0 && !mDamageFull && mDamageEnd < 0);
+	}
+	
+	/**
+	 * Map an offset in the current document to the corresponding offset in the document of the last parse.
+	 * Offsets inside the region that was changed since then are mapped to its start, offsets are not mapped
+	 * if the whole document needs to be parsed again.
 	 * 
-	 * @param node A node in the parse tree
-	 * @return The source code range, or {@code null}
+	 * @param offset The offset in the current document
+	 * @return The offset to use with the positions of the current program
 	 */
-	public static SourceRegion getSourceRange(ParseTree node) {
-		if(node != null) {
-			TerminalNode start = getLeftLeaf(node);
-			if(start == null) {
-				return null;
-			}
-			// If start is not null, stop won't be either
-			TerminalNode stop = getRightLeaf(node);
-			int startIndex = start.getSymbol().getStartIndex();
-			int stopIndex = stop.getSymbol().getStopIndex();
-			return new SourceRegion(startIndex, stopIndex - startIndex + 1);
+	public synchronized int getParsedOffset(int offset) {
+		if(mDamageFull || mDamageEnd < 0 || offset < mDamageStart) {
+			return offset;
+		} else if(offset >= mDamageEnd) {
+			return offset - mDamageDelta;
 		}
-		return null;
+		return mDamageStart;
 	}
 	
 	/**
-	 * Gets the leftmost terminal node in the specified tree.
+	 * Get the prediction mode that was used for the last parse.
+	 * <p>
+	 * Documents are parsed with {@link PredictionMode#SLL} first, only if that fails they are parsed again with
+	 * {@link PredictionMode#LL}, which is slower but reports correct syntax errors.
 	 * 
-	 * @param tree The tree to search
-	 * @return The leftmost terminal node, or {@code null} if there are none
-	 */
-	private static TerminalNode getLeftLeaf(ParseTree tree) {
-		Deque<ParseTree> stack = new LinkedList<>();
-		stack.addLast(tree);
-		while(!stack.isEmpty()) {
-			ParseTree next = stack.removeLast();
-			if(next instanceof TerminalNode) {
-				if(!(next instanceof ErrorNode)) {
-					return (TerminalNode)next;
-				}
-			}
-			
-			for(int j = next.getChildCount() - 1; j >= 0; j--) {
-				stack.addLast(next.getChild(j));
-			}
-		}
-		return null;
+	 * @return The prediction mode, or {@code null} if nothing was parsed yet
+	 */
+	public synchronized PredictionMode getParseMode() {
+		return mParseMode;
 	}
 	
 	/**
-	 * Gets the rightmost terminal node in the specified tree.
+	 * Get the time the last parse took, including both stages if the document needed to be parsed twice.
 	 * 
-	 * @param tree The tree to search
-	 * @return The rightmost terminal node, or {@code null} if there are none
-	 */
-	private static TerminalNode getRightLeaf(ParseTree tree) {
-		Deque<ParseTree> stack = new LinkedList<>();
-		stack.addLast(tree);
-		while(!stack.isEmpty()) {
-			ParseTree next = stack.removeLast();
-			if(next instanceof TerminalNode) {
-				if(!(next instanceof ErrorNode)) {
-					return (TerminalNode)next;
-				}
-			}
-			
-			final int childCount = next.getChildCount();
-			for(int j = 0; j < childCount; j++) {
-				stack.addLast(next.getChild(j));
-			}
-		}
-		return null;
+	 * @return The parse time in nanoseconds
+	 */
+	public synchronized long getParseTime() {
+		return mParseTime;
+	}
+	
+	/**
+	 * Get the list of syntax and semantic errors encountered during parsing.
+	 */
+	public synchronized List<ParserError> getErrors() {
+		return mErrors;
 	}
 	
 	/**
-	 * Collects all {@link TerminalNode}s in the specified tree, except error nodes.
+	 * Get the tokens that are nearest to the specified offset:
+	 * <ul>
+	 * <li>If the offset is before the first or after the last token, the list contains the respective token.</li>
+	 * <li>If the offset is inside a single token, or at the boundary of a token not adjacent to another, the
+	 * list contains this token.</li>
+	 * <li>If the offset is between two adjacent tokens, the list contains both tokens.</li>
+	 * <li>Otherwise, the list contains the tokens immediately before and after the offset.</li>
+	 * </ul>
+	 * Note that the list may be empty if the parser was not able to parse the file successfully. This can be
+	 * determined by checking whether {@link #getRoot()} returns a non-{@code null} value.
 	 * 
-	 * @param tree The tree to collect terminal nodes from
-	 * @return A list of terminal nodes, from left to right (that is, in the same order the appear in the
-	 *         source code)
-	 */
-	private static List<TerminalNode> collectTerminalNodes(ParseTree tree) {
-		Deque<ParseTree> stack = new LinkedList<>();
-		List<TerminalNode> ret = new ArrayList<>();
-		stack.addLast(tree);
-		while(!stack.isEmpty()) {
-			ParseTree next = stack.removeLast();
-			if(next instanceof TerminalNode) {
-				// It is assumed that Terminal nodes don't have children
-				if(!(next instanceof ErrorNode)) {
-					ret.add((TerminalNode)next);
-				}
-			} else {
-				for(int j = next.getChildCount() - 1; j >= 0; j--) {
-					stack.addLast(next.getChild(j));
-				}
+	 * @param offset The 0-based offset in the document
+	 * @return A list with the regions of the tokens that are nearest to the offset (sorted by position)
+	 */
+	public List<SourceRegion> getTokensForOffset(final int offset) {
+		List<SourceRegion> ret = new ArrayList<>(2);
+		final MJTokenIndex tokens;
+		synchronized(this) {
+			if(mRoot == null) {
+				return ret;
 			}
+			tokens = mTokens;
 		}
+		tokens.getTokensForOffset(offset, ret);
 		return ret;
 	}
 	
 	/**
-	 * Get the container of the specified element.
+	 * Get the source code range of the identifier for the specified object.
 	 * <p>
-	 * A container is an element like a class or method definition, variable declaration or a program.
+	 * The object needs to be an {@link MJNode}, e.g. the node of an outline element.
 	 * 
-	 * @param p The element
-	 * @return The container, or {@code null} if none was found
-	 */
-	public static ParseTree getContainer(ParseTree p) {
-		ParseTree ret = p;
-		while(!(ret instanceof MethodDeclContext ||
-				ret instanceof ClassDeclContext ||
-				ret instanceof VarDeclContext ||
-				ret instanceof ConstDeclContext ||
-				ret instanceof ProgContext) && ret != null) {
-			ret = ret.getParent();
+	 * @param sel The selected object
+	 * @return The identifier range, or {@code null}
+	 */
+	public static SourceRegion getIdentRange(Object sel) {
+		if(sel instanceof MJNode) {
+			return ((MJNode)sel).getNameRegion();
 		}
-		return ret;
+		return null;
 	}
 }
@@ -0,0 +1,481 @@
+package net.feichti.microjavaeditor.microjava;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.feichti.microjavaeditor.antlr4.MicroJavaLexer;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.BlockContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.BlockStatementContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ClassDeclContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ConstDeclContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ExprContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.IfStatementContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.MethodDeclContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ProgContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.StatementContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.SwitchStatementContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.VarDeclContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.WhileStatementContext;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * Formats MicroJava source code by changing only the whitespace between tokens.
+ * <p>
+ * The text is lexed and parsed once. The parse tree decides the indentation of every token that starts a line,
+ * the token types decide the spacing between tokens on the same line. Line breaks are kept, except that blank
+ * lines are reduced to one and trailing whitespace is removed. A comment is indented like the token after it,
+ * its content is never changed.
+ * <p>
+ * Only the part of the whitespace between two tokens that differs from the formatted result is replaced, so an
+ * already formatted text produces no edits and formatting changes as little of the document as possible. All
+ * of this takes a single pass over the tokens. Text with syntax errors is not formatted.
+ * 
+ * @author Peter
+ */
+public class MJFormatter
+{
+	/** The indentation of a line continuing a declaration or statement, relative to its first line. */
+	private static final int CONTINUATION = 2;
+	
+	/**
+	 * Remembers whether the lexer found characters that are not part of a token.
+	 */
+	private static class LexerErrorListener extends BaseErrorListener
+	{
+		boolean mFailed;
+		
+		@Override
+		public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+				int charPositionInLine, String msg, RecognitionException e) {
+			mFailed = true;
+		}
+	}
+	
+	private final String mText;
+	private final String mLineDelimiter;
+	
+	/** All tokens of the text including whitespace and comments, {@code null} if it has syntax errors. */
+	private List<Token> mTokens;
+	private ProgContext mProg;
+	/** The indentation level of every token if it starts a line, by token index. */
+	private int[] mLevels;
+	/** Whether every token is a unary minus, by token index. */
+	private boolean[] mUnary;
+	
+	/**
+	 * Create a new formatter for the specified text.
+	 * 
+	 * @param text The source code
+	 * @param lineDelimiter The line delimiter to use for line breaks
+	 */
+	public MJFormatter(String text, String lineDelimiter) {
+		mText = text;
+		mLineDelimiter = lineDelimiter;
+	}
+	
+	/**
+	 * Compute the edits that format the whole text.
+	 * 
+	 * @return The edits, or {@code null} if the text has syntax errors
+	 */
+	public TextEdit format() {
+		if(!parse()) {
+			return null;
+		}
+		return format(0, mText.length());
+	}
+	
+	/**
+	 * Compute the edits that format the declarations of the program overlapping the specified region, e.g. the
+	 * selected methods. If the region does not overlap a declaration, the lines of the region are formatted.
+	 * 
+	 * @param offset The start of the region
+	 * @param length The length of the region
+	 * @return The edits, or {@code null} if the text has syntax errors
+	 */
+	public TextEdit formatDeclarations(int offset, int length) {
+		if(!parse()) {
+			return null;
+		}
+		
+		final int end = offset + length;
+		int start = Integer.MAX_VALUE;
+		int stop = -1;
+		for(int j = 0; j < mProg.getChildCount(); j++) {
+			final ParseTree child = mProg.getChild(j);
+			if(child instanceof ConstDeclContext || child instanceof VarDeclContext ||
+					child instanceof ClassDeclContext || child instanceof MethodDeclContext) {
+				final ParserRuleContext decl = (ParserRuleContext)child;
+				final int declStart = decl.getStart().getStartIndex();
+				final int declEnd = decl.getStop().getStopIndex() + 1;
+				if(declStart <= end && declEnd >= offset) {
+					start = Math.min(start, declStart);
+					stop = Math.max(stop, declEnd);
+				}
+			}
+		}
+		if(stop < 0) {
+			// Not inside a declaration, format the lines of the region
+			start = offset;
+			while(start > 0 && mText.charAt(start - 1) != '\n' && mText.charAt(start - 1) != '\r') {
+				start--;
+			}
+			stop = end;
+			while(stop < mText.length() && mText.charAt(stop) != '\n' && mText.charAt(stop) != '\r') {
+				stop++;
+			}
+		}
+		return format(start, stop);
+	}
+	
+	/**
+	 * Lex and parse the text and compute the indentation levels of the tokens.
+	 * 
+	 * @return {@code true} if the text was parsed, {@code false} if it has syntax errors
+	 */
+	private boolean parse() {
+		if(mTokens != null) {
+			return true;
+		}
+		
+		final MicroJavaLexer lexer = MJParserPool.acquireLexer(new ANTLRInputStream(mText));
+		final LexerErrorListener lexerErrors = new LexerErrorListener();
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(lexerErrors);
+		final CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+		tokenStream.fill();
+		MJParserPool.releaseLexer(lexer);
+		if(lexerErrors.mFailed) {
+			return false;
+		}
+		
+		// Like the file model, try the faster SLL prediction first and only use full LL if that fails
+		final MicroJavaParser parser = MJParserPool.acquireParser(tokenStream);
+		try {
+			parser.removeErrorListeners();
+			parser.setErrorHandler(new BailErrorStrategy());
+			parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+			try {
+				mProg = parser.prog();
+			} catch(ParseCancellationException ex) {
+				parser.reset();
+				parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+				mProg = parser.prog();
+			}
+		} catch(ParseCancellationException ex) {
+			return false;
+		} finally {
+			MJParserPool.releaseParser(parser);
+		}
+		
+		final List<Token> tokens = tokenStream.getTokens();
+		mLevels = new int[tokens.size()];
+		mUnary = new boolean[tokens.size()];
+		Arrays.fill(mLevels, -1);
+		indentProgram(mProg);
+		indentComments(tokens);
+		mTokens = tokens;
+		return true;
+	}
+	
+	/**
+	 * Compute the edits for the whitespace between the tokens in the specified range. Whitespace that extends
+	 * beyond the range is only changed on the lines inside of it.
+	 */
+	private TextEdit format(int start, int stop) {
+		final MultiTextEdit ret = new MultiTextEdit();
+		Token prev = null;
+		for(Token t : mTokens) {
+			if(t.getType() == MicroJavaLexer.WS) {
+				continue;
+			}
+			final boolean eof = (t.getType() == Token.EOF);
+			final int gapStart = (prev != null ? prev.getStopIndex() + 1 : 0);
+			final int gapEnd = (eof ? mText.length() : t.getStartIndex());
+			if(gapEnd >= start && gapStart <= stop) {
+				formatGap(ret, prev, t, gapStart, gapEnd, start, stop);
+			}
+			if(eof || gapStart > stop) {
+				break;
+			}
+			prev = t;
+		}
+		return ret;
+	}
+	
+	/**
+	 * Add the edit for the whitespace between two tokens, if it needs to be changed.
+	 * 
+	 * @param edit The edit to add to
+	 * @param prev The token before the whitespace, {@code null} at the start of the text
+	 * @param next The token after the whitespace, may be {@code EOF}
+	 * @param gapStart The start of the whitespace
+	 * @param gapEnd The end of the whitespace, exclusive
+	 * @param start The start of the formatted range
+	 * @param stop The end of the formatted range, exclusive
+	 */
+	private void formatGap(MultiTextEdit edit, Token prev, Token next, int gapStart, int gapEnd, int start,
+			int stop) {
+		final String gap = mText.substring(gapStart, gapEnd);
+		int lineBreaks = 0;
+		int firstBreak = -1;
+		int lastBreak = -1;
+		for(int j = 0; j < gap.length(); j++) {
+			final char c = gap.charAt(j);
+			if(c == '\n' || c == '\r') {
+				// The first break starts at its first character, the last one ends at its last character
+				firstBreak = (firstBreak < 0 ? j : firstBreak);
+				if(c == '\r' && j + 1 < gap.length() && gap.charAt(j + 1) == '\n') {
+					j++;
+				}
+				lineBreaks++;
+				lastBreak = j;
+			} else if(c != ' ' && c != '\t') {
+				// Not whitespace, should not happen without lexer errors
+				return;
+			}
+		}
+		
+		final boolean eof = (next.getType() == Token.EOF);
+		if(gapStart < start && gapEnd > stop) {
+			return;
+		} else if(gapStart < start) {
+			// Only indent the first line of the range
+			if(lineBreaks > 0 && !eof) {
+				replace(edit, gapStart + lastBreak + 1, gap.substring(lastBreak + 1), getIndent(next));
+			}
+			return;
+		} else if(gapEnd > stop) {
+			// Only remove the trailing whitespace of the last line of the range
+			if(lineBreaks > 0) {
+				replace(edit, gapStart, gap.substring(0, firstBreak), "");
+			}
+			return;
+		}
+		
+		final String formatted;
+		if(prev == null) {
+			formatted = (eof ? "" : getIndent(next));
+		} else if(eof) {
+			formatted = (lineBreaks > 0 ? mLineDelimiter : "");
+		} else if(lineBreaks > 0) {
+			final StringBuilder sb = new StringBuilder(mLineDelimiter);
+			if(lineBreaks > 1) {
+				sb.append(mLineDelimiter);
+			}
+			formatted = sb.append(getIndent(next)).toString();
+		} else {
+			formatted = getSpacing(prev, next, gap.length());
+		}
+		replace(edit, gapStart, gap, formatted);
+	}
+	
+	/**
+	 * Add an edit that replaces only the differing part of the specified text.
+	 */
+	private static void replace(MultiTextEdit edit, int offset, String text, String formatted) {
+		if(text.equals(formatted)) {
+			return;
+		}
+		final int max = Math.min(text.length(), formatted.length());
+		int prefix = 0;
+		while(prefix < max && text.charAt(prefix) == formatted.charAt(prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while(suffix < max - prefix &&
+				text.charAt(text.length() - 1 - suffix) == formatted.charAt(formatted.length() - 1 - suffix)) {
+			suffix++;
+		}
+		edit.addChild(new ReplaceEdit(offset + prefix, text.length() - prefix - suffix,
+				formatted.substring(prefix, formatted.length() - suffix)));
+	}
+	
+	/**
+	 * Get the indentation of a line starting with the specified token.
+	 */
+	private String getIndent(Token t) {
+		final int level = Math.max(mLevels[t.getTokenIndex()], 0);
+		final char[] ret = new char[level];
+		Arrays.fill(ret, '\t');
+		return new String(ret);
+	}
+	
+	/**
+	 * Get the whitespace between two tokens on the same line.
+	 * 
+	 * @param prev The first token
+	 * @param next The second token
+	 * @param length The length of the whitespace in the text
+	 */
+	private String getSpacing(Token prev, Token next, int length) {
+		final int p = prev.getType();
+		final int n = next.getType();
+		if(p == MicroJavaLexer.Comment || n == MicroJavaLexer.Comment) {
+			return (length > 0 ? " " : "");
+		} else if(p == MicroJavaLexer.COMMA || p == MicroJavaLexer.SEMICOLON) {
+			return " ";
+		} else if(p == MicroJavaLexer.LPAR || p == MicroJavaLexer.LBRACK || p == MicroJavaLexer.PERIOD ||
+				mUnary[prev.getTokenIndex()]) {
+			return "";
+		}
+		switch(n) {
+			case MicroJavaLexer.RPAR:
+			case MicroJavaLexer.RBRACK:
+			case MicroJavaLexer.PERIOD:
+			case MicroJavaLexer.SEMICOLON:
+			case MicroJavaLexer.COMMA:
+			case MicroJavaLexer.COLON:
+			case MicroJavaLexer.PPLUS:
+			case MicroJavaLexer.MMINUS:
+				return "";
+			case MicroJavaLexer.LPAR:
+			case MicroJavaLexer.LBRACK:
+				// Calls, indices and keywords like if(...) are not separated from the bracket
+				return (p == MicroJavaLexer.Ident || p == MicroJavaLexer.RBRACK || p == MicroJavaLexer.IF ||
+						p == MicroJavaLexer.WHILE || p == MicroJavaLexer.SWITCH || p == MicroJavaLexer.READ ||
+						p == MicroJavaLexer.PRINT ? "" : " ");
+			default:
+				return " ";
+		}
+	}
+	
+	/**
+	 * Set the levels of the program, its declarations are indented by one level.
+	 */
+	private void indentProgram(ProgContext ctx) {
+		for(int j = 0; j < ctx.getChildCount(); j++) {
+			final ParseTree child = ctx.getChild(j);
+			if(child instanceof ClassDeclContext) {
+				indentClass((ClassDeclContext)child, 1);
+			} else if(child instanceof MethodDeclContext) {
+				indentMethod((MethodDeclContext)child, 1);
+			} else if(child instanceof ParserRuleContext) {
+				indent(child, 1, 1 + CONTINUATION);
+			} else {
+				final int type = ((TerminalNode)child).getSymbol().getType();
+				indent(child, (type == MicroJavaLexer.Ident ? CONTINUATION : 0), 0);
+			}
+		}
+	}
+	
+	private void indentClass(ClassDeclContext ctx, int level) {
+		for(int j = 0; j < ctx.getChildCount(); j++) {
+			final ParseTree child = ctx.getChild(j);
+			if(child instanceof VarDeclContext) {
+				indent(child, level + 1, level + 1 + CONTINUATION);
+			} else if(isTerminal(child, MicroJavaLexer.LBRACE) || isTerminal(child, MicroJavaLexer.RBRACE)) {
+				indent(child, level, level);
+			} else {
+				indent(child, (j == 0 ? level : level + CONTINUATION), level + CONTINUATION);
+			}
+		}
+	}
+	
+	private void indentMethod(MethodDeclContext ctx, int level) {
+		for(int j = 0; j < ctx.getChildCount(); j++) {
+			final ParseTree child = ctx.getChild(j);
+			if(child instanceof VarDeclContext) {
+				indent(child, level + 1, level + 1 + CONTINUATION);
+			} else if(child instanceof BlockContext) {
+				indentBlock((BlockContext)child, level);
+			} else {
+				indent(child, (j == 0 ? level : level + CONTINUATION), level + CONTINUATION);
+			}
+		}
+	}
+	
+	private void indentBlock(BlockContext ctx, int level) {
+		for(int j = 0; j < ctx.getChildCount(); j++) {
+			final ParseTree child = ctx.getChild(j);
+			if(child instanceof StatementContext) {
+				indentStatement((StatementContext)child, level + 1);
+			} else {
+				indent(child, level, level);
+			}
+		}
+	}
+	
+	private void indentStatement(StatementContext ctx, int level) {
+		if(ctx instanceof BlockStatementContext) {
+			indentBlock(((BlockStatementContext)ctx).block(), level);
+			return;
+		}
+		final boolean cases = (ctx instanceof SwitchStatementContext);
+		final boolean body = (cases || ctx instanceof IfStatementContext || ctx instanceof WhileStatementContext);
+		for(int j = 0; j < ctx.getChildCount(); j++) {
+			final ParseTree child = ctx.getChild(j);
+			if(!body || j == 0) {
+				indent(child, (j == 0 ? level : level + CONTINUATION), level + CONTINUATION);
+			} else if(cases && child instanceof StatementContext) {
+				indentStatement((StatementContext)child, level + 2);
+			} else if(child instanceof IfStatementContext && isTerminal(ctx.getChild(j - 1), MicroJavaLexer.ELSE)) {
+				// Keep else-if chains at the same level
+				indentStatement((StatementContext)child, level);
+			} else if(child instanceof StatementContext) {
+				// A block is aligned with the statement, other statements are indented
+				indentStatement((StatementContext)child, (child instanceof BlockStatementContext ? level : level + 1));
+			} else if(isTerminal(child, MicroJavaLexer.CASE) || isTerminal(child, MicroJavaLexer.DEFAULT)) {
+				indent(child, level + 1, level + 1);
+			} else if(isTerminal(child, MicroJavaLexer.ELSE) || isTerminal(child, MicroJavaLexer.LBRACE) ||
+					isTerminal(child, MicroJavaLexer.RBRACE)) {
+				indent(child, level, level);
+			} else {
+				indent(child, level + CONTINUATION, level + CONTINUATION);
+			}
+		}
+	}
+	
+	/**
+	 * Set the levels of the tokens of a node, the first token is set to {@code first} and the others to
+	 * {@code rest}. Unary minus operators are recorded as well.
+	 */
+	private void indent(ParseTree node, int first, int rest) {
+		if(node instanceof TerminalNode) {
+			mLevels[((TerminalNode)node).getSymbol().getTokenIndex()] = first;
+			return;
+		}
+		if(node instanceof ExprContext && isTerminal(node.getChild(0), MicroJavaLexer.MINUS)) {
+			mUnary[((TerminalNode)node.getChild(0)).getSymbol().getTokenIndex()] = true;
+		}
+		for(int j = 0; j < node.getChildCount(); j++) {
+			indent(node.getChild(j), (j == 0 ? first : rest), rest);
+		}
+	}
+	
+	/**
+	 * Set the levels of the comments, which are not part of the parse tree, to the level of the next token. A
+	 * comment before a closing brace is indented like the content of the block.
+	 */
+	private void indentComments(List<Token> tokens) {
+		int level = 0;
+		for(int j = tokens.size() - 1; j >= 0; j--) {
+			final Token t = tokens.get(j);
+			if(t.getType() == MicroJavaLexer.Comment) {
+				mLevels[j] = level;
+			} else if(mLevels[j] >= 0) {
+				level = mLevels[j] + (t.getType() == MicroJavaLexer.RBRACE ? 1 : 0);
+			}
+		}
+	}
+	
+	private static boolean isTerminal(ParseTree node, int type) {
+		return (node instanceof TerminalNode && ((TerminalNode)node).getSymbol().getType() == type);
+	}
+}
@@ -0,0 +1,179 @@
+package net.feichti.microjavaeditor.microjava;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import net.feichti.microjavaeditor.antlr4.MicroJavaLexer;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * A small pool of reusable {@link MicroJavaLexer} and {@link MicroJavaParser} instances.
+ * <p>
+ * Instances handed out by the pool are reset to the state of a newly created instance using
+ * {@code setInputStream}, so they can be configured like a new one. Instances should be released once they are
+ * no longer used, the pool keeps at most {@link #MAX_SIZE} of each.
+ * <p>
+ * The generated lexer and parser share their DFA cache between all instances, {@link #warmUp()} fills that cache
+ * by parsing a program that uses all rules of the grammar, so the first file opened doesn't pay for it.
+ *
+ * @author Peter
+ */
+public final class MJParserPool
+{
+	/**
+	 * The maximum number of lexers and parsers kept by the pool.
+	 */
+	public static final int MAX_SIZE = 4;
+	
+	/**
+	 * The program parsed by {@link #warmUp()}, it uses every rule and token of the grammar.
+	 */
+	private static final String WARMUP_PROGRAM = "program WarmUp\n" +
+			"	final int size = 10;\n" +
+			"	final char nl = '\\n';\n" +
+			"	class Node { int value; Node next; char[] name; }\n" +
+			"	int[] values; Node head, tail;\n" +
+			"{\n" +
+			"	/* Comments /* can be nested */ */\n" +
+			"	void add(int value, Node n) Node tmp; {\n" +
+			"		tmp = new Node; tmp.value = value; tmp.name = new char[size];\n" +
+			"		if(head == null || n.next != null && value >= 0) head = tmp; else tail.next = tmp;\n" +
+			"		tail = tmp; values[value % size] += -value * 2 / 3 - (1 + 2);\n" +
+			"	}\n" +
+			"	int count() Node n; int c; {\n" +
+			"		n = head; c = 0;\n" +
+			"		while(n != null) { c++; n = n.next; }\n" +
+			"		return c;\n" +
+			"	}\n" +
+			"	void main() int j; char c; {\n" +
+			"		values = new int[size]; j = 0; read(c);\n" +
+			"		while(j < size) { add(j, head); j++; if(j > 5 && j <= 8) break; }\n" +
+			"		switch(count()) { case 1: print(1); case 'a': j -= 1; j *= 2; j /= 2; j %= 3; j--;" +
+			" default: print(j, 5); }\n" +
+			"		print(nl); ; { return; }\n" +
+			"	}\n" +
+			"}\n";
+	
+	private static final Deque<MicroJavaLexer> sLexers = new ArrayDeque<>();
+	private static final Deque<MicroJavaParser> sParsers = new ArrayDeque<>();
+	
+	private MJParserPool() {
+		
+	}
+	
+	/**
+	 * Get a lexer for the specified input.
+	 *
+	 * @param input The input stream
+	 * @return A lexer that is in the same state as a new one
+	 */
+	public static MicroJavaLexer acquireLexer(CharStream input) {
+		MicroJavaLexer lexer;
+		synchronized(sLexers) {
+			lexer = sLexers.pollFirst();
+		}
+		if(lexer == null) {
+			return new MicroJavaLexer(input);
+		}
+		lexer.setInputStream(input);
+		return lexer;
+	}
+	
+	/**
+	 * Return a lexer to the pool, it must not be used afterwards.
+	 *
+	 * @param lexer The lexer, may be {@code null}
+	 */
+	public static void releaseLexer(MicroJavaLexer lexer) {
+		if(lexer == null) {
+			return;
+		}
+		// Don't keep the input alive
+		lexer.setInputStream(null);
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(ConsoleErrorListener.INSTANCE);
+		synchronized(sLexers) {
+			if(sLexers.size() < MAX_SIZE) {
+				sLexers.addFirst(lexer);
+			}
+		}
+	}
+	
+	/**
+	 * Get a parser for the specified token stream.
+	 *
+	 * @param input The token stream
+	 * @return A parser that is in the same state as a new one
+	 */
+	public static MicroJavaParser acquireParser(TokenStream input) {
+		MicroJavaParser parser;
+		synchronized(sParsers) {
+			parser = sParsers.pollFirst();
+		}
+		if(parser == null) {
+			return new MicroJavaParser(input);
+		}
+		parser.setInputStream(input);
+		return parser;
+	}
+	
+	/**
+	 * Return a parser to the pool, it must not be used afterwards.
+	 *
+	 * @param parser The parser, may be {@code null}
+	 */
+	public static void releaseParser(MicroJavaParser parser) {
+		if(parser == null) {
+			return;
+		}
+		// Don't keep the tokens alive
+		parser.setInputStream(null);
+		parser.removeErrorListeners();
+		parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+		parser.removeParseListeners();
+		parser.setErrorHandler(new DefaultErrorStrategy());
+		parser.setBuildParseTree(true);
+		parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+		synchronized(sParsers) {
+			if(sParsers.size() < MAX_SIZE) {
+				sParsers.addFirst(parser);
+			}
+		}
+	}
+	
+	/**
+	 * Fill the shared DFA cache of the lexer and parser by parsing a sample program with both prediction modes.
+	 * <p>
+	 * This takes some time and should be done in the background.
+	 */
+	public static void warmUp() {
+		for(PredictionMode mode : new PredictionMode[] { PredictionMode.SLL, PredictionMode.LL }) {
+			MicroJavaLexer lexer = acquireLexer(new ANTLRInputStream(WARMUP_PROGRAM));
+			lexer.removeErrorListeners();
+			MicroJavaParser parser = acquireParser(new CommonTokenStream(lexer));
+			parser.removeErrorListeners();
+			parser.getInterpreter().setPredictionMode(mode);
+			if(mode == PredictionMode.SLL) {
+				parser.setErrorHandler(new BailErrorStrategy());
+			}
+			try {
+				parser.prog();
+			} catch(ParseCancellationException ex) {
+				System.err.println("Failed to parse warm-up program:");
+				ex.printStackTrace();
+			}
+			releaseParser(parser);
+			releaseLexer(lexer);
+		}
+	}
+}
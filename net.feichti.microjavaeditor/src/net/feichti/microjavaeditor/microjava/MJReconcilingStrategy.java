@@ -0,0 +1,75 @@
+package net.feichti.microjavaeditor.microjava;
+
+import net.feichti.microjavaeditor.MJEditor;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.reconciler.DirtyRegion;
+import org.eclipse.jface.text.reconciler.IReconcilingStrategy;
+import org.eclipse.jface.text.reconciler.IReconcilingStrategyExtension;
+
+/**
+ * Reconciling strategy that parses MicroJava documents in the background.
+ * <p>
+ * The reconciler calls this strategy on its own thread after the document has not been changed for the
+ * reconciler delay, so keystrokes are debounced. When the document is changed while parsing, the reconciler
+ * cancels the progress monitor and the stale parse is aborted. A finished parse is published to the
+ * {@link MJFileModel} of the editor, which then updates the outline, markers and highlight range.
+ *
+ * @author Peter
+ */
+public class MJReconcilingStrategy implements IReconcilingStrategy, IReconcilingStrategyExtension
+{
+	private final MJEditor mEditor;
+	private IDocument mDocument;
+	private IProgressMonitor mMonitor;
+	
+	/**
+	 * Create a new reconciling strategy for the specified editor.
+	 *
+	 * @param editor The editor whose file model should be updated
+	 */
+	public MJReconcilingStrategy(MJEditor editor) {
+		mEditor = editor;
+	}
+	
+	@Override
+	public void setDocument(IDocument document) {
+		mDocument = document;
+	}
+	
+	@Override
+	public void setProgressMonitor(IProgressMonitor monitor) {
+		mMonitor = monitor;
+	}
+	
+	@Override
+	public void initialReconcile() {
+		reconcile();
+	}
+	
+	@Override
+	public void reconcile(DirtyRegion dirtyRegion, IRegion subRegion) {
+		reconcile();
+	}
+	
+	@Override
+	public void reconcile(IRegion partition) {
+		reconcile();
+	}
+	
+	/**
+	 * Parse the current document and notify the editor if the model was updated.
+	 */
+	private void reconcile() {
+		if(mDocument == null) {
+			return;
+		}
+		
+		MJFileModel model = mEditor.getFileModel();
+		if(model.reconcile(mDocument, mMonitor)) {
+			mEditor.modelChanged();
+		}
+	}
+}
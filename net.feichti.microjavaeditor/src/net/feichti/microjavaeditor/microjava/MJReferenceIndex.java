@@ -0,0 +1,392 @@
+package net.feichti.microjavaeditor.microjava;
+
+import java.util.Arrays;
+
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ConstructorContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.DesignatorContext;
+import net.feichti.microjavaeditor.antlr4.MicroJavaParser.TypeContext;
+import net.feichti.microjavaeditor.symtab.ArrayType;
+import net.feichti.microjavaeditor.symtab.Scope;
+import net.feichti.microjavaeditor.symtab.Symbol;
+import net.feichti.microjavaeditor.symtab.SymbolScope;
+import net.feichti.microjavaeditor.symtab.SymbolTable;
+import net.feichti.microjavaeditor.symtab.Type;
+import net.feichti.microjavaeditor.util.SourceRegion;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * An index of the identifier references of a program and the symbols they resolve to.
+ * <p>
+ * References are the identifiers of designators, that is variables, fields, array elements and method calls,
+ * and of types in declarations and {@code new} expressions. The names of declarations are not references.
+ * They are collected by a {@link Builder} that is added to the parser as a parse listener, and resolved once
+ * after the symbol table has been built, so features like hovers or occurrence marking only need to look
+ * them up.
+ * <p>
+ * Like the token index, the references are kept in parallel arrays sorted by position. The usages of a
+ * declared symbol are linked through an array indexed by reference, starting from an array indexed by the
+ * node id of the declaration, see {@link MJContainerIndex}.
+ * 
+ * @author Peter
+ */
+public class MJReferenceIndex
+{
+	/**
+	 * Collects the identifier references while parsing, error nodes are ignored.
+	 */
+	public static class Builder implements ParseTreeListener
+	{
+		private int[] mOffsets = new int[64];
+		private String[] mNames = new String[64];
+		private int[] mQualifiers = new int[64];
+		private int mSize;
+		
+		/**
+		 * Discard the references collected so far, e.g. when the parser is reset to parse again.
+		 */
+		public void reset() {
+			mSize = 0;
+		}
+		
+		/**
+		 * Create an unresolved index of the references collected so far.
+		 */
+		public MJReferenceIndex build() {
+			return new MJReferenceIndex(Arrays.copyOf(mOffsets, mSize), Arrays.copyOf(mNames, mSize),
+					Arrays.copyOf(mQualifiers, mSize));
+		}
+		
+		@Override
+		public void visitTerminal(TerminalNode node) {
+			final Token t = node.getSymbol();
+			if(t.getType() != MicroJavaParser.Ident) {
+				return;
+			}
+			final ParseTree parent = node.getParent();
+			int qualifier = -1;
+			if(parent instanceof DesignatorContext) {
+				qualifier = findQualifier((DesignatorContext)parent);
+				if(qualifier == -2) {
+					return;
+				}
+			} else if(!(parent instanceof TypeContext) && !(parent instanceof ConstructorContext)) {
+				return;
+			}
+			
+			if(mSize == mOffsets.length) {
+				final int size = mSize * 2;
+				mOffsets = Arrays.copyOf(mOffsets, size);
+				mNames = Arrays.copyOf(mNames, size);
+				mQualifiers = Arrays.copyOf(mQualifiers, size);
+			}
+			mOffsets[mSize] = t.getStartIndex();
+			mNames[mSize] = t.getText().intern();
+			mQualifiers[mSize] = qualifier;
+			mSize++;
+		}
+		
+		/**
+		 * Find the reference for the part of a designator before the identifier that was just added to it.
+		 * 
+		 * @return The index of the reference, {@code -1} if the identifier is the first part of the designator or
+		 *         {@code -2} if the previous part was not recorded, e.g. because of a syntax error
+		 */
+		private int findQualifier(DesignatorContext ctx) {
+			for(int j = ctx.getChildCount() - 2; j >= 0; j--) {
+				final ParseTree child = ctx.getChild(j);
+				if(!(child instanceof TerminalNode)) {
+					continue;
+				}
+				final Token t = ((TerminalNode)child).getSymbol();
+				if(t.getType() == MicroJavaParser.Ident) {
+					final int offset = t.getStartIndex();
+					final int idx = Arrays.binarySearch(mOffsets, 0, mSize, offset);
+					return (idx >= 0 && !(child instanceof ErrorNode) ? idx : -2);
+				}
+			}
+			return -1;
+		}
+		
+		@Override
+		public void visitErrorNode(ErrorNode node) {
+			
+		}
+		
+		@Override
+		public void enterEveryRule(ParserRuleContext ctx) {
+			
+		}
+		
+		@Override
+		public void exitEveryRule(ParserRuleContext ctx) {
+			
+		}
+	}
+	
+	private static final int[] NO_USAGES = new int[0];
+	
+	private final int[] mOffsets;
+	private final String[] mNames;
+	/** The index of the reference for the previous part of a designator, e.g. {@code a} in {@code a.b}. */
+	private final int[] mQualifiers;
+	
+	/** The resolved symbols, {@code null} until {@link #resolve(SymbolTable, MJContainerIndex)} is called. */
+	private Symbol[] mSymbols;
+	/** The first usage of the symbol declared by a node, indexed by node id. */
+	private int[] mFirstUsage;
+	/** The next usage of the same symbol, indexed by reference. */
+	private int[] mNextUsage;
+	
+	private MJReferenceIndex(int[] offsets, String[] names, int[] qualifiers) {
+		mOffsets = offsets;
+		mNames = names;
+		mQualifiers = qualifiers;
+	}
+	
+	/**
+	 * Resolve all references of this index, this needs to be done once before the index is used.
+	 * 
+	 * @param tab The symbol table of the program
+	 * @param nodes The container index of the program, defines the node ids of the symbol table
+	 */
+	public void resolve(SymbolTable tab, MJContainerIndex nodes) {
+		final Symbol[] symbols = new Symbol[mOffsets.length];
+		resolve(symbols, 0, symbols.length, tab, nodes);
+		link(symbols, nodes.size());
+	}
+	
+	/**
+	 * Resolve the references in a range of indices. The qualifiers of the references need to be resolved
+	 * already, which is the case if they are in the same range.
+	 */
+	private void resolve(Symbol[] symbols, int from, int to, SymbolTable tab, MJContainerIndex nodes) {
+		for(int j = from; j < to; j++) {
+			Symbol sym = null;
+			final int qualifier = mQualifiers[j];
+			if(qualifier < 0) {
+				// Resolve in the innermost scope of the reference
+				int id = nodes.find(mOffsets[j]);
+				while(id >= 0 && tab.getScope(id) == null) {
+					id = nodes.getParent(id);
+				}
+				final Scope scope = (id >= 0 ? tab.getScope(id) : tab.getUniverse());
+				sym = scope.resolve(mNames[j]);
+			} else if(symbols[qualifier] != null) {
+				// Resolve as a member of the class of the qualifier
+				Type type = symbols[qualifier].getType();
+				while(type instanceof ArrayType) {
+					type = ((ArrayType)type).getElementType();
+				}
+				if(type instanceof SymbolScope) {
+					sym = ((SymbolScope)type).getMember(mNames[j]);
+				}
+			}
+			symbols[j] = sym;
+		}
+	}
+	
+	/**
+	 * Set the resolved symbols and link the usages of every declared symbol.
+	 * 
+	 * @param symbols The symbols of the references
+	 * @param nodeCount The number of nodes of the container index
+	 */
+	private void link(Symbol[] symbols, int nodeCount) {
+		final int size = symbols.length;
+		final int[] first = new int[nodeCount];
+		final int[] next = new int[size];
+		Arrays.fill(first, -1);
+		
+		// Link the usages in reverse, so every list is sorted by position
+		for(int j = size - 1; j >= 0; j--) {
+			final int decl = (symbols[j] != null ? symbols[j].getDeclaration() : -1);
+			if(decl >= 0 && decl < first.length) {
+				next[j] = first[decl];
+				first[decl] = j;
+			} else {
+				next[j] = -1;
+			}
+		}
+		
+		mSymbols = symbols;
+		mFirstUsage = first;
+		mNextUsage = next;
+	}
+	
+	/**
+	 * Get the number of references in this index.
+	 */
+	public int size() {
+		return mOffsets.length;
+	}
+	
+	/**
+	 * Get the region of the reference with the specified index.
+	 */
+	public SourceRegion getRegion(int index) {
+		return new SourceRegion(mOffsets[index], mNames[index].length());
+	}
+	
+	/**
+	 * Get the name of the reference with the specified index.
+	 */
+	public String getName(int index) {
+		return mNames[index];
+	}
+	
+	/**
+	 * Get the symbol the reference with the specified index resolves to.
+	 * 
+	 * @return The symbol, or {@code null} if the reference could not be resolved
+	 */
+	public Symbol getSymbol(int index) {
+		return mSymbols[index];
+	}
+	
+	/**
+	 * Find the reference at the specified offset, an offset right after an identifier also belongs to it.
+	 * 
+	 * @param offset The document offset
+	 * @return The index of the reference, or {@code -1} if there is none
+	 */
+	public int find(int offset) {
+		int low = 0;
+		int high = mOffsets.length - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			if(mOffsets[mid] <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if(high >= 0 && offset <= mOffsets[high] + mNames[high].length()) {
+			return high;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Get the indices of all references to the specified symbol, sorted by position.
+	 * 
+	 * @param sym The symbol
+	 * @return The reference indices, may be empty
+	 */
+	public int[] getUsages(Symbol sym) {
+		final int decl = sym.getDeclaration();
+		if(decl < 0 || decl >= mFirstUsage.length) {
+			// Builtin symbols are not declared by any node, but they are rarely used
+			int count = 0;
+			for(int j = 0; j < mSymbols.length; j++) {
+				if(mSymbols[j] == sym) {
+					count++;
+				}
+			}
+			if(count == 0) {
+				return NO_USAGES;
+			}
+			final int[] ret = new int[count];
+			for(int j = 0, k = 0; k < count; j++) {
+				if(mSymbols[j] == sym) {
+					ret[k++] = j;
+				}
+			}
+			return ret;
+		}
+		if(mFirstUsage[decl] < 0 || mSymbols[mFirstUsage[decl]] != sym) {
+			return NO_USAGES;
+		}
+		
+		int count = 0;
+		for(int j = mFirstUsage[decl]; j >= 0; j = mNextUsage[j]) {
+			count++;
+		}
+		final int[] ret = new int[count];
+		for(int j = mFirstUsage[decl], k = 0; j >= 0; j = mNextUsage[j]) {
+			ret[k++] = j;
+		}
+		return ret;
+	}
+	
+	/**
+	 * Create a new unresolved index with the references in a range of offsets replaced by the references of
+	 * another index, e.g. after a declaration has been parsed again.
+	 * <p>
+	 * The offsets of the references after the replaced range are shifted by the specified amount.
+	 * 
+	 * @param start The first offset of the replaced range
+	 * @param stop The last offset of the replaced range
+	 * @param replacement The new references
+	 * @param delta The change in document length
+	 * @return The new index
+	 */
+	public MJReferenceIndex splice(int start, int stop, MJReferenceIndex replacement, int delta) {
+		int from = Arrays.binarySearch(mOffsets, start);
+		from = (from >= 0 ? from : -from - 1);
+		int to = Arrays.binarySearch(mOffsets, stop);
+		to = (to >= 0 ? to + 1 : -to - 1);
+		
+		final int added = replacement.size();
+		final int size = mOffsets.length - (to - from) + added;
+		final int suffix = from + added;
+		final int[] offsets = new int[size];
+		final String[] names = new String[size];
+		final int[] qualifiers = new int[size];
+		System.arraycopy(mOffsets, 0, offsets, 0, from);
+		System.arraycopy(mNames, 0, names, 0, from);
+		System.arraycopy(mQualifiers, 0, qualifiers, 0, from);
+		System.arraycopy(replacement.mOffsets, 0, offsets, from, added);
+		System.arraycopy(replacement.mNames, 0, names, from, added);
+		for(int j = 0; j < added; j++) {
+			final int q = replacement.mQualifiers[j];
+			qualifiers[from + j] = (q >= 0 ? q + from : q);
+		}
+		for(int j = suffix, k = to; j < size; j++, k++) {
+			offsets[j] = mOffsets[k] + delta;
+			names[j] = mNames[k];
+			final int q = mQualifiers[k];
+			qualifiers[j] = (q >= 0 ? q + suffix - to : q);
+		}
+		return new MJReferenceIndex(offsets, names, qualifiers);
+	}
+	
+	/**
+	 * Create a new resolved index with the references in a range of offsets replaced by the references of
+	 * another index, like {@link #splice(int, int, MJReferenceIndex, int)}.
+	 * <p>
+	 * This is only correct if the change does not affect the symbols of the other references, e.g. if only the
+	 * block of a method was parsed again, and the node ids of the symbol table are unchanged. The references
+	 * outside of the range keep their symbols and only the new references are resolved, so no names are looked
+	 * up outside of the replaced range.
+	 * 
+	 * @param start The first offset of the replaced range
+	 * @param stop The last offset of the replaced range
+	 * @param replacement The new references
+	 * @param delta The change in document length
+	 * @param tab The symbol table of the program, this index needs to be resolved with it
+	 * @param nodes The container index of the changed program
+	 * @return The new index
+	 */
+	public MJReferenceIndex splice(int start, int stop, MJReferenceIndex replacement, int delta, SymbolTable tab,
+			MJContainerIndex nodes) {
+		final MJReferenceIndex ret = splice(start, stop, replacement, delta);
+		int from = Arrays.binarySearch(mOffsets, start);
+		from = (from >= 0 ? from : -from - 1);
+		final int added = replacement.size();
+		final int to = from + mOffsets.length + added - ret.size();
+		
+		final Symbol[] symbols = new Symbol[ret.size()];
+		System.arraycopy(mSymbols, 0, symbols, 0, from);
+		System.arraycopy(mSymbols, to, symbols, from + added, mSymbols.length - to);
+		ret.resolve(symbols, from, from + added, tab, nodes);
+		ret.link(symbols, nodes.size());
+		return ret;
+	}
+}
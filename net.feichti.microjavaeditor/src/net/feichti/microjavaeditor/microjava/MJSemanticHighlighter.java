@@ -0,0 +1,453 @@
+package net.feichti.microjavaeditor.microjava;
+
+import java.util.Arrays;
+
+import net.feichti.microjavaeditor.symtab.ClassSymbol;
+import net.feichti.microjavaeditor.symtab.ConstantSymbol;
+import net.feichti.microjavaeditor.symtab.GlobalScope;
+import net.feichti.microjavaeditor.symtab.MethodSymbol;
+import net.feichti.microjavaeditor.symtab.Symbol;
+import net.feichti.microjavaeditor.symtab.SymbolTable;
+import net.feichti.microjavaeditor.symtab.VariableSymbol;
+import net.feichti.microjavaeditor.util.MJColorManager;
+import net.feichti.microjavaeditor.util.SourceRegion;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITextInputListener;
+import org.eclipse.jface.text.ITextPresentationListener;
+import org.eclipse.jface.text.ITextViewerExtension2;
+import org.eclipse.jface.text.ITextViewerExtension4;
+import org.eclipse.jface.text.IViewportListener;
+import org.eclipse.jface.text.TextAttribute;
+import org.eclipse.jface.text.TextPresentation;
+import org.eclipse.jface.text.source.ISourceViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.events.ControlAdapter;
+import org.eclipse.swt.events.ControlEvent;
+import org.eclipse.swt.events.ControlListener;
+import org.eclipse.swt.widgets.Control;
+
+/**
+ * Highlights identifiers by the kind of symbol they refer to, on top of the lexical highlighting of the
+ * {@link MJCodeScanner}.
+ * <p>
+ * The highlighted ranges are {@link #compute(MJFileModel) computed} from the reference index and symbol table
+ * of a model on the reconciler thread, and then {@link #update(Highlights) applied} on the UI thread. Styles
+ * are only merged into the text presentation for the visible lines, ranges outside of them are marked dirty
+ * and presented when they are scrolled into view. On an update, only the ranges that were added, removed or
+ * changed are presented again.
+ * <p>
+ * The ranges are kept in parallel arrays sorted by offset and are shifted on every document change, so they
+ * stay valid while typing until the next reconcile replaces them. Except for {@link #compute(MJFileModel)},
+ * all methods must be called on the UI thread.
+ * 
+ * @author Peter
+ */
+public class MJSemanticHighlighter implements ITextPresentationListener, IViewportListener, ITextInputListener,
+		IDocumentListener
+{
+	/**
+	 * The highlighted ranges of a program, sorted by offset.
+	 */
+	public static class Highlights
+	{
+		final int[] mOffsets;
+		final int[] mLengths;
+		final byte[] mKinds;
+		final int mSize;
+		
+		Highlights(int[] offsets, int[] lengths, byte[] kinds, int size) {
+			mOffsets = offsets;
+			mLengths = lengths;
+			mKinds = kinds;
+			mSize = size;
+		}
+		
+		/**
+		 * Get the number of highlighted ranges.
+		 */
+		public int size() {
+			return mSize;
+		}
+	}
+	
+	/** Not highlighted, builtin symbols are left to the lexical highlighting. */
+	public static final byte NONE = 0;
+	public static final byte FIELD = 1;
+	public static final byte LOCAL = 2;
+	public static final byte GLOBAL = 3;
+	public static final byte CONSTANT = 4;
+	public static final byte CLASS = 5;
+	public static final byte METHOD = 6;
+	
+	/** Invalidated regions closer than this are presented together. */
+	private static final int MERGE_GAP = 80;
+	
+	private final TextAttribute[] mAttributes;
+	private final ControlListener mResizeListener = new ControlAdapter() {
+		@Override
+		public void controlResized(ControlEvent e) {
+			refresh();
+		}
+	};
+	
+	private ISourceViewer mViewer;
+	private IDocument mDocument;
+	
+	private int[] mOffsets = new int[0];
+	private int[] mLengths = new int[0];
+	private byte[] mKinds = new byte[0];
+	/** Whether the style of a range is not in the text widget, e.g. because it was not visible. */
+	private boolean[] mDirty = new boolean[0];
+	private int mSize;
+	
+	/**
+	 * Create a new semantic highlighter, must be called on the UI thread.
+	 * 
+	 * @param colorManager The color manager used to create the styles
+	 */
+	public MJSemanticHighlighter(MJColorManager colorManager) {
+		mAttributes = new TextAttribute[METHOD + 1];
+		mAttributes[FIELD] = getAttribute(MJColorManager.FIELD_STYLE, colorManager);
+		mAttributes[LOCAL] = getAttribute(MJColorManager.LOCAL_STYLE, colorManager);
+		mAttributes[GLOBAL] = getAttribute(MJColorManager.GLOBAL_STYLE, colorManager);
+		mAttributes[CONSTANT] = getAttribute(MJColorManager.CONSTANT_STYLE, colorManager);
+		mAttributes[CLASS] = getAttribute(MJColorManager.CLASS_STYLE, colorManager);
+		mAttributes[METHOD] = getAttribute(MJColorManager.METHOD_STYLE, colorManager);
+	}
+	
+	private static TextAttribute getAttribute(MJColorManager.KeywordStyle style, MJColorManager colorManager) {
+		return (TextAttribute)style.getStyleToken(colorManager).getData();
+	}
+	
+	/**
+	 * Compute the highlighted ranges for the current program of a model. This method does not need to run on
+	 * the UI thread.
+	 * 
+	 * @param model The file model
+	 * @return The highlighted ranges, or {@code null} if the program could not be parsed
+	 */
+	public static Highlights compute(MJFileModel model) {
+		final SymbolTable tab = model.getSymbolTable();
+		final MJReferenceIndex references = model.getReferenceIndex();
+		final MJContainerIndex nodes = model.getContainerIndex();
+		if(tab == null || references == null || nodes == null) {
+			return null;
+		}
+		
+		// Sort references and declaration names together, packed as offset, length and kind
+		final long[] keys = new long[references.size() + nodes.size()];
+		int size = 0;
+		for(int j = 0; j < references.size(); j++) {
+			final byte kind = classify(references.getSymbol(j));
+			if(kind != NONE) {
+				final SourceRegion region = references.getRegion(j);
+				keys[size++] = pack(region.getOffset(), region.getLength(), kind);
+			}
+		}
+		for(int id = 0; id < nodes.size(); id++) {
+			final byte kind = classify(tab.getSymbol(id));
+			final SourceRegion name = nodes.getNode(id).getNameRegion();
+			if(kind != NONE && name != null) {
+				keys[size++] = pack(name.getOffset(), name.getLength(), kind);
+			}
+		}
+		Arrays.sort(keys, 0, size);
+		
+		final int[] offsets = new int[size];
+		final int[] lengths = new int[size];
+		final byte[] kinds = new byte[size];
+		for(int j = 0; j < size; j++) {
+			offsets[j] = (int)(keys[j] >>> 32);
+			lengths[j] = (int)(keys[j] >>> 8) & 0xFFFFFF;
+			kinds[j] = (byte)keys[j];
+		}
+		return new Highlights(offsets, lengths, kinds, size);
+	}
+	
+	private static long pack(int offset, int length, byte kind) {
+		return ((long)offset << 32) | ((long)length << 8) | kind;
+	}
+	
+	/**
+	 * Determine how references to the specified symbol are highlighted.
+	 */
+	private static byte classify(Symbol sym) {
+		if(sym == null || sym.getDeclaration() < 0) {
+			return NONE;
+		} else if(sym instanceof ClassSymbol) {
+			return CLASS;
+		} else if(sym instanceof MethodSymbol) {
+			return METHOD;
+		} else if(sym instanceof ConstantSymbol) {
+			return CONSTANT;
+		} else if(sym instanceof VariableSymbol) {
+			if(sym.getScope() instanceof ClassSymbol) {
+				return FIELD;
+			} else if(sym.getScope() instanceof GlobalScope) {
+				return GLOBAL;
+			}
+			return LOCAL;
+		}
+		return NONE;
+	}
+	
+	/**
+	 * Start highlighting the specified viewer.
+	 */
+	public void install(ISourceViewer viewer) {
+		mViewer = viewer;
+		if(viewer instanceof ITextViewerExtension4) {
+			((ITextViewerExtension4)viewer).addTextPresentationListener(this);
+		}
+		viewer.addViewportListener(this);
+		viewer.addTextInputListener(this);
+		viewer.getTextWidget().addControlListener(mResizeListener);
+		inputDocumentChanged(null, viewer.getDocument());
+	}
+	
+	/**
+	 * Stop highlighting the viewer this highlighter was installed on.
+	 */
+	public void uninstall() {
+		if(mViewer == null) {
+			return;
+		}
+		inputDocumentAboutToBeChanged(mDocument, null);
+		if(mViewer instanceof ITextViewerExtension4) {
+			((ITextViewerExtension4)mViewer).removeTextPresentationListener(this);
+		}
+		mViewer.removeViewportListener(this);
+		mViewer.removeTextInputListener(this);
+		final Control widget = mViewer.getTextWidget();
+		if(widget != null && !widget.isDisposed()) {
+			widget.removeControlListener(mResizeListener);
+		}
+		mViewer = null;
+	}
+	
+	/**
+	 * Replace the highlighted ranges. The ranges need to be computed from a model that is
+	 * {@link MJFileModel#isCurrent() current}, otherwise their positions don't match the document.
+	 * 
+	 * @param highlights The new ranges
+	 */
+	public void update(Highlights highlights) {
+		if(mViewer == null || mDocument == null) {
+			return;
+		}
+		
+		final int size = highlights.mSize;
+		final int[] offsets = highlights.mOffsets;
+		final int[] lengths = highlights.mLengths;
+		final byte[] kinds = highlights.mKinds;
+		final boolean[] dirty = new boolean[size];
+		final long[] invalid = new long[mSize + size];
+		int invalidCount = 0;
+		
+		// Compare with the old ranges, the styles of removed ranges need to be cleared
+		int i = 0;
+		int j = 0;
+		while(i < mSize || j < size) {
+			if(j < size && (i == mSize || offsets[j] < mOffsets[i])) {
+				dirty[j++] = true;
+			} else if(j == size || mOffsets[i] < offsets[j]) {
+				if(!mDirty[i]) {
+					invalid[invalidCount++] = pack(mOffsets[i], mLengths[i], NONE);
+				}
+				i++;
+			} else {
+				if(mLengths[i] == lengths[j] && mKinds[i] == kinds[j]) {
+					dirty[j] = mDirty[i];
+				} else {
+					dirty[j] = true;
+					if(!mDirty[i] && mLengths[i] > lengths[j]) {
+						invalid[invalidCount++] = pack(mOffsets[i], mLengths[i], NONE);
+					}
+				}
+				i++;
+				j++;
+			}
+		}
+		
+		mOffsets = offsets;
+		mLengths = lengths;
+		mKinds = kinds;
+		mDirty = dirty;
+		mSize = size;
+		invalidCount = collectVisibleDirty(invalid, invalidCount);
+		invalidate(invalid, invalidCount);
+	}
+	
+	/**
+	 * Present the dirty ranges that became visible.
+	 */
+	private void refresh() {
+		if(mViewer == null || mSize == 0) {
+			return;
+		}
+		final long[] invalid = new long[mSize];
+		invalidate(invalid, collectVisibleDirty(invalid, 0));
+	}
+	
+	/**
+	 * Add the visible dirty ranges to the array of regions that need to be presented again.
+	 * 
+	 * @return The new number of regions
+	 */
+	private int collectVisibleDirty(long[] invalid, int count) {
+		final int top = mViewer.getTopIndexStartOffset();
+		final int bottom = mViewer.getBottomIndexEndOffset();
+		for(int j = findEndingAfter(top); j < mSize && mOffsets[j] <= bottom; j++) {
+			if(mDirty[j]) {
+				invalid[count++] = pack(mOffsets[j], mLengths[j], NONE);
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Present the specified regions again, regions that are close to each other are merged.
+	 */
+	private void invalidate(long[] regions, int count) {
+		if(count == 0 || !(mViewer instanceof ITextViewerExtension2)) {
+			return;
+		}
+		Arrays.sort(regions, 0, count);
+		final ITextViewerExtension2 viewer = (ITextViewerExtension2)mViewer;
+		int start = (int)(regions[0] >>> 32);
+		int end = start + ((int)(regions[0] >>> 8) & 0xFFFFFF);
+		for(int j = 1; j <= count; j++) {
+			final int offset = (j < count ? (int)(regions[j] >>> 32) : Integer.MAX_VALUE);
+			if(offset - end > MERGE_GAP) {
+				viewer.invalidateTextPresentation(start, end - start);
+				start = end = offset;
+			}
+			if(j < count) {
+				end = Math.max(end, offset + ((int)(regions[j] >>> 8) & 0xFFFFFF));
+			}
+		}
+	}
+	
+	/**
+	 * Find the first range that ends after the specified offset, the ranges don't overlap so their ends are
+	 * sorted as well.
+	 */
+	private int findEndingAfter(int offset) {
+		int lo = 0;
+		int hi = mSize;
+		while(lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(mOffsets[mid] + mLengths[mid] > offset) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+	
+	@Override
+	public void applyTextPresentation(TextPresentation presentation) {
+		final IRegion extent = presentation.getExtent();
+		final int start = extent.getOffset();
+		final int end = start + extent.getLength();
+		final int top = mViewer.getTopIndexStartOffset();
+		final int bottom = mViewer.getBottomIndexEndOffset();
+		
+		final int first = findEndingAfter(start);
+		int last = first;
+		while(last < mSize && mOffsets[last] < end) {
+			last++;
+		}
+		if(first == last) {
+			return;
+		}
+		
+		final StyleRange[] ranges = new StyleRange[last - first];
+		int count = 0;
+		for(int j = first; j < last; j++) {
+			final int offset = mOffsets[j];
+			final int length = mLengths[j];
+			if(offset + length < top || offset > bottom) {
+				// The lexical style was presented, present the semantic one when the range becomes visible
+				mDirty[j] = true;
+				continue;
+			}
+			final int from = Math.max(offset, start);
+			final int to = Math.min(offset + length, end);
+			ranges[count++] = createStyleRange(from, to - from, mAttributes[mKinds[j]]);
+			mDirty[j] = false;
+		}
+		if(count > 0) {
+			presentation.mergeStyleRanges(Arrays.copyOf(ranges, count));
+		}
+	}
+	
+	private static StyleRange createStyleRange(int offset, int length, TextAttribute attr) {
+		final int style = attr.getStyle();
+		final StyleRange range = new StyleRange(offset, length, attr.getForeground(), attr.getBackground(),
+				style & (SWT.BOLD | SWT.ITALIC));
+		range.underline = ((style & TextAttribute.UNDERLINE) != 0);
+		range.strikeout = ((style & TextAttribute.STRIKETHROUGH) != 0);
+		range.font = attr.getFont();
+		return range;
+	}
+	
+	@Override
+	public void viewportChanged(int verticalOffset) {
+		refresh();
+	}
+	
+	@Override
+	public void inputDocumentAboutToBeChanged(IDocument oldInput, IDocument newInput) {
+		if(oldInput != null) {
+			oldInput.removePrenotifiedDocumentListener(this);
+		}
+		mDocument = null;
+		mSize = 0;
+	}
+	
+	@Override
+	public void inputDocumentChanged(IDocument oldInput, IDocument newInput) {
+		if(newInput != null) {
+			// Notified before the viewer, so the ranges are shifted before the damage is presented
+			newInput.addPrenotifiedDocumentListener(this);
+		}
+		mDocument = newInput;
+	}
+	
+	@Override
+	public void documentAboutToBeChanged(DocumentEvent event) {
+		
+	}
+	
+	@Override
+	public void documentChanged(DocumentEvent event) {
+		final int offset = event.getOffset();
+		final int end = offset + event.getLength();
+		final int delta = (event.getText() != null ? event.getText().length() : 0) - event.getLength();
+		
+		// Drop the ranges that were changed, they are presented lexically until the next update
+		final int first = findEndingAfter(offset);
+		int last = first;
+		while(last < mSize && mOffsets[last] < end) {
+			last++;
+		}
+		final int removed = last - first;
+		if(removed > 0) {
+			System.arraycopy(mOffsets, last, mOffsets, first, mSize - last);
+			System.arraycopy(mLengths, last, mLengths, first, mSize - last);
+			System.arraycopy(mKinds, last, mKinds, first, mSize - last);
+			System.arraycopy(mDirty, last, mDirty, first, mSize - last);
+			mSize -= removed;
+		}
+		for(int j = first; j < mSize; j++) {
+			mOffsets[j] += delta;
+		}
+	}
+}
@@ -0,0 +1,408 @@
+package net.feichti.microjavaeditor.microjava;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.feichti.microjavaeditor.antlr4.MicroJavaLexer;
+
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.Token;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+
+/**
+ * Keeps the tokens of a MicroJava document and updates them incrementally when the document is changed.
+ * <p>
+ * The cache is registered as a prenotified document listener, so it is updated before any other listener
+ * (like the presentation reconciler or the {@link MJFileModel}) is notified of a change. On every change the
+ * document is lexed again starting at the last token that is not affected by the change, until the lexer
+ * reaches a token boundary after the changed region that matches a boundary of the old token stream. The
+ * remaining old tokens are only shifted, so typing in a large file only lexes a few tokens.
+ * <p>
+ * Most tokens only depend on the character following them, but a {@code Comment} containing an unbalanced
+ * {@code /*} or a {@code '/'} that starts an unclosed comment depend on the rest of the document. For every
+ * token the last character the lexer looked at is remembered, so lexing starts at the first token that looked
+ * at the changed region.
+ * <p>
+ * The tokens are stored in parallel arrays to keep the cache small for large documents, {@link Token}
+ * objects are only created when they are requested by {@link #getTokens(int, int)}.
+ *
+ * @author Peter
+ */
+public class MJTokenCache implements IDocumentListener
+{
+	/**
+	 * A document input stream that records the last character index the lexer looked at.
+	 */
+	private static class LookaheadInputStream extends MJDocumentCharStream
+	{
+		int mMaxIndex;
+		
+		public LookaheadInputStream(IDocument document) {
+			super(document);
+		}
+		
+		@Override
+		public int LA(int i) {
+			if(i > 0) {
+				mMaxIndex = Math.max(mMaxIndex, p + i - 1);
+			}
+			return super.LA(i);
+		}
+	}
+	
+	private static final int INITIAL_CAPACITY = 256;
+	
+	/** The text of tokens with a fixed text, indexed by type, {@code null} for other types. */
+	private static final String[] sFixedText;
+	
+	static {
+		final String[] names = MicroJavaLexer.tokenNames;
+		sFixedText = new String[names.length];
+		for(int j = 0; j < names.length; j++) {
+			final String name = names[j];
+			if(name != null && name.length() > 2 && name.startsWith("'") && name.endsWith("'")) {
+				sFixedText[j] = name.substring(1, name.length() - 1);
+			}
+		}
+	}
+	
+	private final IDocument mDocument;
+	
+	/** The number of cached tokens, {@code -1} if the document has not been lexed. */
+	private int mCount = -1;
+	private int[] mType = new int[INITIAL_CAPACITY];
+	private int[] mChannel = new int[INITIAL_CAPACITY];
+	private int[] mStart = new int[INITIAL_CAPACITY];
+	private int[] mStop = new int[INITIAL_CAPACITY];
+	private int[] mLine = new int[INITIAL_CAPACITY];
+	private int[] mCol = new int[INITIAL_CAPACITY];
+	/** The last character index the lexer looked at for each token. */
+	private int[] mReach = new int[INITIAL_CAPACITY];
+	/** The maximum of {@link #mReach} up to each token, used to find the first token affected by a change. */
+	private int[] mReachMax = new int[INITIAL_CAPACITY];
+	/** The text of tokens that don't have a fixed text, {@code null} for hidden tokens. */
+	private String[] mText = new String[INITIAL_CAPACITY];
+	/** Line and column of the end of the document. */
+	private int mEofLine, mEofCol;
+	/** The length of the document when it was last lexed. */
+	private int mLength;
+	
+	/** The last document change, used to report the region that was lexed again. */
+	private DocumentEvent mLastEvent;
+	private int mLastDamageStart, mLastDamageEnd;
+	
+	/**
+	 * Create a new token cache for the specified document.
+	 * <p>
+	 * The cache needs to be connected to the document using {@link #connect()} before it is used.
+	 *
+	 * @param document The document
+	 */
+	public MJTokenCache(IDocument document) {
+		mDocument = document;
+	}
+	
+	/**
+	 * Lex the whole document and start listening for changes.
+	 */
+	public void connect() {
+		mDocument.addPrenotifiedDocumentListener(this);
+		synchronized(this) {
+			relex(0, 0, 0);
+		}
+	}
+	
+	/**
+	 * Stop listening for document changes and release the cached tokens.
+	 */
+	public void disconnect() {
+		mDocument.removePrenotifiedDocumentListener(this);
+		synchronized(this) {
+			mCount = -1;
+			mLastEvent = null;
+		}
+	}
+	
+	/**
+	 * Get the document of this cache.
+	 */
+	public IDocument getDocument() {
+		return mDocument;
+	}
+	
+	@Override
+	public void documentAboutToBeChanged(DocumentEvent event) {
+		
+	}
+	
+	@Override
+	public synchronized void documentChanged(DocumentEvent event) {
+		if(mCount < 0) {
+			return;
+		}
+		final int inserted = (event.getText() != null ? event.getText().length() : 0);
+		relex(event.getOffset(), event.getOffset() + inserted, inserted - event.getLength());
+		mLastEvent = event;
+	}
+	
+	/**
+	 * Get the region that was lexed again because of the specified document change.
+	 * <p>
+	 * This is used by the presentation reconciler to repair only the tokens that actually changed.
+	 *
+	 * @param event The document event
+	 * @return The changed region, or {@code null} if the event is not the last change of the document
+	 */
+	public synchronized IRegion getDamage(DocumentEvent event) {
+		if(event == null || event != mLastEvent) {
+			return null;
+		}
+		return new Region(mLastDamageStart, mLastDamageEnd - mLastDamageStart);
+	}
+	
+	/**
+	 * Get the number of cached tokens, including hidden ones.
+	 */
+	public synchronized int getTokenCount() {
+		return Math.max(mCount, 0);
+	}
+	
+	/**
+	 * Get the tokens on the default channel that lie completely inside the specified range, followed by an
+	 * {@code EOF} token at the end of the range.
+	 * <p>
+	 * The returned tokens are new objects that don't depend on the document or this cache, so they can be
+	 * used by the parser on another thread. If the range extends to the end of the document, the {@code EOF}
+	 * token is placed at the end of the document.
+	 *
+	 * @param startOffset The start offset of the range
+	 * @param endOffset The end offset (exclusive) of the range
+	 * @return A list of tokens, sorted by position
+	 */
+	public synchronized List<Token> getTokens(int startOffset, int endOffset) {
+		final int count = Math.max(mCount, 0);
+		int j = findToken(startOffset);
+		final List<Token> ret = new ArrayList<>();
+		int eofLine = 1, eofCol = 0;
+		for(; j < count && mStop[j] < endOffset; j++) {
+			if(mChannel[j] != Token.DEFAULT_CHANNEL || mStart[j] < startOffset) {
+				continue;
+			}
+			final int type = mType[j];
+			CommonToken t = new CommonToken(type, (sFixedText[type] != null ? sFixedText[type] : mText[j]));
+			t.setStartIndex(mStart[j]);
+			t.setStopIndex(mStop[j]);
+			t.setLine(mLine[j]);
+			t.setCharPositionInLine(mCol[j]);
+			ret.add(t);
+			eofLine = t.getLine();
+			eofCol = t.getCharPositionInLine() + t.getText().length();
+		}
+		
+		final int eofStart = Math.min(endOffset, mLength);
+		if(eofStart == mLength) {
+			eofLine = mEofLine;
+			eofCol = mEofCol;
+		}
+		CommonToken eof = new CommonToken(Token.EOF, "<EOF>");
+		eof.setStartIndex(eofStart);
+		eof.setStopIndex(eofStart - 1);
+		eof.setLine(eofLine);
+		eof.setCharPositionInLine(eofCol);
+		ret.add(eof);
+		return ret;
+	}
+	
+	/**
+	 * Find the first token that ends at or after the specified offset.
+	 *
+	 * @param offset The document offset
+	 * @return The token index, or the number of tokens if there is none
+	 */
+	private int findToken(int offset) {
+		int low = 0;
+		int high = mCount - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			if(mStop[mid] < offset) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Lex the changed region of the document again and merge the new tokens with the cached ones.
+	 *
+	 * @param damageStart Start of the changed region
+	 * @param damageEnd End (exclusive) of the changed region in the current document
+	 * @param delta The change in document length
+	 */
+	private void relex(int damageStart, int damageEnd, int delta) {
+		assert Thread.holdsLock(this);
+		final LookaheadInputStream input = new LookaheadInputStream(mDocument);
+		final int count = Math.max(mCount, 0);
+		
+		// Find the first token that needs to be lexed again, that is the first one the lexer looked past
+		int low = 0;
+		int high = count - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			if(mReachMax[mid] < damageStart) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		final int first = low;
+		final int start = (first > 0 ? mStop[first - 1] + 1 : 0);
+		
+		// Determine line and column at the start, the lexer only counts '\n'
+		int line = 1, col = 0;
+		if(first > 0) {
+			line = mLine[first - 1];
+			col = mCol[first - 1];
+			for(input.seek(mStart[first - 1]); input.index() < start; input.consume()) {
+				if(input.LA(1) == '\n') {
+					line++;
+					col = 0;
+				} else {
+					col++;
+				}
+			}
+		}
+		
+		MicroJavaLexer lexer = MJParserPool.acquireLexer(input);
+		lexer.removeErrorListeners();
+		input.seek(start);
+		lexer.setLine(line);
+		lexer.setCharPositionInLine(col);
+		
+		// Lex until the end of a new token matches the end of an old token after the damaged region
+		final List<CommonToken> lexed = new ArrayList<>();
+		int[] reach = new int[16];
+		int old = first;
+		int resync = -1;
+		int end = start;
+		while(true) {
+			input.mMaxIndex = input.index();
+			final Token t = lexer.nextToken();
+			if(t.getType() == Token.EOF) {
+				end = input.size();
+				break;
+			}
+			if(lexed.size() == reach.length) {
+				reach = Arrays.copyOf(reach, reach.length * 2);
+			}
+			reach[lexed.size()] = input.mMaxIndex;
+			lexed.add((CommonToken)t);
+			end = t.getStopIndex() + 1;
+			if(end < damageEnd) {
+				continue;
+			}
+			while(old < count && mStop[old] + 1 + delta < end) {
+				old++;
+			}
+			if(old + 1 < count && mStop[old] + 1 + delta == end && mStart[old + 1] + delta == end) {
+				resync = old + 1;
+				break;
+			}
+		}
+		
+		final int lexerLine = lexer.getLine();
+		final int lexerCol = lexer.getCharPositionInLine();
+		MJParserPool.releaseLexer(lexer);
+		
+		// Replace the old tokens with the new ones and shift the remaining tokens
+		final int removed = (resync >= 0 ? resync : count) - first;
+		final int suffix = first + lexed.size();
+		final int newCount = count - removed + lexed.size();
+		ensureCapacity(newCount);
+		if(resync >= 0) {
+			final int lineDelta = lexerLine - mLine[resync];
+			final int colDelta = lexerCol - mCol[resync];
+			final int resyncLine = mLine[resync];
+			if(mEofLine == resyncLine) {
+				mEofCol += colDelta;
+			}
+			mEofLine += lineDelta;
+			moveTokens(resync, suffix, count - resync);
+			for(int j = suffix; j < newCount; j++) {
+				if(mLine[j] == resyncLine) {
+					mCol[j] += colDelta;
+				}
+				mLine[j] += lineDelta;
+				mStart[j] += delta;
+				mStop[j] += delta;
+				mReach[j] += delta;
+			}
+		} else {
+			mEofLine = lexerLine;
+			mEofCol = lexerCol;
+		}
+		for(int j = 0; j < lexed.size(); j++) {
+			final CommonToken t = lexed.get(j);
+			final int idx = first + j;
+			mType[idx] = t.getType();
+			mChannel[idx] = t.getChannel();
+			mStart[idx] = t.getStartIndex();
+			mStop[idx] = t.getStopIndex();
+			mLine[idx] = t.getLine();
+			mCol[idx] = t.getCharPositionInLine();
+			mReach[idx] = reach[j];
+			mText[idx] = (t.getChannel() == Token.DEFAULT_CHANNEL && sFixedText[t.getType()] == null
+					? t.getText() : null);
+		}
+		if(newCount < count) {
+			// Release the text of tokens that are no longer used
+			Arrays.fill(mText, newCount, count, null);
+		}
+		for(int j = first; j < newCount; j++) {
+			mReachMax[j] = (j > 0 ? Math.max(mReachMax[j - 1], mReach[j]) : mReach[j]);
+		}
+		mCount = newCount;
+		mLength = input.size();
+		mLastDamageStart = start;
+		mLastDamageEnd = end;
+	}
+	
+	/**
+	 * Move a range of tokens inside the token arrays.
+	 */
+	private void moveTokens(int from, int to, int length) {
+		System.arraycopy(mType, from, mType, to, length);
+		System.arraycopy(mChannel, from, mChannel, to, length);
+		System.arraycopy(mStart, from, mStart, to, length);
+		System.arraycopy(mStop, from, mStop, to, length);
+		System.arraycopy(mLine, from, mLine, to, length);
+		System.arraycopy(mCol, from, mCol, to, length);
+		System.arraycopy(mReach, from, mReach, to, length);
+		System.arraycopy(mText, from, mText, to, length);
+	}
+	
+	/**
+	 * Grow the token arrays so they can hold at least the specified number of tokens.
+	 */
+	private void ensureCapacity(int capacity) {
+		if(capacity <= mType.length) {
+			return;
+		}
+		final int size = Math.max(capacity, mType.length + (mType.length >> 1));
+		mType = Arrays.copyOf(mType, size);
+		mChannel = Arrays.copyOf(mChannel, size);
+		mStart = Arrays.copyOf(mStart, size);
+		mStop = Arrays.copyOf(mStop, size);
+		mLine = Arrays.copyOf(mLine, size);
+		mCol = Arrays.copyOf(mCol, size);
+		mReach = Arrays.copyOf(mReach, size);
+		mReachMax = Arrays.copyOf(mReachMax, size);
+		mText = Arrays.copyOf(mText, size);
+	}
+}
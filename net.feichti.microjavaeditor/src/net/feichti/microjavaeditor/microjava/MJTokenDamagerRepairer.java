@@ -0,0 +1,52 @@
+package net.feichti.microjavaeditor.microjava;
+
+import net.feichti.microjavaeditor.MJEditor;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.rules.DefaultDamagerRepairer;
+import org.eclipse.jface.text.rules.ITokenScanner;
+
+/**
+ * A damager/repairer that uses the {@link MJTokenCache} of the editor to determine the damaged region.
+ * <p>
+ * The token cache is updated before the presentation reconciler is notified of a change, so the region that
+ * was lexed again is known and only the tokens that actually changed need to be repaired, instead of every line
+ * touched by the change. If the token cache is not available, the damaged lines are repaired as usual.
+ *
+ * @author Peter
+ */
+public class MJTokenDamagerRepairer extends DefaultDamagerRepairer
+{
+	private final MJEditor mEditor;
+	
+	/**
+	 * Create a new damager/repairer for the specified editor.
+	 *
+	 * @param editor The editor
+	 * @param scanner The scanner used to repair damaged regions
+	 */
+	public MJTokenDamagerRepairer(MJEditor editor, ITokenScanner scanner) {
+		super(scanner);
+		mEditor = editor;
+	}
+	
+	@Override
+	public IRegion getDamageRegion(ITypedRegion partition, DocumentEvent e, boolean documentPartitioningChanged) {
+		MJTokenCache cache = mEditor.getFileModel().getTokenCache();
+		IRegion damage = (cache != null && cache.getDocument() == fDocument ? cache.getDamage(e) : null);
+		if(damage == null || documentPartitioningChanged) {
+			return super.getDamageRegion(partition, e, documentPartitioningChanged);
+		}
+		
+		final int start = Math.max(partition.getOffset(), damage.getOffset());
+		final int end = Math.min(partition.getOffset() + partition.getLength(),
+				damage.getOffset() + damage.getLength());
+		if(end < start) {
+			return super.getDamageRegion(partition, e, documentPartitioningChanged);
+		}
+		return new Region(start, end - start);
+	}
+}
@@ -0,0 +1,217 @@
+package net.feichti.microjavaeditor.microjava;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.feichti.microjavaeditor.util.SourceRegion;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * An immutable index of the token positions of a parse, sorted by position.
+ * <p>
+ * The start and stop offsets of the tokens are kept in parallel {@code int} arrays, so position searches only
+ * touch primitive arrays and the index does not keep the tokens or the parse tree alive.
+ * <p>
+ * An index is created by a {@link Builder} that is added to the parser as a parse listener, so the index is
+ * filled in the same pass that consumes the tokens.
+ * 
+ * @author Peter
+ */
+public class MJTokenIndex
+{
+	/**
+	 * Collects the positions of the terminal nodes created by the parser, error nodes are ignored.
+	 */
+	public static class Builder implements ParseTreeListener
+	{
+		private int[] mStart = new int[256];
+		private int[] mStop = new int[256];
+		private int mSize;
+		
+		/**
+		 * Discard the nodes collected so far, e.g. when the parser is reset to parse again.
+		 */
+		public void reset() {
+			mSize = 0;
+		}
+		
+		/**
+		 * Create an index of the nodes collected so far.
+		 */
+		public MJTokenIndex build() {
+			return new MJTokenIndex(Arrays.copyOf(mStart, mSize), Arrays.copyOf(mStop, mSize));
+		}
+		
+		@Override
+		public void visitTerminal(TerminalNode node) {
+			if(mSize == mStart.length) {
+				final int size = mSize * 2;
+				mStart = Arrays.copyOf(mStart, size);
+				mStop = Arrays.copyOf(mStop, size);
+			}
+			final Token t = node.getSymbol();
+			mStart[mSize] = t.getStartIndex();
+			mStop[mSize] = t.getStopIndex();
+			mSize++;
+		}
+		
+		@Override
+		public void visitErrorNode(ErrorNode node) {
+			
+		}
+		
+		@Override
+		public void enterEveryRule(ParserRuleContext ctx) {
+			
+		}
+		
+		@Override
+		public void exitEveryRule(ParserRuleContext ctx) {
+			
+		}
+	}
+	
+	private final int[] mStart;
+	private final int[] mStop;
+	
+	private MJTokenIndex(int[] start, int[] stop) {
+		mStart = start;
+		mStop = stop;
+	}
+	
+	/**
+	 * Get the number of tokens in this index.
+	 */
+	public int size() {
+		return mStart.length;
+	}
+	
+	/**
+	 * Get the start offset of the token with the specified index.
+	 */
+	public int getStart(int index) {
+		return mStart[index];
+	}
+	
+	/**
+	 * Get the stop offset (inclusive) of the token with the specified index.
+	 */
+	public int getStop(int index) {
+		return mStop[index];
+	}
+	
+	/**
+	 * Get the region of the token with the specified index.
+	 */
+	public SourceRegion getRegion(int index) {
+		return new SourceRegion(mStart[index], mStop[index] - mStart[index] + 1);
+	}
+	
+	/**
+	 * Find the token starting at the specified offset.
+	 * 
+	 * @param offset The start offset of the token
+	 * @return The index of the token, or {@code -1} if there is none
+	 */
+	public int indexOf(int offset) {
+		final int ret = Arrays.binarySearch(mStart, offset);
+		return (ret >= 0 ? ret : -1);
+	}
+	
+	/**
+	 * Create a new index with a range of tokens replaced by the tokens of another index.
+	 * <p>
+	 * The offsets of the tokens after the replaced range are shifted by the specified amount.
+	 * 
+	 * @param from Index of the first token to replace
+	 * @param to Index of the last token to replace
+	 * @param replacement The new tokens
+	 * @param delta The change in document length
+	 * @return The new index
+	 */
+	public MJTokenIndex splice(int from, int to, MJTokenIndex replacement, int delta) {
+		final int size = mStart.length - (to - from + 1) + replacement.size();
+		final int suffix = from + replacement.size();
+		final int[] start = new int[size];
+		final int[] stop = new int[size];
+		System.arraycopy(mStart, 0, start, 0, from);
+		System.arraycopy(mStop, 0, stop, 0, from);
+		System.arraycopy(replacement.mStart, 0, start, from, replacement.size());
+		System.arraycopy(replacement.mStop, 0, stop, from, replacement.size());
+		for(int j = suffix, k = to + 1; j < size; j++, k++) {
+			start[j] = mStart[k] + delta;
+			stop[j] = mStop[k] + delta;
+		}
+		return new MJTokenIndex(start, stop);
+	}
+	
+	/**
+	 * Get the tokens that are nearest to the specified offset, see {@link MJFileModel#getTokensForOffset(int)}.
+	 * 
+	 * @param offset The 0-based offset in the document
+	 * @param target The list the token regions are added to, sorted by position
+	 */
+	public void getTokensForOffset(final int offset, List<SourceRegion> target) {
+		final int maxIdx = mStart.length - 1;
+		if(maxIdx < 0) {
+			return;
+		}
+		
+		// Corner cases: offset is before first or after last token
+		if(offset < mStart[0]) {
+			target.add(getRegion(0));
+			return;
+		} else if(mStop[maxIdx] + 1 < offset) {
+			target.add(getRegion(maxIdx));
+			return;
+		}
+		
+		// Do a binary search (token positions are increasing)
+		int low = 0;
+		int high = maxIdx;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int start = mStart[mid];
+			final int stop = mStop[mid];
+			
+			if(start > offset) {
+				high = mid - 1;
+				
+			} else if(stop + 1 < offset) {
+				low = mid + 1;
+				
+			} else if(start == offset) {
+				if(mid > 0 && mStop[mid - 1] + 1 == offset) {
+					// Adjacent tokens, add both
+					target.add(getRegion(mid - 1));
+				}
+				target.add(getRegion(mid));
+				return;
+				
+			} else if(stop + 1 == offset) {
+				target.add(getRegion(mid));
+				if(mid < maxIdx && mStart[mid + 1] == offset) {
+					// Adjacent tokens, add both
+					target.add(getRegion(mid + 1));
+				}
+				return;
+				
+			} else {
+				assert start < offset && stop >= offset;
+				target.add(getRegion(mid));
+				return;
+			}
+		}
+		
+		// No tokens matched the offset exactly, return the nearest two
+		assert low > 0 && low <= maxIdx;
+		assert mStart[low] > offset;
+		target.add(getRegion(low - 1));
+		target.add(getRegion(low));
+	}
+}
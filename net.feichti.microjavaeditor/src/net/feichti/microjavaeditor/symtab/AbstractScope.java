@@ -1,5 +1,7 @@
 package net.feichti.microjavaeditor.symtab;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -56,6 +58,11 @@ public abstract class AbstractScope implements Scope
 		return null;
 	}
 	
+	@Override
+	public Collection<Symbol> getSymbols() {
+		return Collections.unmodifiableCollection(mSymbols.values());
+	}
+	
 	/**
 	 * Determine whether a symbol from this scope is hiding a symbol from an enclosing scope.
 	 * 
@@ -1,5 +1,7 @@
 package net.feichti.microjavaeditor.symtab;
 
+import java.util.Collection;
+
 /**
  * Defines the interface for a symbol table scope.
  * 
@@ -49,4 +51,11 @@ public interface Scope
 	 * @return The type, or {@code null} if no type symbol with the specified name is defined
 	 */
 	public Type resolveType(String name);
+	
+	/**
+	 * Get the symbols defined directly in this scope, enclosing scopes are not included.
+	 * 
+	 * @return An unmodifiable collection of the symbols in definition order
+	 */
+	public Collection<Symbol> getSymbols();
 }
@@ -10,6 +10,7 @@ public class Symbol
 	private final String mName;
 	private Type mType;
 	private Scope mScope;
+	private int mDeclaration = -1;
 	
 	/**
 	 * Create a new symbol with the specified name and type without a scope.
@@ -69,6 +70,22 @@ public class Symbol
 		mScope = scope;
 	}
 	
+	/**
+	 * Get the id of the AST node that declares this symbol, see {@link SymbolTable}.
+	 * 
+	 * @return The node id, or {@code -1} for builtin symbols
+	 */
+	public int getDeclaration() {
+		return mDeclaration;
+	}
+	
+	/**
+	 * Set the id of the AST node that declares this symbol.
+	 */
+	public void setDeclaration(int declaration) {
+		mDeclaration = declaration;
+	}
+	
 	@Override
 	public String toString() {
 		if(mType != null) {
@@ -1,5 +1,7 @@
 package net.feichti.microjavaeditor.symtab;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -42,6 +44,17 @@ public abstract class SymbolScope extends Symbol implements Scope
 		return s;
 	}
 	
+	/**
+	 * Get a symbol defined directly in this scope, enclosing scopes are not searched. This is used to look up
+	 * the fields of a class.
+	 * 
+	 * @param name The symbol name
+	 * @return The symbol, or {@code null} if no symbol with the specified name is defined in this scope
+	 */
+	public Symbol getMember(String name) {
+		return mSymbols.get(name);
+	}
+	
 	@Override
 	public boolean isDefined(String name) {
 		if(mSymbols.containsKey(name)) {
@@ -61,6 +74,11 @@ public abstract class SymbolScope extends Symbol implements Scope
 		return null;
 	}
 	
+	@Override
+	public Collection<Symbol> getSymbols() {
+		return Collections.unmodifiableCollection(mSymbols.values());
+	}
+	
 	/**
 	 * Get the kind of this symbol. Subclasses can specify this way what kind of symbol they are, for example
 	 * a class or method symbol.
@@ -1,23 +1,22 @@
 package net.feichti.microjavaeditor.symtab;
 
-import java.util.Map;
-
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeProperty;
-
 /**
  * Represents a MicroJava symbol table, defines the symbols available in every MicroJava program.
  * <p>
  * Subclasses may override {@link #initUniverse()} to control which global symbols are created when a symbol
  * table is instantiated.
+ * <p>
+ * Scopes and symbols of a program are kept in arrays indexed by the dense id of the AST node that defines or
+ * declares them, that is its index in the {@code MJContainerIndex} of the program. Looking them up does not
+ * need any hashing.
  * 
  * @author Peter
  */
 public class SymbolTable
 {
 	private final GlobalScope mUniverse = new GlobalScope();
-	private ParseTreeProperty<Scope> mScopes;
-	private Map<Symbol, ParseTree> mDeclarations;
+	private Scope[] mScopes;
+	private Symbol[] mSymbols;
 	
 	/**
 	 * Create a new symbol table with the default global symbols.
@@ -48,49 +47,68 @@ public class SymbolTable
 	}
 	
 	/**
-	 * Get the {@link ParseTreeProperty} for the scope annotations.
+	 * Get the scope annotations, an array associating AST node ids with the scopes they define.
 	 */
-	public ParseTreeProperty<Scope> getScopes() {
+	public Scope[] getScopes() {
 		return mScopes;
 	}
 	
 	/**
-	 * Set the {@link ParseTreeProperty} for the scope annotations.
+	 * Set the scope annotations.
 	 */
-	public void setScopes(ParseTreeProperty<Scope> scopes) {
+	public void setScopes(Scope[] scopes) {
 		mScopes = scopes;
 	}
 	
 	/**
-	 * Get the declaration map, a map associating symbols with their declaration sites.
+	 * Get the symbol annotations, an array associating AST node ids with the symbols they declare. The reverse
+	 * mapping is available from {@link Symbol#getDeclaration()}.
 	 */
-	public Map<Symbol, ParseTree> getDeclarations() {
-		return mDeclarations;
+	public Symbol[] getSymbols() {
+		return mSymbols;
 	}
-
+	
 	/**
-	 * Set the declaration map.
+	 * Set the symbol annotations.
 	 */
-	public void setDeclarations(Map<Symbol, ParseTree> declarations) {
-		mDeclarations = declarations;
+	public void setSymbols(Symbol[] symbols) {
+		mSymbols = symbols;
 	}
-
+	
+	/**
+	 * Get the scope defined by the AST node with the specified id.
+	 * 
+	 * @return The scope, or {@code null} if the node does not define one
+	 */
+	public Scope getScope(int node) {
+		return mScopes[node];
+	}
+	
+	/**
+	 * Get the symbol declared by the AST node with the specified id.
+	 * 
+	 * @return The symbol, or {@code null} if the node does not declare one
+	 */
+	public Symbol getSymbol(int node) {
+		return mSymbols[node];
+	}
+	
 	/**
 	 * Resolve a symbol in the specified context. The symbol is resolved in the scope associated with the
-	 * specified context, or the next parent context, if one can be found.
+	 * specified node, or in the scope the node is declared in if it does not define a scope itself.
 	 * 
 	 * @param name The symbol name to resolve
-	 * @param context The context to resolve the symbol in
-	 * @return The symbol, or {@code null} if no scope for the context is found or no symbol with the
+	 * @param node The id of the node to resolve the symbol in
+	 * @return The symbol, or {@code null} if no scope for the node is found or no symbol with the
 	 *         specified name is defined
 	 */
-	public Symbol resolve(String name, ParseTree context) {
-		ParseTree next = context;
-		Scope scope = null;
-		
-		while(scope == null && next != null) {
-			scope = mScopes.get(next);
-			next = next.getParent();
+	public Symbol resolve(String name, int node) {
+		if(node < 0 || node >= mScopes.length) {
+			return null;
+		}
+		Scope scope = mScopes[node];
+		if(scope == null && mSymbols[node] != null) {
+			scope = mSymbols[node].getScope();
 		}
 		
 		if(scope != null) {
@@ -60,6 +60,10 @@ public class MJColorManager
 	public static final RGB OPERATOR = new RGB(128, 0, 255);
 	public static final RGB BRACKET = new RGB(0, 0, 0);
 	public static final RGB MAIN_METHOD = new RGB(0, 0, 0);
+	public static final RGB FIELD = new RGB(0, 0, 192);
+	public static final RGB LOCAL = new RGB(106, 62, 62);
+	public static final RGB GLOBAL = new RGB(0, 0, 192);
+	public static final RGB METHOD = new RGB(0, 64, 128);
 	
 	public static final KeywordStyle COMMENT_STYLE = new KeywordStyle(COMMENT);
 	public static final KeywordStyle TASK_TAG_STYLE = new KeywordStyle(TASK_TAG, true, false, true);
@@ -74,6 +78,10 @@ public class MJColorManager
 	public static final KeywordStyle OPERATOR_STYLE = new KeywordStyle(OPERATOR);
 	public static final KeywordStyle BRACKET_STYLE = new KeywordStyle(BRACKET);
 	public static final KeywordStyle MAIN_METHOD_STYLE = new KeywordStyle(MAIN_METHOD, true, false);
+	public static final KeywordStyle FIELD_STYLE = new KeywordStyle(FIELD);
+	public static final KeywordStyle LOCAL_STYLE = new KeywordStyle(LOCAL);
+	public static final KeywordStyle GLOBAL_STYLE = new KeywordStyle(GLOBAL, false, true);
+	public static final KeywordStyle METHOD_STYLE = new KeywordStyle(METHOD);
 	
 	protected Map<RGB, Color> mColorTable = new HashMap<>(10);
 	
@@ -3,17 +3,13 @@ package net.feichti.microjavaeditor.util;
 import java.util.Iterator;
 
 import net.feichti.microjavaeditor.MicroJavaEditorPlugin;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ClassDeclContext;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ConstDeclContext;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.FormParsContext;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.MethodDeclContext;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ParamContext;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.ProgContext;
-import net.feichti.microjavaeditor.antlr4.MicroJavaParser.TypeContext;
-import net.feichti.microjavaeditor.microjava.MJFileModel.VariableKind;
+import net.feichti.microjavaeditor.ast.MJClassDecl;
+import net.feichti.microjavaeditor.ast.MJConstDecl;
+import net.feichti.microjavaeditor.ast.MJMethodDecl;
+import net.feichti.microjavaeditor.ast.MJProgram;
+import net.feichti.microjavaeditor.ast.MJType;
+import net.feichti.microjavaeditor.ast.MJVarDecl;
 
-import org.antlr.v4.runtime.tree.ParseTree;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.viewers.BaseLabelProvider;
 import org.eclipse.jface.viewers.DecorationOverlayIcon;
@@ -76,54 +72,46 @@ public class MJLabelProvider extends BaseLabelProvider implements IStyledLabelPr
 	@Override
 	public StyledString getStyledText(Object element) {
 		String name, type;
+		if(element instanceof MJOutlineElement) {
+			element = ((MJOutlineElement)element).getNode();
+		}
 		
-		if(element instanceof ClassDeclContext) {
-			ClassDeclContext clazz = (ClassDeclContext)element;
-			name = getText(clazz.Ident(), UNNAMED);
+		if(element instanceof MJClassDecl) {
+			MJClassDecl clazz = (MJClassDecl)element;
+			name = getText(clazz.getName(), UNNAMED);
 			type = "";
 			
-		} else if(element instanceof VarDeclWrapper) {
-			VarDeclWrapper var = (VarDeclWrapper)element;
-			name = getText(var.getIdent(), UNNAMED);
+		} else if(element instanceof MJVarDecl) {
+			MJVarDecl var = (MJVarDecl)element;
+			name = getText(var.getName(), UNNAMED);
 			type = getText(var.getType(), UNKNOWN);
 			
-		} else if(element instanceof ConstDeclContext) {
-			ConstDeclContext con = (ConstDeclContext)element;
-			name = getText(con.Ident(), UNNAMED);
-			type = getText(con.type(), UNKNOWN);
+		} else if(element instanceof MJConstDecl) {
+			MJConstDecl con = (MJConstDecl)element;
+			name = getText(con.getName(), UNNAMED);
+			type = getText(con.getType(), UNKNOWN);
 			
-		} else if(element instanceof MethodDeclContext) {
-			MethodDeclContext method = (MethodDeclContext)element;
+		} else if(element instanceof MJMethodDecl) {
+			MJMethodDecl method = (MJMethodDecl)element;
 			StringBuilder sb = new StringBuilder()
-					.append(getText(method.Ident(), UNNAMED))
+					.append(getText(method.getName(), UNNAMED))
 					.append('(');
 			
-			FormParsContext pars = method.formPars();
-			if(pars != null) {
-				Iterator<ParamContext> params = pars.param().iterator();
-				if(params.hasNext()) {
-					sb.append(getText(params.next().type(), "??"));
-				}
-				while(params.hasNext()) {
-					sb.append(", ");
-					sb.append(getText(params.next().type(), "??"));
-				}
+			Iterator<MJVarDecl> params = method.getParams().iterator();
+			if(params.hasNext()) {
+				sb.append(getText(params.next().getType(), "??"));
+			}
+			while(params.hasNext()) {
+				sb.append(", ");
+				sb.append(getText(params.next().getType(), "??"));
 			}
 			sb.append(')');
 			name = sb.toString();
+			type = getText(method.getReturnType(), UNKNOWN);
 			
-			TypeContext t = method.type();
-			if(t != null) {
-				type = t.getText();
-			} else if(method.getToken(MicroJavaParser.VOID, 0) != null) {
-				type = "void";
-			} else {
-				type = UNKNOWN;
-			}
-			
-		} else if(element instanceof ProgContext) {
-			ProgContext prog = (ProgContext)element;
-			name = getText(prog.Ident(), UNNAMED);
+		} else if(element instanceof MJProgram) {
+			MJProgram prog = (MJProgram)element;
+			name = getText(prog.getName(), UNNAMED);
 			type = "program";
 			
 		} else if(element instanceof String) {
@@ -146,26 +134,26 @@ public class MJLabelProvider extends BaseLabelProvider implements IStyledLabelPr
 	@Override
 	public Image getImage(Object element) {
 		String key = null;
-		if(element instanceof ClassDeclContext) {
+		if(element instanceof MJOutlineElement) {
+			element = ((MJOutlineElement)element).getNode();
+		}
+		if(element instanceof MJClassDecl) {
 			key = MicroJavaEditorPlugin.IMG_CLASS;
 			
-		} else if(element instanceof VarDeclWrapper) {
-			VariableKind kind = VariableKind.forDeclaration(((VarDeclWrapper)element).getContext());
-			if(kind != null) {
-				key = kind.imageKey;
-			}
+		} else if(element instanceof MJVarDecl) {
+			key = ((MJVarDecl)element).getKind().imageKey;
 			
-		} else if(element instanceof ConstDeclContext) {
+		} else if(element instanceof MJConstDecl) {
 			return mConstImage;
 			
-		} else if(element instanceof MethodDeclContext) {
-			MethodDeclContext method = (MethodDeclContext)element;
-			if(MAIN_NAME.equals(getText(method.Ident(), null))) {
+		} else if(element instanceof MJMethodDecl) {
+			MJMethodDecl method = (MJMethodDecl)element;
+			if(MAIN_NAME.equals(method.getName())) {
 				return mMainImage;
 			}
 			key = MicroJavaEditorPlugin.IMG_METHOD;
 			
-		} else if(element instanceof ProgContext) {
+		} else if(element instanceof MJProgram) {
 			key = MicroJavaEditorPlugin.IMG_PROGRAM;
 			
 		}
@@ -174,13 +162,13 @@ public class MJLabelProvider extends BaseLabelProvider implements IStyledLabelPr
 	}
 	
 	/**
-	 * Get the text of the specified parse tree, or a default value if {@code n} is {@code null}.
+	 * Get the text of the specified name or type, or a default value if {@code n} is {@code null}.
 	 * 
-	 * @param n A {@link ParseTree}, can be {@code null}
+	 * @param n A name or {@link MJType}, can be {@code null}
 	 * @param def The default value
-	 * @return {@link ParseTree#getText() n.getText()} if {@code n} is not {@code null}, {@code def} otherwise
+	 * @return {@link Object#toString() n.toString()} if {@code n} is not {@code null}, {@code def} otherwise
 	 */
-	private static String getText(ParseTree n, String def) {
-		return (n != null ? n.getText() : def);
+	private static String getText(Object n, String def) {
+		return (n != null ? n.toString() : def);
 	}
 }
@@ -0,0 +1,147 @@
+package net.feichti.microjavaeditor.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.feichti.microjavaeditor.ast.MJConstDecl;
+import net.feichti.microjavaeditor.ast.MJMethodDecl;
+import net.feichti.microjavaeditor.ast.MJNode;
+import net.feichti.microjavaeditor.ast.MJScopeDecl;
+import net.feichti.microjavaeditor.ast.MJType;
+import net.feichti.microjavaeditor.ast.MJVarDecl;
+
+/**
+ * An element of the outline view, wraps the AST node of a declaration.
+ * <p>
+ * Outline elements are kept while the declaration they represent exists, only the wrapped node is replaced
+ * whenever the program is parsed again. This way the tree viewer items are kept as well, together with their
+ * expansion and selection state. Two nodes represent the same element if they have the same key, see
+ * {@link #isSameElement(MJNode, MJNode)}.
+ * 
+ * @author Peter
+ */
+public class MJOutlineElement
+{
+	private final MJOutlineElement mParent;
+	private final List<MJOutlineElement> mChildren;
+	private MJNode mNode;
+	
+	/**
+	 * Create a new outline element.
+	 * 
+	 * @param parent The parent element, or {@code null} for top-level elements
+	 * @param node The AST node of the element
+	 */
+	public MJOutlineElement(MJOutlineElement parent, MJNode node) {
+		mParent = parent;
+		mNode = node;
+		if(node instanceof MJScopeDecl) {
+			List<MJVarDecl> vars = ((MJScopeDecl)node).getVariables();
+			mChildren = new ArrayList<>(vars.size());
+			for(MJVarDecl var : vars) {
+				mChildren.add(new MJOutlineElement(this, var));
+			}
+		} else {
+			mChildren = Collections.emptyList();
+		}
+	}
+	
+	/**
+	 * Get the current AST node of this element.
+	 */
+	public MJNode getNode() {
+		return mNode;
+	}
+	
+	/**
+	 * Set the current AST node of this element, the node needs to be the same element as the old one.
+	 */
+	public void setNode(MJNode node) {
+		assert isSameElement(mNode, node);
+		mNode = node;
+	}
+	
+	/**
+	 * Get the parent element.
+	 * 
+	 * @return The parent, or {@code null} for top-level elements
+	 */
+	public MJOutlineElement getParent() {
+		return mParent;
+	}
+	
+	/**
+	 * Get the child elements, that is the fields of a class or the local variables of a method. The list is
+	 * modified by the outline page when the children change.
+	 */
+	public List<MJOutlineElement> getChildren() {
+		return mChildren;
+	}
+	
+	/**
+	 * Determine whether two AST nodes represent the same outline element. This is the case if they are the same
+	 * kind of declaration with the same name, for methods the parameter types have to match as well.
+	 * 
+	 * @param a The first node
+	 * @param b The second node
+	 * @return {@code true} if the nodes represent the same element
+	 */
+	public static boolean isSameElement(MJNode a, MJNode b) {
+		if(a == b) {
+			return true;
+		} else if(a.getClass() != b.getClass() || !equal(a.getName(), b.getName())) {
+			return false;
+		} else if(a instanceof MJMethodDecl) {
+			List<MJVarDecl> p1 = ((MJMethodDecl)a).getParams();
+			List<MJVarDecl> p2 = ((MJMethodDecl)b).getParams();
+			if(p1.size() != p2.size()) {
+				return false;
+			}
+			for(int j = 0; j < p1.size(); j++) {
+				if(!equal(p1.get(j).getType(), p2.get(j).getType())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Determine whether the label of an element changes if its node is replaced.
+	 * 
+	 * @param a The old node
+	 * @param b The new node of the same element
+	 * @return {@code true} if the label needs to be updated
+	 */
+	public static boolean isLabelChanged(MJNode a, MJNode b) {
+		if(a instanceof MJVarDecl) {
+			return !equal(((MJVarDecl)a).getType(), ((MJVarDecl)b).getType());
+		} else if(a instanceof MJConstDecl) {
+			return !equal(((MJConstDecl)a).getType(), ((MJConstDecl)b).getType());
+		} else if(a instanceof MJMethodDecl) {
+			return !equal(((MJMethodDecl)a).getReturnType(), ((MJMethodDecl)b).getReturnType());
+		}
+		return false;
+	}
+	
+	private static boolean equal(Object a, Object b) {
+		return (a == null ? b == null : a.equals(b));
+	}
+	
+	/**
+	 * Get a key for the specified node, nodes with the same key represent the same element.
+	 */
+	public static String getKey(MJNode node) {
+		StringBuilder sb = new StringBuilder(node.getClass().getSimpleName()).append(':').append(node.getName());
+		if(node instanceof MJMethodDecl) {
+			sb.append('(');
+			for(MJVarDecl param : ((MJMethodDecl)node).getParams()) {
+				MJType type = param.getType();
+				sb.append(type).append(',');
+			}
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+}
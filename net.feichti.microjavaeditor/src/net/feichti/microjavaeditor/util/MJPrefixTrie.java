@@ -0,0 +1,180 @@
+package net.feichti.microjavaeditor.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A trie that maps names to values and finds them by prefix or camel case pattern.
+ * <p>
+ * A pattern matches a name if the name starts with the pattern ignoring case, or if the pattern is a camel case
+ * abbreviation of the name: an upper case character of the pattern may skip to the next hump of the name
+ * starting with that character, while a lower case character has to continue the current hump. For example
+ * {@code gSC}, {@code getSC} and {@code gSymC} all match {@code getSymbolCount}. The first character of the
+ * pattern always has to match the first character of the name.
+ * <p>
+ * Searching only visits the branches of the trie that can still match the pattern, so it does not depend on
+ * the number of names that don't match. The trie is not thread-safe.
+ * 
+ * @author Peter
+ */
+public class MJPrefixTrie<T>
+{
+	private static class Node
+	{
+		/** The characters of the children, sorted. */
+		char[] mChars = new char[0];
+		Node[] mChildren = new Node[0];
+		/** The values of the name ending at this node, {@code null} if there are none. */
+		List<Object> mValues;
+		/** The upper case characters below this node, see {@link MJPrefixTrie#humpMask(char)}. */
+		int mHumps;
+		
+		Node getOrAddChild(char c) {
+			int idx = Arrays.binarySearch(mChars, c);
+			if(idx >= 0) {
+				return mChildren[idx];
+			}
+			idx = -idx - 1;
+			final int size = mChars.length;
+			final char[] chars = new char[size + 1];
+			final Node[] children = new Node[size + 1];
+			System.arraycopy(mChars, 0, chars, 0, idx);
+			System.arraycopy(mChildren, 0, children, 0, idx);
+			System.arraycopy(mChars, idx, chars, idx + 1, size - idx);
+			System.arraycopy(mChildren, idx, children, idx + 1, size - idx);
+			chars[idx] = c;
+			children[idx] = new Node();
+			mChars = chars;
+			mChildren = children;
+			return children[idx];
+		}
+	}
+	
+	private final Node mRoot = new Node();
+	private int mSize;
+	
+	/**
+	 * Add a value for the specified name, a name can have several values.
+	 * 
+	 * @param name The name
+	 * @param value The value
+	 */
+	public void add(String name, T value) {
+		// The humps after every position of the name
+		final int[] humps = new int[name.length() + 1];
+		for(int j = name.length() - 1; j >= 0; j--) {
+			humps[j] = humps[j + 1] | humpMask(name.charAt(j));
+		}
+		Node node = mRoot;
+		node.mHumps |= humps[0];
+		for(int j = 0; j < name.length(); j++) {
+			node = node.getOrAddChild(name.charAt(j));
+			node.mHumps |= humps[j + 1];
+		}
+		if(node.mValues == null) {
+			node.mValues = new ArrayList<>(1);
+		}
+		node.mValues.add(value);
+		mSize++;
+	}
+	
+	/**
+	 * Get the number of values in this trie.
+	 */
+	public int size() {
+		return mSize;
+	}
+	
+	/**
+	 * Find the values of all names matching the specified pattern.
+	 * 
+	 * @param pattern The prefix or camel case pattern, the empty string matches all names
+	 * @param result The collection the values are added to, values can be added more than once if it is not a
+	 *        set
+	 */
+	public void find(String pattern, Collection<? super T> result) {
+		find(mRoot, pattern, 0, true, result);
+	}
+	
+	private void find(Node node, String pattern, int i, boolean contiguous, Collection<? super T> result) {
+		if(i == pattern.length()) {
+			collect(node, result);
+			return;
+		}
+		final char p = pattern.charAt(i);
+		final int skip = (i > 0 && Character.isUpperCase(p) ? humpMask(p) : 0);
+		for(int j = 0; j < node.mChars.length; j++) {
+			final Node child = node.mChildren[j];
+			if(isMatch(node.mChars[j], p, contiguous)) {
+				find(child, pattern, i + 1, true, result);
+			}
+			if((child.mHumps & skip) != 0) {
+				// Try a later hump as well, a lower case character after this one might not match here
+				find(child, pattern, i, false, result);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void collect(Node node, Collection<? super T> result) {
+		if(node.mValues != null) {
+			for(Object value : node.mValues) {
+				result.add((T)value);
+			}
+		}
+		for(Node child : node.mChildren) {
+			collect(child, result);
+		}
+	}
+	
+	/**
+	 * Determine whether a name matches the specified pattern, like it does when searching a trie.
+	 * 
+	 * @param pattern The prefix or camel case pattern
+	 * @param name The name
+	 * @return {@code true} if the name matches, {@code false} otherwise
+	 */
+	public static boolean matches(String pattern, String name) {
+		return matches(pattern, 0, name, 0, true);
+	}
+	
+	private static boolean matches(String pattern, int i, String name, int k, boolean contiguous) {
+		if(i == pattern.length()) {
+			return true;
+		}
+		final char p = pattern.charAt(i);
+		for(; k < name.length(); k++) {
+			if(isMatch(name.charAt(k), p, contiguous) && matches(pattern, i + 1, name, k + 1, true)) {
+				return true;
+			} else if(i == 0 || !Character.isUpperCase(p)) {
+				return false;
+			}
+			contiguous = false;
+		}
+		return false;
+	}
+	
+	/**
+	 * Get the bit of an upper case character in {@link Node#mHumps}. Characters other than ASCII letters share
+	 * a bit.
+	 */
+	private static int humpMask(char c) {
+		if(c >= 'A' && c <= 'Z') {
+			return 1 << (c - 'A');
+		}
+		return (Character.isUpperCase(c) ? 1 << 26 : 0);
+	}
+	
+	/**
+	 * Determine whether a character of a name matches a character of the pattern. Directly after the previous
+	 * match case is ignored, otherwise only the start of a hump can match.
+	 */
+	private static boolean isMatch(char c, char p, boolean contiguous) {
+		if(contiguous) {
+			return (Character.toLowerCase(c) == Character.toLowerCase(p));
+		}
+		return (c == p && Character.isUpperCase(c));
+	}
+}